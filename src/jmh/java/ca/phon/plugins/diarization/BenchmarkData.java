@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.session.Session;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.WordInfo;
+import com.google.protobuf.Duration;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generated audio and canned LIUM/Google responses used by benchmarks.  All
+ * data is generated from a fixed seed so runs are comparable.
+ */
+final class BenchmarkData {
+
+	final static float SAMPLE_RATE = 16000.0f;
+
+	private final static long SEED = 20211001L;
+
+	private final static String[] WORDS = { "the", "ball", "is", "red", "and", "big", "look", "at", "that", "doggy" };
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Generate a 16KHz mono wav file with alternating 'speakers' (harmonic tones
+	 * with different fundamental frequencies and noise) separated by short pauses.
+	 *
+	 * @param seconds
+	 * @param speakerCount
+	 * @return temporary wav file, deleted on exit
+	 * @throws IOException
+	 */
+	static File generateAudio(int seconds, int speakerCount) throws IOException {
+		final Random random = new Random(SEED);
+		final int numSamples = (int)(seconds * SAMPLE_RATE);
+		final byte[] pcm = new byte[numSamples * 2];
+
+		int sample = 0;
+		int turn = 0;
+		while(sample < numSamples) {
+			final double f0 = 100.0 + 60.0 * (turn % speakerCount);
+			final int turnLength = (int)((1.5 + random.nextDouble() * 3.5) * SAMPLE_RATE);
+			final int pauseLength = (int)((0.2 + random.nextDouble() * 0.4) * SAMPLE_RATE);
+			for(int i = 0; i < turnLength && sample < numSamples; i++, sample++) {
+				final double t = i / SAMPLE_RATE;
+				double v = 0.0;
+				for(int h = 1; h <= 8; h++) {
+					v += Math.sin(2.0 * Math.PI * f0 * h * t) / h;
+				}
+				v = 0.25 * v * (0.6 + 0.4 * Math.sin(2.0 * Math.PI * 4.0 * t)) + 0.02 * random.nextGaussian();
+				writeSample(pcm, sample, v);
+			}
+			for(int i = 0; i < pauseLength && sample < numSamples; i++, sample++) {
+				writeSample(pcm, sample, 0.002 * random.nextGaussian());
+			}
+			++turn;
+		}
+
+		final File retVal = File.createTempFile("phon-diarization-bench", ".wav");
+		retVal.deleteOnExit();
+		final AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+		try (AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(pcm), format, numSamples)) {
+			AudioSystem.write(ais, AudioFileFormat.Type.WAVE, retVal);
+		}
+		return retVal;
+	}
+
+	private static void writeSample(byte[] pcm, int sample, double v) {
+		final short s = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v * Short.MAX_VALUE));
+		pcm[sample * 2] = (byte)(s & 0xff);
+		pcm[sample * 2 + 1] = (byte)((s >> 8) & 0xff);
+	}
+
+	/**
+	 * Generate LIUM 'seg.xml' (epac) output.
+	 *
+	 * @param speakerCount
+	 * @param segmentCount
+	 * @return temporary file, deleted on exit
+	 * @throws IOException
+	 */
+	static File generateEpac(int speakerCount, int segmentCount) throws IOException {
+		final Random random = new Random(SEED);
+		final File retVal = File.createTempFile("phon-diarization-bench", ".seg.xml");
+		retVal.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(retVal), StandardCharsets.UTF_8))) {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<epac>");
+			out.println("<audiofile name=\"bench\">");
+			out.println("<speakers>");
+			for(int i = 0; i < speakerCount; i++) {
+				out.println(String.format("<speaker name=\"S%d\" gender=\"%s\" type=\"speaker\"/>", i, (i % 2 == 0 ? "F" : "M")));
+			}
+			out.println("</speakers>");
+			out.println("<segments>");
+			double time = 0.0;
+			for(int i = 0; i < segmentCount; i++) {
+				final double len = 0.5 + random.nextDouble() * 5.0;
+				out.println(String.format(Locale.ROOT, "<segment start=\"%.2f\" end=\"%.2f\" bandwidth=\"S\" speaker=\"S%d\"/>",
+						time, time + len, random.nextInt(speakerCount)));
+				time += len;
+			}
+			out.println("</segments>");
+			out.println("</audiofile>");
+			out.println("</epac>");
+		}
+		return retVal;
+	}
+
+	/**
+	 * Generate a diarization results session.
+	 *
+	 * @param speakerCount
+	 * @param segmentCount
+	 * @return session
+	 */
+	static Session generateSession(int speakerCount, int segmentCount) {
+		final Random random = new Random(SEED);
+		final DiarizationSessionBuilder builder = new DiarizationSessionBuilder();
+		for(int i = 0; i < speakerCount; i++) {
+			builder.addSpeaker("S" + i, (i % 2 == 0 ? "F" : "M"));
+		}
+		float time = 0.0f;
+		for(int i = 0; i < segmentCount; i++) {
+			final float len = 500.0f + random.nextInt(5000);
+			builder.addSegment("S" + random.nextInt(speakerCount), time, time + len);
+			time += len;
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Generate a Google speech recognition response (last result) with speaker tags.
+	 *
+	 * @param speakerCount
+	 * @param wordCount
+	 * @return alternative
+	 */
+	static SpeechRecognitionAlternative generateAlternative(int speakerCount, int wordCount) {
+		final Random random = new Random(SEED);
+		final SpeechRecognitionAlternative.Builder builder = SpeechRecognitionAlternative.newBuilder();
+		long timeMs = 0L;
+		int speakerTag = 1;
+		for(int i = 0; i < wordCount; i++) {
+			if(random.nextInt(12) == 0) {
+				speakerTag = 1 + random.nextInt(speakerCount);
+				timeMs += 300L;
+			}
+			final long len = 100L + random.nextInt(500);
+			builder.addWords(WordInfo.newBuilder()
+					.setWord(WORDS[random.nextInt(WORDS.length)])
+					.setStartTime(duration(timeMs))
+					.setEndTime(duration(timeMs + len))
+					.setSpeakerTag(speakerTag)
+					.build());
+			timeMs += len;
+		}
+		return builder.build();
+	}
+
+	private static Duration duration(long ms) {
+		return Duration.newBuilder().setSeconds(ms / 1000L).setNanos((int)((ms % 1000L) * 1000000L)).build();
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.app.project.DesktopProjectFactory;
+import ca.phon.project.Project;
+import ca.phon.session.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving diarization results to a temporary project.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiarizationResultsManagerBenchmark {
+
+	@Param({"1000", "20000"})
+	private int segmentCount;
+
+	@Param({"8"})
+	private int speakerCount;
+
+	private DiarizationResultsManager resultsManager;
+
+	private Session results;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final File projectFolder = Files.createTempDirectory("phon-diarization-bench").toFile();
+		projectFolder.deleteOnExit();
+		final Project project = new DesktopProjectFactory().createProject(projectFolder);
+
+		results = BenchmarkData.generateSession(speakerCount, segmentCount);
+		resultsManager = new DiarizationResultsManager(project, results);
+	}
+
+	@Benchmark
+	public File saveDiarizationResults() throws Exception {
+		resultsManager.saveDiarizationResults(results);
+		return resultsManager.diarizationResultsFile(false);
+	}
+
+}
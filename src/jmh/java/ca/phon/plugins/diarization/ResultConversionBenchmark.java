@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.session.Session;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of LIUM and Google results to {@link Session}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultConversionBenchmark {
+
+	@Param({"1000", "20000"})
+	private int segmentCount;
+
+	@Param({"8"})
+	private int speakerCount;
+
+	private File epacFile;
+
+	private SpeechRecognitionAlternative alternative;
+
+	private LIUMDiarizationTool liumTool;
+
+	private LIUMDiarizationTool liumXSLTTool;
+
+	private GCSTDiarizationTool gcstTool;
+
+	private Session session;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		epacFile = BenchmarkData.generateEpac(speakerCount, segmentCount);
+		// roughly 10 words per segment
+		alternative = BenchmarkData.generateAlternative(speakerCount, segmentCount * 10);
+
+		liumTool = new LIUMDiarizationTool();
+		liumXSLTTool = new LIUMDiarizationTool();
+		liumXSLTTool.setUseXSLTConversion(true);
+		gcstTool = new GCSTDiarizationTool();
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		// enforceMaxSpeakers modifies the session
+		session = BenchmarkData.generateSession(speakerCount, segmentCount);
+	}
+
+	@Benchmark
+	public Session liumTransformResults() throws IOException {
+		return liumTool.transformResults(null, epacFile);
+	}
+
+	@Benchmark
+	public Session liumTransformResultsXSLT() throws IOException {
+		return liumXSLTTool.transformResults(null, epacFile);
+	}
+
+	@Benchmark
+	public Session liumEnforceMaxSpeakers() {
+		liumTool.setMaxSpeakerCount(2);
+		liumTool.enforceMaxSpeakers(session);
+		return session;
+	}
+
+	@Benchmark
+	public Session gcstProcessSpeechRecognitionAlternative() {
+		return gcstTool.processSpeechRecognitionAlternative(alternative);
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import fr.lium.spkDiarization.lib.MainTools;
+import fr.lium.spkDiarization.lib.libDiarizationError.ClusterSetResultList;
+import fr.lium.spkDiarization.libClusteringData.ClusterSet;
+import fr.lium.spkDiarization.libFeature.AudioFeatureSet;
+import fr.lium.spkDiarization.parameter.Parameter;
+import fr.lium.spkDiarization.parameter.ParameterSegmentation;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Individual {@link SpkDiarization} stages on generated audio.  Inputs for each
+ * stage are produced once per trial by running the preceding stages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpkDiarizationStageBenchmark {
+
+	@Param({"120", "600"})
+	private int seconds;
+
+	@Param({"3"})
+	private int speakerCount;
+
+	private SpkDiarization diarization;
+
+	private String segmentationMethod;
+
+	private Parameter parameter;
+
+	private AudioFeatureSet featureSet;
+
+	private ClusterSet clusterSet;
+
+	private ClusterSet clustersSegInit;
+
+	private ClusterSet clustersSeg;
+
+	private ClusterSet clustersLClust;
+
+	private ClusterSet clustersHClust;
+
+	private ClusterSet clustersDClust;
+
+	private ClusterSet clustersSplitClust;
+
+	private ClusterSet clustersGender;
+
+	private ClusterSet referenceClusterSet;
+
+	private ClusterSet uemClusterSet;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final File audioFile = BenchmarkData.generateAudio(seconds, speakerCount);
+		final String[] args = {
+				"--fInputMask", audioFile.getAbsolutePath(),
+				"--sOutputMask", new File(audioFile.getParentFile(), audioFile.getName() + ".seg").getAbsolutePath(),
+				audioFile.getName()
+		};
+		diarization = new SpkDiarization();
+		parameter = SpkDiarization.getParameter(diarization.readOptions(args));
+		clusterSet = diarization.initialize(parameter);
+
+		featureSet = SpkDiarization.loadFeature(parameter, clusterSet, parameter.getParameterInputFeature().getFeaturesDescriptorAsString());
+		featureSet.setCurrentShow(parameter.show);
+		clusterSet.getFirstCluster().firstSegment().setLength(featureSet.getNumberOfFeatures());
+
+		referenceClusterSet = MainTools.readTheSecondClusterSet(parameter);
+		uemClusterSet = MainTools.readThe3rdClusterSet(parameter);
+
+		segmentationMethod = ParameterSegmentation.SegmentationMethodString[parameter.getParameterSegmentation().getMethod().ordinal()];
+		clustersSegInit = diarization.sanityCheck(clusterSet, featureSet, parameter);
+		clustersSeg = diarization.segmentation(segmentationMethod, "FULL", clustersSegInit, featureSet, parameter);
+		clustersLClust = diarization.clusteringLinear(diarization.lMin, clustersSeg.clone(), featureSet, parameter);
+		clustersHClust = diarization.clustering(diarization.hMin, clustersLClust.clone(), featureSet, parameter);
+		clustersDClust = diarization.decode(8, diarization.dMin, clustersHClust.clone(), featureSet, parameter);
+		clustersSplitClust = diarization.speech("10,10,50", clusterSet, clustersSegInit, clustersDClust.clone(), featureSet, parameter);
+		clustersGender = diarization.gender(clusterSet, clustersSplitClust.clone(), featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet sanityCheck() throws Exception {
+		return diarization.sanityCheck(clusterSet, featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet segmentation() throws Exception {
+		return diarization.segmentation(segmentationMethod, "FULL", clustersSegInit, featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet clusteringLinear() throws Exception {
+		return diarization.clusteringLinear(diarization.lMin, clustersSeg.clone(), featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet clustering() throws Exception {
+		return diarization.clustering(diarization.hMin, clustersLClust.clone(), featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet decode() throws Exception {
+		return diarization.decode(8, diarization.dMin, clustersHClust.clone(), featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet speech() throws Exception {
+		return diarization.speech("10,10,50", clusterSet, clustersSegInit, clustersDClust.clone(), featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet gender() throws Exception {
+		return diarization.gender(clusterSet, clustersSplitClust.clone(), featureSet, parameter);
+	}
+
+	@Benchmark
+	public ClusterSet speakerClustering() throws Exception {
+		final ClusterSetResultList showResult = new ClusterSetResultList(diarization.cMin, diarization.cMax, diarization.mult);
+		return diarization.speakerClustering(referenceClusterSet, uemClusterSet, "bench", "ce", clustersGender.clone(), featureSet, parameter, showResult);
+	}
+
+}
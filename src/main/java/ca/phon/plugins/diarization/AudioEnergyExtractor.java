@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming log-energy extraction from PCM wav files.  Audio is read in
+ * fixed size blocks through a {@link FileChannel} and one energy value is
+ * produced per frame, so memory use does not depend on recording length.
+ */
+public final class AudioEnergyExtractor {
+
+	/** Size of blocks read from the audio file */
+	private final static int BLOCK_SIZE = 64 * 1024;
+
+	@FunctionalInterface
+	public interface FrameListener {
+		public void frame(int index, float logEnergy);
+	}
+
+	private AudioEnergyExtractor() {
+	}
+
+	/**
+	 * Extract log-energy (dB) for consecutive frames of 1/frameRate seconds
+	 * into an off-heap frame buffer.
+	 *
+	 * @param wavFile
+	 * @param frameRate frames per second
+	 * @return frame buffer with dimension 1
+	 * @throws IOException if the file is not a supported wav file
+	 */
+	public static FrameBuffer extractEnergy(Path wavFile, int frameRate) throws IOException {
+		return extractEnergy(WavFile.open(wavFile), frameRate);
+	}
+
+	/**
+	 * Extract log-energy (dB) for consecutive frames of 1/frameRate seconds
+	 * into an off-heap frame buffer.
+	 *
+	 * @param wavFile
+	 * @param frameRate frames per second
+	 * @return frame buffer with dimension 1
+	 * @throws IOException
+	 */
+	public static FrameBuffer extractEnergy(WavFile wavFile, int frameRate) throws IOException {
+		final FrameBuffer retVal = new FrameBuffer(1, 64 * 1024, true);
+		extractEnergy(wavFile, frameRate, (index, logEnergy) -> retVal.add(logEnergy));
+		return retVal;
+	}
+
+	/**
+	 * Extract log-energy (dB) for consecutive frames of 1/frameRate seconds,
+	 * frames are provided to the listener as soon as they are read.
+	 *
+	 * @param wavFile
+	 * @param frameRate frames per second
+	 * @param listener
+	 * @throws IOException if the file is not a supported wav file
+	 */
+	public static void extractEnergy(Path wavFile, int frameRate, FrameListener listener) throws IOException {
+		extractEnergy(WavFile.open(wavFile), frameRate, listener);
+	}
+
+	/**
+	 * Extract log-energy (dB) for consecutive frames of 1/frameRate seconds,
+	 * frames are provided to the listener as soon as they are read.
+	 *
+	 * @param wavFile
+	 * @param frameRate frames per second
+	 * @param listener
+	 * @throws IOException
+	 */
+	public static void extractEnergy(WavFile wavFile, int frameRate, FrameListener listener) throws IOException {
+		try (FileChannel channel = FileChannel.open(wavFile.getPath(), StandardOpenOption.READ)) {
+			final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			channel.position(wavFile.getDataOffset());
+
+			final int channels = wavFile.getChannels();
+			final int bytesPerFrame = wavFile.getBlockAlign();
+			final int samplesPerFrame = Math.max(1, wavFile.getSampleRate() / frameRate);
+
+			long unread = wavFile.getDataLength();
+			double energy = 0.0;
+			int sampleCount = 0;
+			int frameIndex = 0;
+
+			block.clear();
+			while(unread > 0) {
+				block.limit((int)Math.min(block.capacity(), block.position() + unread));
+				final int read = channel.read(block);
+				if(read <= 0) break;
+				unread -= read;
+				block.flip();
+				while(block.remaining() >= bytesPerFrame) {
+					double v = 0.0;
+					for(int c = 0; c < channels; c++) {
+						v += readSample(block, wavFile);
+					}
+					v /= channels;
+					energy += v * v;
+					if(++sampleCount == samplesPerFrame) {
+						listener.frame(frameIndex++, logEnergy(energy, sampleCount));
+						energy = 0.0;
+						sampleCount = 0;
+					}
+				}
+				block.compact();
+			}
+			if(sampleCount > 0) {
+				listener.frame(frameIndex, logEnergy(energy, sampleCount));
+			}
+		}
+	}
+
+	private static float logEnergy(double energy, int sampleCount) {
+		return (float)(10.0 * Math.log10(energy / sampleCount + 1e-10));
+	}
+
+	/**
+	 * Read one sample, scaled to [-1, 1]
+	 */
+	static double readSample(ByteBuffer block, WavFile format) {
+		if(format.isFloatingPoint()) {
+			return (format.getBitsPerSample() == 64 ? block.getDouble() : block.getFloat());
+		}
+		switch(format.getBitsPerSample()) {
+			case 8:
+				return ((block.get() & 0xff) - 128) / 128.0;
+
+			case 16:
+				return block.getShort() / 32768.0;
+
+			case 24:
+				int v = (block.get() & 0xff) | ((block.get() & 0xff) << 8) | (block.get() << 16);
+				return v / 8388608.0;
+
+			default:
+				return block.getInt() / 2147483648.0;
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Windowed sinc resampler producing blocks of output samples on demand.  Only the
+ * source samples under the filter of the requested block are read, so long audio
+ * can be resampled block by block without holding the converted signal in memory.
+ */
+public final class BlockResampler {
+
+	/** Zero crossings of the filter on each side of the output sample */
+	private final static int ZERO_CROSSINGS = 12;
+
+	/** Filter table entries per source sample */
+	private final static int TABLE_RESOLUTION = 256;
+
+	/** Cutoff relative to the Nyquist frequency of the lower rate */
+	private final static double ROLLOFF = 0.95;
+
+	private final int sourceSamples;
+
+	private final IntToDoubleFunction samples;
+
+	private final double step;
+
+	private final double halfWidth;
+
+	private final int numSamples;
+
+	private final double[] filter;
+
+	/**
+	 * @param sourceSamples number of source samples
+	 * @param sourceRate source sample rate
+	 * @param targetRate target sample rate
+	 * @param samples source sample values
+	 */
+	public BlockResampler(int sourceSamples, float sourceRate, float targetRate, IntToDoubleFunction samples) {
+		this.sourceSamples = sourceSamples;
+		this.samples = samples;
+		this.step = (double)sourceRate / targetRate;
+		this.numSamples = (int)((long)sourceSamples * targetRate / sourceRate);
+
+		final double cutoff = ROLLOFF * Math.min(1.0, 1.0 / step);
+		this.halfWidth = ZERO_CROSSINGS / cutoff;
+		this.filter = new double[(int)Math.ceil(halfWidth * TABLE_RESOLUTION) + 2];
+		for(int i = 0; i < filter.length; i++) {
+			final double x = (double)i / TABLE_RESOLUTION;
+			if(x >= halfWidth) break;
+			final double window = 0.42 + 0.5 * Math.cos(Math.PI * x / halfWidth) + 0.08 * Math.cos(2.0 * Math.PI * x / halfWidth);
+			final double arg = Math.PI * cutoff * x;
+			filter[i] = cutoff * (i == 0 ? 1.0 : Math.sin(arg) / arg) * window;
+		}
+	}
+
+	/**
+	 * Number of output samples
+	 *
+	 * @return sample count
+	 */
+	public int getNumberOfSamples() {
+		return this.numSamples;
+	}
+
+	/**
+	 * Resample a block of output samples
+	 *
+	 * @param start first output sample
+	 * @param length number of output samples
+	 * @return resampled values
+	 */
+	public double[] resample(int start, int length) {
+		final double[] retVal = new double[length];
+		if(length <= 0) return retVal;
+
+		final int first = (int)Math.floor(start * step - halfWidth);
+		final int last = (int)Math.ceil((start + length - 1) * step + halfWidth);
+		final double[] source = new double[last - first + 1];
+		for(int i = Math.max(0, first); i <= Math.min(last, sourceSamples - 1); i++) {
+			source[i - first] = samples.applyAsDouble(i);
+		}
+
+		for(int i = 0; i < length; i++) {
+			final double t = (start + i) * step;
+			final int lo = (int)Math.ceil(t - halfWidth);
+			final int hi = (int)Math.floor(t + halfWidth);
+			double sum = 0.0;
+			for(int j = lo; j <= hi; j++) {
+				final double x = Math.abs(t - j) * TABLE_RESOLUTION;
+				final int idx = (int)x;
+				final double h = filter[idx] + (x - idx) * (filter[idx + 1] - filter[idx]);
+				sum += source[j - first] * h;
+			}
+			retVal[i] = sum;
+		}
+		return retVal;
+	}
+
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.app.log.LogUtil;
+import ca.phon.media.MediaLocator;
+import ca.phon.project.Project;
+import ca.phon.session.Session;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Diarization of many sessions of a project.  LIUM jobs run locally and are scheduled
+ * on a pool sized to the number of processors, concurrent jobs share the derived feature
+ * cache budget.  Google Cloud Speech to Text jobs are scheduled on a separate pool sized
+ * to the API quota.  Chunk recognition requests of all Google jobs share a single request
+ * limiter.  Results are written using {@link DiarizationResultsManager}.
+ *
+ * Job state is appended to a ledger file in the project diarization folder, when the
+ * batch is started again sessions completed by a previous run are skipped.
+ */
+public class DiarizationBatch {
+
+	public enum Engine {
+		LIUM,
+		GOOGLE
+	};
+
+	public enum JobState {
+		STARTED,
+		DONE,
+		FAILED
+	};
+
+	private final Project project;
+
+	private final Map<Engine, Function<DiarizationResultsManager, DiarizationTool>> toolFactories = new EnumMap<>(Engine.class);
+
+	private final List<Job> jobs = new ArrayList<>();
+
+	private final CopyOnWriteArrayList<DiarizationListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final Set<DiarizationFutureResult> activeResults = ConcurrentHashMap.newKeySet();
+
+	private int maxLIUMJobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	private int maxGoogleJobs = GCSTDiarizationTool.DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+	private int maxGoogleRequests = GCSTDiarizationTool.DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+	private int maxGoogleRequestsPerMinute = GCSTDiarizationTool.DEFAULT_MAX_REQUESTS_PER_MINUTE;
+
+	private GCSTChunkedRecognition.RequestLimiter googleRequestLimiter;
+
+	private boolean skipCompleted = true;
+
+	private boolean recordMergeHistory = false;
+
+	private volatile boolean cancelled = false;
+
+	private final AtomicInteger completedCount = new AtomicInteger(0);
+
+	private final AtomicInteger failedCount = new AtomicInteger(0);
+
+	private JobLedger ledger;
+
+	private final List<ExecutorService> executors = new ArrayList<>();
+
+	public DiarizationBatch(Project project) {
+		this.project = project;
+
+		toolFactories.put(Engine.LIUM, (resultsManager) -> {
+			LIUMDiarizationTool tool = new LIUMDiarizationTool();
+			tool.setDoCEClustering(true);
+			tool.setRecordMergeHistory(recordMergeHistory);
+			tool.setFeatureCacheFolder(resultsManager.featureCacheFolder(true));
+			return tool;
+		});
+	}
+
+	public Project getProject() {
+		return this.project;
+	}
+
+	public void addListener(DiarizationListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public boolean removeListener(DiarizationListener listener) {
+		return listeners.remove(listener);
+	}
+
+	private void fireDiarizationEvent(DiarizationEvent.DiarizationEventType type, String message) {
+		final DiarizationEvent evt = new DiarizationEvent(type, message);
+		listeners.forEach(listener -> listener.diarizationEvent(evt));
+	}
+
+	/**
+	 * Set factory used to create a configured tool for each session diarized with the given engine.
+	 * A default factory is provided for LIUM, Google jobs require a factory providing project and
+	 * credentials.
+	 *
+	 * @param engine
+	 * @param toolFactory
+	 */
+	public void setToolFactory(Engine engine, Function<DiarizationResultsManager, DiarizationTool> toolFactory) {
+		toolFactories.put(engine, toolFactory);
+	}
+
+	/**
+	 * Factory used to create tools for the given engine, may be used to layer
+	 * settings on top of the default factory.
+	 *
+	 * @param engine
+	 * @return tool factory or <code>null</code> if not configured
+	 */
+	public Function<DiarizationResultsManager, DiarizationTool> getToolFactory(Engine engine) {
+		return toolFactories.get(engine);
+	}
+
+	public int getMaxLIUMJobs() {
+		return this.maxLIUMJobs;
+	}
+
+	public void setMaxLIUMJobs(int maxLIUMJobs) {
+		this.maxLIUMJobs = maxLIUMJobs;
+	}
+
+	public int getMaxGoogleJobs() {
+		return this.maxGoogleJobs;
+	}
+
+	public void setMaxGoogleJobs(int maxGoogleJobs) {
+		this.maxGoogleJobs = maxGoogleJobs;
+	}
+
+	public int getMaxGoogleRequests() {
+		return this.maxGoogleRequests;
+	}
+
+	/**
+	 * Max number of chunk recognition requests in flight for all Google jobs
+	 *
+	 * @param maxGoogleRequests
+	 */
+	public void setMaxGoogleRequests(int maxGoogleRequests) {
+		this.maxGoogleRequests = maxGoogleRequests;
+	}
+
+	public int getMaxGoogleRequestsPerMinute() {
+		return this.maxGoogleRequestsPerMinute;
+	}
+
+	/**
+	 * Max number of chunk recognition requests started per minute for all Google jobs
+	 *
+	 * @param maxGoogleRequestsPerMinute max requests per minute, 0 for no limit
+	 */
+	public void setMaxGoogleRequestsPerMinute(int maxGoogleRequestsPerMinute) {
+		this.maxGoogleRequestsPerMinute = maxGoogleRequestsPerMinute;
+	}
+
+	public boolean isSkipCompleted() {
+		return this.skipCompleted;
+	}
+
+	/**
+	 * Skip sessions recorded as completed in the job ledger
+	 *
+	 * @param skipCompleted
+	 */
+	public void setSkipCompleted(boolean skipCompleted) {
+		this.skipCompleted = skipCompleted;
+	}
+
+	public boolean isRecordMergeHistory() {
+		return this.recordMergeHistory;
+	}
+
+	/**
+	 * Record the LIUM speaker clustering merge tree with results of the default
+	 * LIUM factory, required to change the number of speakers of saved results.
+	 * Off by default as clustering then continues past the threshold.
+	 *
+	 * @param recordMergeHistory
+	 */
+	public void setRecordMergeHistory(boolean recordMergeHistory) {
+		this.recordMergeHistory = recordMergeHistory;
+	}
+
+	/**
+	 * Add session to batch
+	 *
+	 * @param corpus
+	 * @param session
+	 * @param engine
+	 */
+	public void addSession(String corpus, String session, Engine engine) {
+		jobs.add(new Job(corpus, session, engine));
+	}
+
+	/**
+	 * Add all sessions of corpus to batch
+	 *
+	 * @param corpus
+	 * @param engine
+	 */
+	public void addCorpus(String corpus, Engine engine) {
+		for(String session:project.getCorpusSessions(corpus)) {
+			addSession(corpus, session, engine);
+		}
+	}
+
+	/**
+	 * Add all sessions of project to batch
+	 *
+	 * @param engine
+	 */
+	public void addProject(Engine engine) {
+		for(String corpus:project.getCorpora()) {
+			addCorpus(corpus, engine);
+		}
+	}
+
+	public int getJobCount() {
+		return jobs.size();
+	}
+
+	/**
+	 * Number of jobs completed by this run
+	 *
+	 * @return completed job count
+	 */
+	public int getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * Number of jobs failed in this run
+	 *
+	 * @return failed job count
+	 */
+	public int getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Start batch
+	 *
+	 * @return future completed when all jobs have finished
+	 * @throws IOException if the job ledger could not be read
+	 */
+	public CompletableFuture<Void> start() throws IOException {
+		ledger = new JobLedger(DiarizationResultsManager.batchLedgerFile(project, true));
+		googleRequestLimiter = new GCSTChunkedRecognition.RequestLimiter(maxGoogleRequests, maxGoogleRequestsPerMinute);
+
+		final ExecutorService liumExecutor = createExecutor("LIUM batch diarization", maxLIUMJobs);
+		final ExecutorService googleExecutor = createExecutor("Google batch diarization", maxGoogleJobs);
+
+		final List<CompletableFuture<Void>> futures = new ArrayList<>();
+		int skipped = 0;
+		for(Job job:jobs) {
+			if(skipCompleted && ledger.getState(job.corpus, job.session, job.engine) == JobState.DONE) {
+				++skipped;
+				continue;
+			}
+			final ExecutorService executor = (job.engine == Engine.GOOGLE ? googleExecutor : liumExecutor);
+			futures.add(CompletableFuture.runAsync(() -> runJob(job), executor));
+		}
+		fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationMessage,
+				String.format("Batch diarization of %d sessions, %d completed previously", jobs.size(), skipped));
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete( (v, t) -> {
+			liumExecutor.shutdown();
+			googleExecutor.shutdown();
+		});
+	}
+
+	private ExecutorService createExecutor(String name, int size) {
+		final ExecutorService retVal = Executors.newFixedThreadPool(Math.max(1, size), (r) -> {
+			final Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		synchronized(executors) {
+			executors.add(retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Cancel batch, running jobs are cancelled and remain unfinished in the ledger.
+	 * Queued jobs return without running so the future returned by {@link #start()}
+	 * completes.
+	 */
+	public void cancel() {
+		cancelled = true;
+		activeResults.forEach(DiarizationFutureResult::cancel);
+		synchronized(executors) {
+			executors.forEach(ExecutorService::shutdown);
+		}
+	}
+
+	private void runJob(Job job) {
+		if(cancelled) return;
+
+		final String jobName = job.corpus + "." + job.session;
+		final Function<DiarizationResultsManager, DiarizationTool> toolFactory = toolFactories.get(job.engine);
+		if(toolFactory == null) {
+			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError,
+					jobName + ": no " + job.engine + " diarization tool configured");
+			ledger.record(job.corpus, job.session, job.engine, JobState.FAILED);
+			failedCount.incrementAndGet();
+			return;
+		}
+
+		ledger.record(job.corpus, job.session, job.engine, JobState.STARTED);
+		fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationMessage, "Diarizing " + jobName);
+		DiarizationFutureResult result = null;
+		try {
+			final Session session = project.openSession(job.corpus, job.session);
+			final File audioFile = sessionAudioFile(project, session);
+			if(audioFile == null)
+				throw new IOException("Session audio not available");
+
+			final DiarizationResultsManager resultsManager = new DiarizationResultsManager(project, session);
+			final DiarizationTool tool = toolFactory.apply(resultsManager);
+			if(tool instanceof GCSTDiarizationTool) {
+				((GCSTDiarizationTool)tool).setRequestLimiter(googleRequestLimiter);
+			} else if(tool instanceof LIUMDiarizationTool) {
+				// concurrent jobs share the derived feature cache budget
+				final LIUMDiarizationTool liumTool = (LIUMDiarizationTool)tool;
+				liumTool.setFeatureCacheBudget(liumTool.getFeatureCacheBudget() / Math.max(1, maxLIUMJobs));
+			}
+			listeners.forEach(tool::addListener);
+
+			result = tool.diarize(audioFile);
+			activeResults.add(result);
+			if(cancelled) result.cancel();
+
+			final Session diarizationSession = result.getFutureSession().get();
+			if(diarizationSession == null)
+				throw new IOException("No diarization results");
+			diarizationSession.setCorpus(session.getCorpus());
+			resultsManager.saveDiarizationResults(diarizationSession);
+
+			ledger.record(job.corpus, job.session, job.engine, JobState.DONE);
+			completedCount.incrementAndGet();
+			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationMessage,
+					"Saved diarization results for " + jobName + " to " + resultsManager.diarizationResultsFile(false));
+		} catch (InterruptedException e) {
+			// cancelled, job remains started in ledger and will be run again
+			Thread.currentThread().interrupt();
+		} catch (CancellationException e) {
+			// cancelled, job remains started in ledger and will be run again
+		} catch (IOException | ExecutionException | RuntimeException e) {
+			LogUtil.warning(e);
+			ledger.record(job.corpus, job.session, job.engine, JobState.FAILED);
+			failedCount.incrementAndGet();
+			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError,
+					jobName + ": " + e.getLocalizedMessage());
+		} finally {
+			if(result != null) activeResults.remove(result);
+		}
+	}
+
+	/**
+	 * Locate the wav audio of the session media without using the session editor
+	 * media model.  The audio is the session media when it is a wav file, otherwise a
+	 * wav file with the same name next to the media file.
+	 *
+	 * @param project
+	 * @param session
+	 * @return audio file or <code>null</code> if not available
+	 */
+	static File sessionAudioFile(Project project, Session session) {
+		final File mediaFile = MediaLocator.findMediaFile(project, session);
+		if(mediaFile == null || !mediaFile.exists()) return null;
+
+		final String name = mediaFile.getName();
+		if(name.toLowerCase().endsWith(".wav")) return mediaFile;
+		final int dotIdx = name.lastIndexOf('.');
+		final File retVal = new File(mediaFile.getParentFile(), (dotIdx > 0 ? name.substring(0, dotIdx) : name) + ".wav");
+		return (retVal.exists() ? retVal : null);
+	}
+
+	private final static class Job {
+
+		private final String corpus;
+
+		private final String session;
+
+		private final Engine engine;
+
+		private Job(String corpus, String session, Engine engine) {
+			this.corpus = corpus;
+			this.session = session;
+			this.engine = engine;
+		}
+
+	}
+
+	/**
+	 * Append-only job ledger, one tab separated line per state change:
+	 * <code>state corpus session timestamp engine</code>.  The last line for a
+	 * session and engine determines its state.  Lines written before the engine
+	 * was recorded apply to sessions without an entry for the requested engine.
+	 */
+	public final static class JobLedger {
+
+		private final File ledgerFile;
+
+		private final Map<String, JobState> states = new HashMap<>();
+
+		public JobLedger(File ledgerFile) throws IOException {
+			this.ledgerFile = ledgerFile;
+			load();
+		}
+
+		private void load() throws IOException {
+			if(!ledgerFile.exists()) return;
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ledgerFile), StandardCharsets.UTF_8))) {
+				String line = null;
+				while((line = reader.readLine()) != null) {
+					final String[] fields = line.split("\t");
+					if(fields.length < 3) continue;
+					try {
+						final Engine engine = (fields.length > 4 ? Engine.valueOf(fields[4]) : null);
+						states.put(key(fields[1], fields[2], engine), JobState.valueOf(fields[0]));
+					} catch (IllegalArgumentException e) {
+						LogUtil.warning("Invalid ledger entry " + line);
+					}
+				}
+			}
+		}
+
+		public synchronized JobState getState(String corpus, String session, Engine engine) {
+			final JobState retVal = states.get(key(corpus, session, engine));
+			return (retVal != null ? retVal : states.get(key(corpus, session, null)));
+		}
+
+		/**
+		 * Record job state, the ledger file is flushed before returning
+		 *
+		 * @param corpus
+		 * @param session
+		 * @param engine
+		 * @param state
+		 */
+		public synchronized void record(String corpus, String session, Engine engine, JobState state) {
+			states.put(key(corpus, session, engine), state);
+			try(PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(ledgerFile, true), StandardCharsets.UTF_8))) {
+				out.println(state + "\t" + corpus + "\t" + session + "\t" + System.currentTimeMillis() + "\t" + engine);
+			} catch (IOException e) {
+				LogUtil.warning(e);
+			}
+		}
+
+		private static String key(String corpus, String session, Engine engine) {
+			return corpus + "\t" + session + "\t" + (engine != null ? engine.name() : "");
+		}
+
+	}
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.project.DesktopProjectFactory;
+import ca.phon.project.Project;
+import ca.phon.project.exceptions.ProjectConfigurationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Headless batch diarization of project sessions.  Results are written to the project
+ * <code>__res/diarization</code> folder, sessions completed by a previous run are skipped.
+ *
+ * <pre>
+ * java -cp ... ca.phon.plugins.diarization.DiarizationCommandLine --project &lt;folder&gt; [options]
+ *
+ *   --corpus &lt;name&gt;           diarize sessions of corpus, may be repeated (default all corpora)
+ *   --session &lt;regex&gt;         only diarize sessions with matching names
+ *   --shard &lt;i&gt;/&lt;n&gt;           only diarize every n-th session starting with the i-th (0-based)
+ *   --engine lium|google      diarization engine (default lium)
+ *   --jobs &lt;n&gt;                number of parallel jobs
+ *   --maxSpeakers &lt;n&gt;         max number of speakers, 0 = auto
+ *   --rerun                   diarize sessions completed by a previous run
+ *   --mergeHistory            record the lium speaker merge tree with results
+ *
+ *   Google Cloud Speech to Text options:
+ *   --projectId &lt;id&gt;
+ *   --credentials &lt;file&gt;      service account credentials
+ *   --language &lt;tag&gt;          language tag (default en-US)
+ *   --model &lt;model&gt;           speech to text model (default video)
+ *   --storageLocation &lt;loc&gt;   bucket storage location (default US)
+ *   --splitLongAudio          recognize long audio in chunks without bucket storage
+ * </pre>
+ *
+ * Exit value is 0 if all sessions were diarized, 1 if any session failed and 2 for
+ * invalid arguments.
+ */
+public final class DiarizationCommandLine {
+
+	private File projectFolder;
+
+	private final List<String> corpora = new ArrayList<>();
+
+	private Pattern sessionPattern;
+
+	private int shardIndex = 0;
+
+	private int shardCount = 1;
+
+	private DiarizationBatch.Engine engine = DiarizationBatch.Engine.LIUM;
+
+	private int jobs = 0;
+
+	private int maxSpeakers = 0;
+
+	private boolean rerun = false;
+
+	private boolean mergeHistory = false;
+
+	private String googleProjectId;
+
+	private String credentialsFile;
+
+	private String languageModel = "en-US";
+
+	private String gcstModel = "video";
+
+	private String storageLocation = "US";
+
+	private boolean splitLongAudio = false;
+
+	private void parseArgs(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			switch(arg) {
+				case "--project":
+					projectFolder = new File(value(args, ++i, arg));
+					break;
+
+				case "--corpus":
+					corpora.add(value(args, ++i, arg));
+					break;
+
+				case "--session":
+					sessionPattern = Pattern.compile(value(args, ++i, arg));
+					break;
+
+				case "--shard":
+					final String[] shard = value(args, ++i, arg).split("/");
+					if(shard.length != 2) throw new IllegalArgumentException("Invalid shard " + args[i]);
+					shardIndex = Integer.parseInt(shard[0]);
+					shardCount = Integer.parseInt(shard[1]);
+					if(shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount)
+						throw new IllegalArgumentException("Invalid shard " + args[i]);
+					break;
+
+				case "--engine":
+					engine = DiarizationBatch.Engine.valueOf(value(args, ++i, arg).toUpperCase());
+					break;
+
+				case "--jobs":
+					jobs = Integer.parseInt(value(args, ++i, arg));
+					break;
+
+				case "--maxSpeakers":
+					maxSpeakers = Integer.parseInt(value(args, ++i, arg));
+					break;
+
+				case "--rerun":
+					rerun = true;
+					break;
+
+				case "--mergeHistory":
+					mergeHistory = true;
+					break;
+
+				case "--projectId":
+					googleProjectId = value(args, ++i, arg);
+					break;
+
+				case "--credentials":
+					credentialsFile = value(args, ++i, arg);
+					break;
+
+				case "--language":
+					languageModel = value(args, ++i, arg);
+					break;
+
+				case "--model":
+					gcstModel = value(args, ++i, arg);
+					break;
+
+				case "--storageLocation":
+					storageLocation = value(args, ++i, arg);
+					break;
+
+				case "--splitLongAudio":
+					splitLongAudio = true;
+					break;
+
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		if(projectFolder == null)
+			throw new IllegalArgumentException("--project is required");
+		if(engine == DiarizationBatch.Engine.GOOGLE && (googleProjectId == null || credentialsFile == null))
+			throw new IllegalArgumentException("--projectId and --credentials are required for google engine");
+	}
+
+	private static String value(String[] args, int idx, String option) {
+		if(idx >= args.length)
+			throw new IllegalArgumentException("Missing value for " + option);
+		return args[idx];
+	}
+
+	private DiarizationBatch createBatch(Project project) {
+		final DiarizationBatch retVal = new DiarizationBatch(project);
+		retVal.setSkipCompleted(!rerun);
+		retVal.setRecordMergeHistory(mergeHistory);
+		if(jobs > 0) {
+			retVal.setMaxLIUMJobs(jobs);
+			retVal.setMaxGoogleJobs(jobs);
+		}
+
+		if(maxSpeakers > 0) {
+			final Function<DiarizationResultsManager, DiarizationTool> liumFactory = retVal.getToolFactory(DiarizationBatch.Engine.LIUM);
+			retVal.setToolFactory(DiarizationBatch.Engine.LIUM, (resultsManager) -> {
+				final DiarizationTool tool = liumFactory.apply(resultsManager);
+				if(tool instanceof LIUMDiarizationTool) {
+					((LIUMDiarizationTool)tool).setForceSpeakerMax(true);
+					((LIUMDiarizationTool)tool).setMaxSpeakerCount(maxSpeakers);
+				}
+				return tool;
+			});
+		}
+		retVal.setToolFactory(DiarizationBatch.Engine.GOOGLE, (resultsManager) -> {
+			final GCSTDiarizationTool tool = new GCSTDiarizationTool();
+			tool.setProjectId(googleProjectId);
+			tool.setCredentialsFile(credentialsFile);
+			tool.setLanguageModel(languageModel);
+			tool.setGcstModel(gcstModel);
+			tool.setStorageLocation(storageLocation);
+			tool.setSplitLongAudio(splitLongAudio);
+			if(maxSpeakers > 0)
+				tool.setMaxSpeakers(maxSpeakers);
+			return tool;
+		});
+
+		final List<String> corpusList = (corpora.isEmpty() ? project.getCorpora() : corpora);
+		int sessionIdx = 0;
+		for(String corpus:corpusList) {
+			for(String session:project.getCorpusSessions(corpus)) {
+				if(sessionPattern != null && !sessionPattern.matcher(session).matches()) continue;
+				if(sessionIdx++ % shardCount != shardIndex) continue;
+				retVal.addSession(corpus, session, engine);
+			}
+		}
+		return retVal;
+	}
+
+	private int run() throws IOException, ProjectConfigurationException {
+		final Project project = (new DesktopProjectFactory()).openProject(projectFolder);
+		final DiarizationBatch batch = createBatch(project);
+		batch.addListener( (evt) -> {
+			if(evt.getType() == DiarizationEvent.DiarizationEventType.DiarizationError) {
+				System.err.println(evt);
+			} else {
+				System.out.println(evt);
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread(batch::cancel, "Batch diarization shutdown"));
+
+		try {
+			batch.start().get();
+		} catch (InterruptedException e) {
+			batch.cancel();
+			Thread.currentThread().interrupt();
+			return 1;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return 1;
+		} finally {
+			GCSTClients.closeAll();
+		}
+		System.out.println(String.format("Diarized %d sessions, %d failed", batch.getCompletedCount(), batch.getFailedCount()));
+		return (batch.getFailedCount() > 0 ? 1 : 0);
+	}
+
+	public static void main(String[] args) {
+		// never open a display, the session and media APIs used here do not require one
+		System.setProperty("java.awt.headless", "true");
+
+		final DiarizationCommandLine commandLine = new DiarizationCommandLine();
+		try {
+			commandLine.parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(2);
+		}
+
+		int exitValue = 1;
+		try {
+			exitValue = commandLine.run();
+		} catch (IOException | ProjectConfigurationException e) {
+			e.printStackTrace();
+		}
+		System.exit(exitValue);
+	}
+
+}
@@ -25,7 +25,10 @@ public class DiarizationEvent {
 		DiarizationStarted,
 		DiarizationMessage,
 		DiarizationCompleted,
-		DiarizationError
+		DiarizationError,
+		DiarizationStageStarted,
+		DiarizationStageCompleted,
+		DiarizationProgress
 	};
 
 	private DiarizationEventType type;
@@ -34,6 +37,27 @@ public class DiarizationEvent {
 
 	private long timestamp;
 
+	/** Pipeline stage, <code>null</code> if not a stage event */
+	private String stage;
+
+	/** Elapsed time of stage in ms, -1 if unknown */
+	private long elapsedTime = -1L;
+
+	/** Percent complete of whole diarization (0-100), -1 if unknown */
+	private float percentComplete = -1.0f;
+
+	/** Estimated time remaining for whole diarization in ms, -1 if unknown */
+	private long remainingTime = -1L;
+
+	/** CPU time used by stage in ms, -1 if unknown */
+	private long cpuTime = -1L;
+
+	/** Bytes allocated during stage, -1 if unknown */
+	private long allocatedBytes = -1L;
+
+	/** Number of features in the segments processed by stage, -1 if unknown */
+	private int featureCount = -1;
+
 	public DiarizationEvent(String message) {
 		this(DiarizationEventType.DiarizationMessage, message, System.currentTimeMillis());
 	}
@@ -48,6 +72,23 @@ public class DiarizationEvent {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Stage event
+	 *
+	 * @param type one of DiarizationStageStarted, DiarizationStageCompleted or DiarizationProgress
+	 * @param stage
+	 * @param elapsedTime elapsed time of stage in ms or -1
+	 * @param percentComplete percent complete (0-100) or -1
+	 * @param remainingTime estimated time remaining in ms or -1
+	 */
+	public DiarizationEvent(DiarizationEventType type, String stage, long elapsedTime, float percentComplete, long remainingTime) {
+		this(type, null, System.currentTimeMillis());
+		this.stage = stage;
+		this.elapsedTime = elapsedTime;
+		this.percentComplete = percentComplete;
+		this.remainingTime = remainingTime;
+	}
+
 	public DiarizationEventType getType() {
 		return type;
 	}
@@ -72,6 +113,62 @@ public class DiarizationEvent {
 		this.timestamp = timestamp;
 	}
 
+	public String getStage() {
+		return stage;
+	}
+
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	public void setElapsedTime(long elapsedTime) {
+		this.elapsedTime = elapsedTime;
+	}
+
+	public float getPercentComplete() {
+		return percentComplete;
+	}
+
+	public void setPercentComplete(float percentComplete) {
+		this.percentComplete = percentComplete;
+	}
+
+	public long getRemainingTime() {
+		return remainingTime;
+	}
+
+	public void setRemainingTime(long remainingTime) {
+		this.remainingTime = remainingTime;
+	}
+
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	public void setCpuTime(long cpuTime) {
+		this.cpuTime = cpuTime;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public void setAllocatedBytes(long allocatedBytes) {
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	public void setFeatureCount(int featureCount) {
+		this.featureCount = featureCount;
+	}
+
 	@Override
 	public String toString() {
 		LocalDateTime localDateTime =
@@ -95,6 +192,31 @@ public class DiarizationEvent {
 				retVal += " Diarization completed";
 				break;
 
+			case DiarizationStageStarted:
+				retVal += " Stage " + getStage() + " started";
+				break;
+
+			case DiarizationStageCompleted:
+				retVal += " Stage " + getStage() + " completed";
+				if(getElapsedTime() >= 0)
+					retVal += String.format(" in %.3fs", getElapsedTime() / 1000.0f);
+				if(getCpuTime() >= 0)
+					retVal += String.format(", cpu %.3fs", getCpuTime() / 1000.0f);
+				if(getAllocatedBytes() >= 0)
+					retVal += String.format(", %.1fMB allocated", getAllocatedBytes() / (1024.0f * 1024.0f));
+				if(getPercentComplete() >= 0)
+					retVal += String.format(" (%.0f%%", getPercentComplete())
+							+ (getRemainingTime() >= 0 ? String.format(", %d:%02d remaining)", getRemainingTime() / 60000, (getRemainingTime() / 1000) % 60) : ")");
+				break;
+
+			case DiarizationProgress:
+				retVal += " Stage " + getStage();
+				if(getPercentComplete() >= 0)
+					retVal += String.format(" %.0f%%", getPercentComplete());
+				if(getRemainingTime() >= 0)
+					retVal += String.format(" (%d:%02d remaining)", getRemainingTime() / 60000, (getRemainingTime() / 1000) % 60);
+				break;
+
 			default:
 				break;
 		}
@@ -20,6 +20,7 @@ import ca.phon.session.Session;
 import ca.phon.session.io.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 public class DiarizationResultsManager {
 
@@ -28,6 +29,16 @@ public class DiarizationResultsManager {
 	 */
 	public final static String DIARIZATION_FOLDER = "diarization";
 
+	/**
+	 * Location of cached audio features in the diarization folder.
+	 */
+	public final static String FEATURE_CACHE_FOLDER = "features";
+
+	/**
+	 * Name of batch diarization job ledger in the diarization folder.
+	 */
+	public final static String BATCH_LEDGER_FILE = "batch.ledger";
+
 	private final Project project;
 
 	private final Session session;
@@ -48,15 +59,70 @@ public class DiarizationResultsManager {
 	 * @return
 	 */
 	public File diarizationResultsFile(boolean createFolder) {
+		File retVal = new File(diarizationFolder(createFolder), session.getCorpus() + "_" + session.getName() + ".xml");
+		return retVal;
+	}
+
+	/**
+	 * Return location of run report file, stored next to the results file
+	 *
+	 * @param extension 'csv' or 'json'
+	 * @param createFolder create diarization results folder for project if it does not exist
+	 * @return
+	 */
+	public File runReportFile(String extension, boolean createFolder) {
+		File retVal = new File(diarizationFolder(createFolder), session.getCorpus() + "_" + session.getName() + ".report." + extension);
+		return retVal;
+	}
+
+	/**
+	 * Return location of speaker clustering merge tree file, stored next to the results file
+	 *
+	 * @param createFolder create diarization results folder for project if it does not exist
+	 * @return
+	 */
+	public File mergeTreeFile(boolean createFolder) {
+		File retVal = new File(diarizationFolder(createFolder), session.getCorpus() + "_" + session.getName() + ".merges");
+		return retVal;
+	}
+
+	/**
+	 * Return location of cached audio features for the project
+	 *
+	 * @param createFolder create feature cache folder for project if it does not exist
+	 * @return
+	 */
+	public File featureCacheFolder(boolean createFolder) {
+		File retVal = new File(diarizationFolder(createFolder), FEATURE_CACHE_FOLDER);
+		if(createFolder && !retVal.exists()) {
+			retVal.mkdirs();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Return location of the batch diarization job ledger for the project
+	 *
+	 * @param project
+	 * @param createFolder create diarization results folder for project if it does not exist
+	 * @return
+	 */
+	public static File batchLedgerFile(Project project, boolean createFolder) {
+		return new File(diarizationFolder(project, createFolder), BATCH_LEDGER_FILE);
+	}
+
+	private File diarizationFolder(boolean createFolder) {
+		return diarizationFolder(project, createFolder);
+	}
+
+	private static File diarizationFolder(Project project, boolean createFolder) {
 		File resFolder = new File(project.getLocation(), "__res");
 		File diarizationFolder = new File(resFolder, DIARIZATION_FOLDER);
 
 		if(createFolder && !diarizationFolder.exists()) {
 			diarizationFolder.mkdirs();
 		}
-
-		File retVal = new File(diarizationFolder, session.getCorpus() + "_" + session.getName() + ".xml");
-		return retVal;
+		return diarizationFolder;
 	}
 
 	/**
@@ -78,7 +144,86 @@ public class DiarizationResultsManager {
 	public void saveDiarizationResults(Session s) throws IOException {
 		SessionOutputFactory outputFactory = new SessionOutputFactory();
 		SessionWriter writer = outputFactory.createWriter();
-		writer.writeSession(s, new FileOutputStream(diarizationResultsFile(true)));
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(diarizationResultsFile(true)))) {
+			writer.writeSession(s, out);
+		}
+
+		SpeakerMergeHistory mergeHistory = s.getExtension(SpeakerMergeHistory.class);
+		if(mergeHistory != null && mergeHistory.hasLeaves()) {
+			saveMergeTree(mergeHistory);
+		} else {
+			// merge tree of previous results no longer applies
+			mergeTreeFile(false).delete();
+		}
+	}
+
+	/**
+	 * Load diarization results, the merge tree (if available) is attached
+	 * to the returned session as a {@link SpeakerMergeHistory} extension.
+	 *
+	 * @return session
+	 * @throws IOException
+	 */
+	public Session loadDiarizationResults() throws IOException {
+		File f = diarizationResultsFile(false);
+		SessionReader reader = (new SessionInputFactory()).createReaderForFile(f);
+		if(reader == null)
+			throw new IOException("Unable to read diarization results " + f.getAbsolutePath());
+		Session retVal = null;
+		try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+			retVal = reader.readSession(in);
+		}
+		SpeakerMergeHistory mergeHistory = loadMergeTree();
+		if(mergeHistory != null) {
+			retVal.putExtension(SpeakerMergeHistory.class, mergeHistory);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Save speaker clustering merge tree
+	 *
+	 * @param mergeHistory
+	 * @throws IOException
+	 */
+	public void saveMergeTree(SpeakerMergeHistory mergeHistory) throws IOException {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(mergeTreeFile(true)), StandardCharsets.UTF_8)))) {
+			LIUMResultsConverter.writeMergeLines(mergeHistory, out::println);
+			if(out.checkError())
+				throw new IOException("Unable to write " + mergeTreeFile(false).getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Load speaker clustering merge tree
+	 *
+	 * @return merge tree or <code>null</code> if not available
+	 * @throws IOException
+	 */
+	public SpeakerMergeHistory loadMergeTree() throws IOException {
+		File f = mergeTreeFile(false);
+		if(!f.exists()) return null;
+
+		SpeakerMergeHistory retVal = new SpeakerMergeHistory();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+			String line = null;
+			while((line = in.readLine()) != null) {
+				LIUMResultsConverter.readMergeLine(line, retVal);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Save run report as CSV and JSON files
+	 *
+	 * @param report
+	 * @throws IOException
+	 */
+	public void saveRunReport(DiarizationRunReport report) throws IOException {
+		report.writeCSV(runReportFile("csv", true));
+		report.writeJSON(runReportFile("json", true));
 	}
 
 }
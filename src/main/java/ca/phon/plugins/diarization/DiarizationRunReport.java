@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects completed stage events of a diarization run.  Add the report
+ * as a listener to a {@link DiarizationTool} before calling diarize.
+ */
+public final class DiarizationRunReport implements DiarizationListener {
+
+	private final static String[] CSV_COLUMNS = {
+			"stage", "timestamp", "elapsedMs", "cpuMs", "allocatedBytes", "featureCount", "percentComplete"
+	};
+
+	private final List<DiarizationEvent> stageEvents = Collections.synchronizedList(new ArrayList<>());
+
+	private volatile long startTime = -1L;
+
+	private volatile long endTime = -1L;
+
+	@Override
+	public void diarizationEvent(DiarizationEvent evt) {
+		switch(evt.getType()) {
+			case DiarizationStarted:
+				startTime = evt.getTimestamp();
+				break;
+
+			case DiarizationStageCompleted:
+				stageEvents.add(evt);
+				break;
+
+			case DiarizationCompleted:
+			case DiarizationError:
+				endTime = evt.getTimestamp();
+				break;
+
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Completed stage events in order received.
+	 *
+	 * @return stage events
+	 */
+	public List<DiarizationEvent> getStageEvents() {
+		synchronized(stageEvents) {
+			return new ArrayList<>(stageEvents);
+		}
+	}
+
+	public boolean hasStageEvents() {
+		return !stageEvents.isEmpty();
+	}
+
+	public long getStartTime() {
+		return this.startTime;
+	}
+
+	public long getEndTime() {
+		return this.endTime;
+	}
+
+	/**
+	 * Write one row per completed stage as CSV
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeCSV(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.println(String.join(",", CSV_COLUMNS));
+			for(DiarizationEvent evt:getStageEvents()) {
+				out.println(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%.1f", csvString(evt.getStage()), evt.getTimestamp(), evt.getElapsedTime(),
+						evt.getCpuTime(), evt.getAllocatedBytes(), evt.getFeatureCount(), evt.getPercentComplete()));
+			}
+			if(out.checkError()) throw new IOException("Unable to write " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Write run totals and completed stages as JSON
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeJSON(File file) throws IOException {
+		final List<DiarizationEvent> events = getStageEvents();
+		long totalCpu = 0L;
+		long totalAllocated = 0L;
+		for(DiarizationEvent evt:events) {
+			totalCpu += Math.max(0L, evt.getCpuTime());
+			totalAllocated += Math.max(0L, evt.getAllocatedBytes());
+		}
+
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.println("{");
+			out.println("  \"startTime\": " + getStartTime() + ",");
+			out.println("  \"endTime\": " + getEndTime() + ",");
+			out.println("  \"elapsedMs\": " + (getStartTime() >= 0 && getEndTime() >= 0 ? getEndTime() - getStartTime() : -1) + ",");
+			out.println("  \"cpuMs\": " + totalCpu + ",");
+			out.println("  \"allocatedBytes\": " + totalAllocated + ",");
+			out.println("  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + ",");
+			out.println("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",");
+			out.println("  \"stages\": [");
+			for(int i = 0; i < events.size(); i++) {
+				final DiarizationEvent evt = events.get(i);
+				out.print(String.format("    { \"stage\": %s, \"timestamp\": %d, \"elapsedMs\": %d, \"cpuMs\": %d, \"allocatedBytes\": %d, \"featureCount\": %d }",
+						jsonString(evt.getStage()), evt.getTimestamp(), evt.getElapsedTime(), evt.getCpuTime(), evt.getAllocatedBytes(), evt.getFeatureCount()));
+				out.println(i < events.size() - 1 ? "," : "");
+			}
+			out.println("  ]");
+			out.println("}");
+			if(out.checkError()) throw new IOException("Unable to write " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Quoted and escaped JSON string
+	 *
+	 * @param value
+	 * @return JSON string, <code>null</code> for a null value
+	 */
+	static String jsonString(String value) {
+		if(value == null) return "null";
+		final StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch(c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c < 0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+					break;
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * CSV field, quoted if necessary
+	 *
+	 * @param value
+	 * @return CSV field
+	 */
+	static String csvString(String value) {
+		if(value == null) return "";
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.ipa.IPATranscription;
+import ca.phon.orthography.Orthography;
+import ca.phon.session.*;
+import ca.phon.session.Record;
+import ca.phon.util.*;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds a diarization results {@link Session} one speaker/segment at a time.
+ * Records are added in the order segments are provided.  Sessions have the
+ * same header and record layout as those produced by the epac2session stylesheet.
+ */
+public final class DiarizationSessionBuilder {
+
+	private final SessionFactory factory = SessionFactory.newFactory();
+
+	private final Session session;
+
+	private final Map<String, Participant> speakers = new LinkedHashMap<>();
+
+	private SpeakerMergeHistory mergeHistory;
+
+	public DiarizationSessionBuilder() {
+		session = factory.createSession();
+		session.setCorpus("Temp");
+		session.setName("Session");
+		session.setDate(LocalDate.of(1912, 6, 23));
+		session.setLanguage("eng");
+	}
+
+	/**
+	 * Add speaker (or update gender of existing speaker.)
+	 *
+	 * @param name
+	 * @param gender 'M', 'F' or <code>null</code> if unknown
+	 * @return participant
+	 */
+	public Participant addSpeaker(String name, String gender) {
+		Participant speaker = speakers.get(name);
+		if(speaker == null) {
+			speaker = factory.createParticipant();
+			speaker.setId(name);
+			speaker.setRole(ParticipantRole.PARTICIPANT);
+			session.addParticipant(speaker);
+			speakers.put(name, speaker);
+		}
+		if("M".equals(gender)) {
+			speaker.setSex(Sex.MALE);
+		} else if("F".equals(gender)) {
+			speaker.setSex(Sex.FEMALE);
+		}
+		return speaker;
+	}
+
+	/**
+	 * Add segment for given speaker.  The speaker is created if necessary.
+	 *
+	 * @param speakerName
+	 * @param startMs
+	 * @param endMs
+	 * @return record
+	 */
+	public Record addSegment(String speakerName, float startMs, float endMs) {
+		Participant speaker = speakers.get(speakerName);
+		if(speaker == null) {
+			speaker = addSpeaker(speakerName, null);
+		}
+
+		Record r = factory.createRecord(speaker);
+		r.getOrthography().setGroup(0, new Orthography());
+		r.getIPATarget().setGroup(0, new IPATranscription());
+		r.getIPAActual().setGroup(0, new IPATranscription());
+
+		MediaSegment seg = factory.createMediaSegment();
+		seg.setStartValue(startMs);
+		seg.setEndValue(endMs);
+		r.getSegment().setGroup(0, seg);
+
+		session.addRecord(r);
+		return r;
+	}
+
+	/**
+	 * Speaker clustering merge history of the session, created if necessary.
+	 *
+	 * @return merge history
+	 */
+	public SpeakerMergeHistory getMergeHistory() {
+		if(mergeHistory == null) {
+			mergeHistory = new SpeakerMergeHistory();
+		}
+		return mergeHistory;
+	}
+
+	public void setMergeHistory(SpeakerMergeHistory mergeHistory) {
+		this.mergeHistory = mergeHistory;
+	}
+
+	/**
+	 * Build session, the merge history (if any) is available as a session extension.
+	 *
+	 * @return session
+	 */
+	public Session build() {
+		if(mergeHistory != null) {
+			session.putExtension(SpeakerMergeHistory.class, mergeHistory);
+		}
+		return session;
+	}
+
+}
@@ -67,6 +67,24 @@ public class DiarizationTimelineTier extends TimelineTier {
 
 	private JButton diarizeButton;
 
+	private JLabel speakerCountLabel;
+
+	private JSlider speakerCountSlider;
+
+	private boolean updatingSpeakerCount = false;
+
+	/** Number of speakers of the merge tree level shown */
+	private int speakerCount = 0;
+
+	/** Merge tree leaf cluster of diarization records, records with a speaker set by the user are not included */
+	private final Map<Record, String> recordLeaves = new IdentityHashMap<>();
+
+	/** Diarization speakers by id */
+	private final Map<String, Participant> diarizationSpeakers = new HashMap<>();
+
+	/** Session participants assigned to diarization speakers, by diarization speaker id */
+	private final Map<String, Participant> speakerAssignments = new HashMap<>();
+
 	private TimelineTitledSeparator separator;
 	
 	private RecordGrid recordGrid;
@@ -119,6 +137,16 @@ public class DiarizationTimelineTier extends TimelineTier {
 		
 		toolbar.addSeparator();
 		toolbar.add(diarizeButton);
+
+		speakerCountLabel = new JLabel("Speakers:");
+		speakerCountSlider = new JSlider(1, 1, 1);
+		speakerCountSlider.setMaximumSize(new Dimension(150, speakerCountSlider.getPreferredSize().height));
+		speakerCountSlider.setSnapToTicks(true);
+		speakerCountSlider.addChangeListener( (e) -> onSpeakerCountChanged() );
+		speakerCountLabel.setVisible(false);
+		speakerCountSlider.setVisible(false);
+		toolbar.add(speakerCountLabel);
+		toolbar.add(speakerCountSlider);
 		
 		setLayout(new BorderLayout());
 
@@ -261,9 +289,16 @@ public class DiarizationTimelineTier extends TimelineTier {
 		setHasUnsavedChanges(false);
 		recordGrid.setSession(session);
 
+		diarizationSpeakers.clear();
+		speakerAssignments.clear();
+		session.getParticipants().forEach( (p) -> diarizationSpeakers.put(p.getId(), p) );
+		indexRecordLeaves(session);
+
 		recordGrid.clearSpeakers();
 		session.getParticipants().forEach(recordGrid::addSpeaker);
 
+		updateSpeakerCountSlider(session);
+
 		getParentView().getTierPanel().revalidate();
 		recordGrid.repaint();
 
@@ -284,6 +319,120 @@ public class DiarizationTimelineTier extends TimelineTier {
 		}
 	}
 
+	/**
+	 * Show speaker count slider if the session has a speaker clustering merge tree.
+	 *
+	 * @param session
+	 */
+	private void updateSpeakerCountSlider(Session session) {
+		final SpeakerMergeHistory mergeHistory = session.getExtension(SpeakerMergeHistory.class);
+		final boolean visible = mergeHistory != null && mergeHistory.hasLeaves() && mergeHistory.getLeafClusterCount() > 1;
+		updatingSpeakerCount = true;
+		if(visible) {
+			speakerCount = Math.max(1, session.getParticipantCount());
+			speakerCountSlider.setMaximum(mergeHistory.getLeafClusterCount());
+			speakerCountSlider.setValue(speakerCount);
+			updateSpeakerCountLabel(mergeHistory);
+		}
+		speakerCountLabel.setVisible(visible);
+		speakerCountSlider.setVisible(visible);
+		updatingSpeakerCount = false;
+	}
+
+	private void updateSpeakerCountLabel(SpeakerMergeHistory mergeHistory) {
+		final int speakerCount = speakerCountSlider.getValue();
+		speakerCountLabel.setText("Speakers: " + speakerCount);
+		final double mergeScore = mergeHistory.mergeScore(speakerCount);
+		speakerCountSlider.setToolTipText(Double.isNaN(mergeScore) ? null
+				: String.format("Clustering threshold %.3f", mergeScore));
+	}
+
+	/**
+	 * Match diarization records with the leaf segments of the merge tree.
+	 *
+	 * @param session
+	 */
+	private void indexRecordLeaves(Session session) {
+		recordLeaves.clear();
+		final SpeakerMergeHistory mergeHistory = session.getExtension(SpeakerMergeHistory.class);
+		if(mergeHistory == null || !mergeHistory.hasLeaves()) return;
+
+		final TreeMap<Float, SpeakerMergeHistory.Leaf> leaves = new TreeMap<>();
+		mergeHistory.getLeaves().forEach( (leaf) -> leaves.put(leaf.getStartMs(), leaf) );
+		for(Record r:session.getRecords()) {
+			final MediaSegment seg = r.getSegment().getGroup(0);
+			final Map.Entry<Float, SpeakerMergeHistory.Leaf> entry = leaves.floorEntry(seg.getStartValue() + 1.0f);
+			if(entry != null && Math.abs(entry.getKey() - seg.getStartValue()) <= 1.0f
+					&& Math.abs(entry.getValue().getEndMs() - seg.getEndValue()) <= 1.0f) {
+				recordLeaves.put(r, entry.getValue().getCluster());
+			}
+		}
+	}
+
+	/**
+	 * Assign diarization records to the speakers of the merge tree level with the
+	 * selected number of speakers, without running diarization again.  Records
+	 * are updated in place, keeping record edits, and session participants assigned
+	 * to diarization speakers are kept.
+	 */
+	private void onSpeakerCountChanged() {
+		if(updatingSpeakerCount) return;
+		final Session s = recordGrid.getSession();
+		final SpeakerMergeHistory mergeHistory = s.getExtension(SpeakerMergeHistory.class);
+		if(mergeHistory == null) return;
+		updateSpeakerCountLabel(mergeHistory);
+		if(speakerCountSlider.getValueIsAdjusting() || speakerCountSlider.getValue() == speakerCount) return;
+		speakerCount = speakerCountSlider.getValue();
+
+		final Set<String> leafClusters = new LinkedHashSet<>();
+		mergeHistory.getLeaves().forEach( (leaf) -> leafClusters.add(leaf.getCluster()) );
+		final Map<String, String> mapping = mergeHistory.clusterMapping(leafClusters, speakerCount);
+
+		final Set<Participant> speakers = new LinkedHashSet<>();
+		for(Record r:s.getRecords()) {
+			final String leaf = recordLeaves.get(r);
+			if(leaf != null) {
+				r.setSpeaker(diarizationSpeaker(mapping.get(leaf), mergeHistory));
+			}
+			speakers.add(r.getSpeaker());
+		}
+		final List<Participant> currentSpeakers = new ArrayList<>();
+		s.getParticipants().forEach(currentSpeakers::add);
+		currentSpeakers.forEach(s::removeParticipant);
+		speakers.forEach(s::addParticipant);
+
+		recordGrid.clearSpeakers();
+		speakers.forEach(recordGrid::addSpeaker);
+		recordGrid.repaint();
+		setHasUnsavedChanges(true);
+	}
+
+	/**
+	 * Participant for the given diarization speaker, the assigned session participant
+	 * if any.
+	 *
+	 * @param speakerId
+	 * @param mergeHistory
+	 * @return participant
+	 */
+	private Participant diarizationSpeaker(String speakerId, SpeakerMergeHistory mergeHistory) {
+		final Participant assigned = speakerAssignments.get(speakerId);
+		if(assigned != null) return assigned;
+		return diarizationSpeakers.computeIfAbsent(speakerId,
+				(id) -> (new DiarizationSessionBuilder()).addSpeaker(id, mergeHistory.getLeafGender(id)));
+	}
+
+	/**
+	 * Record assignment of a diarization speaker to a session participant
+	 *
+	 * @param diarizationParticipant
+	 * @param sessionParticipant
+	 */
+	private void assignSpeaker(Participant diarizationParticipant, Participant sessionParticipant) {
+		speakerAssignments.replaceAll( (id, p) -> (p == diarizationParticipant ? sessionParticipant : p) );
+		speakerAssignments.put(diarizationParticipant.getId(), sessionParticipant);
+	}
+
 	public RecordGrid getRecordGrid() {
 		return this.recordGrid;
 	}
@@ -676,44 +825,69 @@ public class DiarizationTimelineTier extends TimelineTier {
 			throw new IllegalArgumentException();
 		File f = (File)pae.getData();
 
-		SessionReader reader = (new SessionInputFactory()).createReaderForFile(f);
+		DiarizationResultsManager resultsManager = new DiarizationResultsManager(getParentView().getEditor().getProject(),
+				getParentView().getEditor().getSession());
 		try {
-			if (reader != null) {
-				Session s = reader.readSession(new FileInputStream(f));
-
-				// fix participants if session participants are found in diarization results
-				Iterator<Participant> diaParticipantItr =  s.getParticipants().iterator();
-				while(diaParticipantItr.hasNext()) {
-					Participant diaParticipant = diaParticipantItr.next();
-					Participant sameSpeaker = null;
-					for(Participant sessionParticipant:getParentView().getEditor().getSession().getParticipants()) {
-						if(diaParticipant.getId().equals(sessionParticipant.getId())) {
-							if( (diaParticipant.getName() == null && sessionParticipant.getName() == null)
-								|| (diaParticipant.getName() != null && diaParticipant.getName().equals(sessionParticipant.getName()))) {
-								sameSpeaker = sessionParticipant;
-								break;
-							}
-						}
-					}
-					if(sameSpeaker != null) {
-						int speakerIdx = s.getParticipantIndex(diaParticipant);
-						diaParticipantItr.remove();
-						s.addParticipant(speakerIdx, sameSpeaker);
-						for(Record r:s.getRecords()) {
-							if(r.getSpeaker() == diaParticipant)
-								r.setSpeaker(sameSpeaker);
-						}
-					}
+			Session s = null;
+			if(f.equals(resultsManager.diarizationResultsFile(false))) {
+				// merge tree is only available for the results file of the session
+				s = resultsManager.loadDiarizationResults();
+			} else {
+				SessionReader reader = (new SessionInputFactory()).createReaderForFile(f);
+				if(reader == null) return;
+				try (FileInputStream in = new FileInputStream(f)) {
+					s = reader.readSession(in);
 				}
-
-				setSession(s);
 			}
+
+			final Map<Participant, Participant> sameSpeakers = fixParticipants(s);
+			setSession(s);
+			sameSpeakers.forEach(this::assignSpeaker);
 		} catch (IOException e) {
 			Toolkit.getDefaultToolkit().beep();
 			LogUtil.severe(e);
 		}
 	}
 
+	/**
+	 * Replace diarization participants with session participants having the same id and name.
+	 *
+	 * @param s diarization results
+	 * @return map of replaced diarization participants to session participants
+	 */
+	private Map<Participant, Participant> fixParticipants(Session s) {
+		final Map<Participant, Participant> retVal = new LinkedHashMap<>();
+		Iterator<Participant> diaParticipantItr =  s.getParticipants().iterator();
+		while(diaParticipantItr.hasNext()) {
+			Participant diaParticipant = diaParticipantItr.next();
+			Participant sameSpeaker = null;
+			for(Participant sessionParticipant:getParentView().getEditor().getSession().getParticipants()) {
+				if(diaParticipant.getId().equals(sessionParticipant.getId())) {
+					if( (diaParticipant.getName() == null && sessionParticipant.getName() == null)
+						|| (diaParticipant.getName() != null && diaParticipant.getName().equals(sessionParticipant.getName()))) {
+						sameSpeaker = sessionParticipant;
+						break;
+					}
+				}
+			}
+			if(sameSpeaker != null) {
+				retVal.put(diaParticipant, sameSpeaker);
+			}
+		}
+		for(Map.Entry<Participant, Participant> entry:retVal.entrySet()) {
+			final Participant diaParticipant = entry.getKey();
+			final Participant sameSpeaker = entry.getValue();
+			int speakerIdx = s.getParticipantIndex(diaParticipant);
+			s.removeParticipant(diaParticipant);
+			s.addParticipant(speakerIdx, sameSpeaker);
+			for(Record r:s.getRecords()) {
+				if(r.getSpeaker() == diaParticipant)
+					r.setSpeaker(sameSpeaker);
+			}
+		}
+		return retVal;
+	}
+
 	/**
 	 * Add specified record index to session
 	 *
@@ -877,6 +1051,8 @@ public class DiarizationTimelineTier extends TimelineTier {
 		Participant diarizationParticipant = tuple.getObj1();
 		Participant sessionParticipant = tuple.getObj2();
 
+		assignSpeaker(diarizationParticipant, sessionParticipant);
+
 		// remove diarization participant
 		int idx = getRecordGrid().getSession().getParticipantIndex(diarizationParticipant);
 		getRecordGrid().getSession().removeParticipant(diarizationParticipant);
@@ -1420,6 +1596,8 @@ public class DiarizationTimelineTier extends TimelineTier {
 			newSpeaker = speaker;
 			oldSpeaker = r.getSpeaker();
 			r.setSpeaker(speaker);
+			// keep speaker set by the user when the number of speakers changes
+			recordLeaves.remove(r);
 
 			if(r == getRecordGrid().getCurrentRecord())
 				repaint();
@@ -17,14 +17,15 @@ package ca.phon.plugins.diarization;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class DiarizationTool {
 
-	private final List<DiarizationListener> listeners = new ArrayList<>();
+	/** Events are fired from diarization, worker and fork/join threads */
+	private final CopyOnWriteArrayList<DiarizationListener> listeners = new CopyOnWriteArrayList<>();
 
 	public void addListener(DiarizationListener listener) {
-		if(!listeners.contains(listener))
-			listeners.add(listener);
+		listeners.addIfAbsent(listener);
 	}
 
 	public boolean removeListener(DiarizationListener listener) {
@@ -60,6 +60,10 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
     private final static String DEFAULT_GOOGLE_LANGUAGE_MODEL = "English (United States)";
     private final static String LAST_GOOGLE_FORMAT_MODEL = "gcst.formatModel";
     private final static String DEFAULT_GOOGLE_FORMAT_MODEL = "video";
+    private final static String LAST_GOOGLE_SPLIT_LONG_AUDIO = "gcst.splitLongAudio";
+
+    /** Save stage timing and memory report next to diarization results */
+    public final static String SAVE_RUN_REPORT = "diarization.saveRunReport";
 
     private JRadioButton googleSpeechToTextButton;
     private PromptedTextField projectIdField;
@@ -69,6 +73,9 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
     private JComboBox<String> formatModelSelectionBox;
     private JLabel formatModelDescriptionLabel;
     private FormatterTextField<Integer> googleMaxSpeakersField;
+    private JCheckBox googleSplitLongAudioBox;
+
+    private JCheckBox saveRunReportBox;
 
     private WizardStep reportStep;
 
@@ -290,6 +297,7 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
 
             maxSpeakersLbl.setEnabled(googleSpeechToTextButton.isSelected());
             googleMaxSpeakersField.setEnabled(googleSpeechToTextButton.isSelected());
+            googleSplitLongAudioBox.setEnabled(googleSpeechToTextButton.isSelected());
         });
         btnGrp.add(googleSpeechToTextButton);
 
@@ -331,6 +339,11 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
         googleMaxSpeakersField.setValue(0);
         googleMaxSpeakersField.setEnabled(false);
 
+        googleSplitLongAudioBox = new JCheckBox("Recognize long audio in chunks (no bucket storage)");
+        googleSplitLongAudioBox.setToolTipText("Split audio longer than 60s at silences and recognize chunks concurrently");
+        googleSplitLongAudioBox.setSelected(PrefHelper.getBoolean(LAST_GOOGLE_SPLIT_LONG_AUDIO, false));
+        googleSplitLongAudioBox.setEnabled(false);
+
         gbc.anchor = GridBagConstraints.NORTHWEST;
         gbc.gridx = 0;
         gbc.gridy = 0;
@@ -382,6 +395,10 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
         gbc.insets = new Insets(0, 20, 0, 0);
         googleOptionsPanel.add(googleMaxSpeakersField, gbc);
 
+        ++gbc.gridy;
+        gbc.insets = new Insets(0, 0, 0, 0);
+        googleOptionsPanel.add(googleSplitLongAudioBox, gbc);
+
         ++gbc.gridy;
         gbc.weighty = 1.0f;
         googleOptionsPanel.add(Box.createVerticalGlue(), gbc);
@@ -404,6 +421,16 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
         ++gbc.gridy;
         contentPanel.add(googlePanel, gbc);
 
+        saveRunReportBox = new JCheckBox("Save stage timing report with diarization results");
+        saveRunReportBox.setToolTipText("Write elapsed time, CPU time and allocation of each diarization stage as CSV and JSON");
+        saveRunReportBox.setSelected(PrefHelper.getBoolean(SAVE_RUN_REPORT, false));
+        saveRunReportBox.addActionListener( (e) ->
+                PrefHelper.getUserPreferences().putBoolean(SAVE_RUN_REPORT, saveRunReportBox.isSelected()) );
+        ++gbc.gridy;
+        gbc.weighty = 0.0f;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        contentPanel.add(saveRunReportBox, gbc);
+
         retVal.add(contentPanel, BorderLayout.CENTER);
 
         return retVal;
@@ -429,10 +456,15 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
 
     private void startDiarization(DiarizationTool tool, File mediaFile) {
         tool.addListener(diarizationListener);
+        DiarizationRunReport runReport = null;
+        if(saveRunReportBox.isSelected()) {
+            runReport = new DiarizationRunReport();
+            tool.addListener(runReport);
+        }
         try {
             DiarizationFutureResult result = tool.diarize(mediaFile);
 
-            DiarizationWorker worker = new DiarizationWorker(result);
+            DiarizationWorker worker = new DiarizationWorker(result, runReport);
             workerRef.set(worker);
             worker.execute();
         } catch (IOException e) {
@@ -453,12 +485,16 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
 
         LIUMDiarizationTool tool = new LIUMDiarizationTool();
         tool.setDoCEClustering(true);
+        tool.setRecordMergeHistory(true);
         if(liumMaxSpeakersField.getValue() > 0) {
             tool.setForceSpeakerMax(true);
             tool.setMaxSpeakerCount(liumMaxSpeakersField.getValue());
         } else {
             tool.setForceSpeakerMax(false);
         }
+        DiarizationResultsManager resultsManager = new DiarizationResultsManager(
+                diarizationTier.getParentView().getEditor().getProject(), diarizationTier.getParentView().getEditor().getSession());
+        tool.setFeatureCacheFolder(resultsManager.featureCacheFolder(true));
         startDiarization(tool, mediaModel.getSessionAudioFile());
     }
 
@@ -490,6 +526,9 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
         final String formatModel = formatModelSelectionBox.getSelectedItem().toString();
         PrefHelper.getUserPreferences().put(LAST_GOOGLE_FORMAT_MODEL, formatModel);
 
+        final boolean splitLongAudio = googleSplitLongAudioBox.isSelected();
+        PrefHelper.getUserPreferences().putBoolean(LAST_GOOGLE_SPLIT_LONG_AUDIO, splitLongAudio);
+
         busyLabel.setBusy(true);
 
         GCSTDiarizationTool tool = new GCSTDiarizationTool();
@@ -498,6 +537,7 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
         tool.setLanguageModel(langModelTag);
         tool.setProjectId(projectId);
         tool.setCredentialsFile(credFile);
+        tool.setSplitLongAudio(splitLongAudio);
         if(googleMaxSpeakersField.getValue() > 0) {
             tool.setMaxSpeakers(googleMaxSpeakersField.getValue());
         }
@@ -560,8 +600,11 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
 
         private DiarizationFutureResult diarizationResult;
 
-        public DiarizationWorker(DiarizationFutureResult diarizationResult) {
+        private DiarizationRunReport runReport;
+
+        public DiarizationWorker(DiarizationFutureResult diarizationResult, DiarizationRunReport runReport) {
             this.diarizationResult = diarizationResult;
+            this.runReport = runReport;
         }
 
         public void cancel() {
@@ -580,6 +623,10 @@ public class DiarizationWizard extends BreadcrumbWizardFrame {
 
             try {
                 resultsManager.saveDiarizationResults(s);
+                if(runReport != null && runReport.hasStageEvents()) {
+                    resultsManager.saveRunReport(runReport);
+                    diarizationListener.diarizationEvent(new DiarizationEvent("Run report saved to " + resultsManager.runReportFile("json", false)));
+                }
                 diarizationListener.diarizationEvent(new DiarizationEvent("Close window to view and modify diarization results"));
             } catch (IOException e) {
                 Toolkit.getDefaultToolkit().beep();
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Growable buffer of fixed-dimension float frames.  Values are stored in a
+ * single primitive buffer, which may be allocated outside of the java heap.
+ */
+public final class FrameBuffer {
+
+	private final int dimension;
+
+	private final boolean direct;
+
+	private FloatBuffer buffer;
+
+	private int frameCount = 0;
+
+	/**
+	 * Create a new frame buffer
+	 *
+	 * @param dimension number of values per frame
+	 * @param initialCapacity initial capacity in frames
+	 * @param direct allocate buffer outside of java heap
+	 */
+	public FrameBuffer(int dimension, int initialCapacity, boolean direct) {
+		if(dimension <= 0) throw new IllegalArgumentException("Invalid dimension " + dimension);
+		this.dimension = dimension;
+		this.direct = direct;
+		this.buffer = allocate(Math.max(1, initialCapacity) * dimension);
+	}
+
+	private FloatBuffer allocate(int values) {
+		return direct
+				? ByteBuffer.allocateDirect(values * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer()
+				: FloatBuffer.allocate(values);
+	}
+
+	public int getDimension() {
+		return this.dimension;
+	}
+
+	/**
+	 * Number of frames in buffer
+	 *
+	 * @return frame count
+	 */
+	public int size() {
+		return this.frameCount;
+	}
+
+	/**
+	 * Append frame
+	 *
+	 * @param values frame values, length must equal dimension
+	 */
+	public void add(float... values) {
+		if(values.length != dimension) throw new IllegalArgumentException("Expected " + dimension + " values");
+		ensureCapacity(frameCount + 1);
+		buffer.position(frameCount * dimension);
+		buffer.put(values);
+		++frameCount;
+	}
+
+	/**
+	 * Value for given frame and dimension
+	 *
+	 * @param frame
+	 * @param dim
+	 * @return value
+	 */
+	public float get(int frame, int dim) {
+		if(frame < 0 || frame >= frameCount) throw new IndexOutOfBoundsException(frame);
+		return buffer.get(frame * dimension + dim);
+	}
+
+	/**
+	 * Mean of values in given dimension over frames [start, end), clamped to
+	 * the available frames.
+	 *
+	 * @param start
+	 * @param end
+	 * @param dim
+	 * @return mean value or NaN if range is empty
+	 */
+	public float mean(int start, int end, int dim) {
+		final int from = Math.max(0, start);
+		final int to = Math.min(frameCount, end);
+		if(to <= from) return Float.NaN;
+		double sum = 0.0;
+		for(int i = from; i < to; i++) {
+			sum += buffer.get(i * dimension + dim);
+		}
+		return (float)(sum / (to - from));
+	}
+
+	private void ensureCapacity(int frames) {
+		if(frames * dimension <= buffer.capacity()) return;
+		final FloatBuffer newBuffer = allocate(Math.max(frames, 2 * (buffer.capacity() / dimension)) * dimension);
+		buffer.position(0);
+		buffer.limit(frameCount * dimension);
+		newBuffer.put(buffer);
+		buffer = newBuffer;
+		buffer.clear();
+	}
+
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.audio.Sampled;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.WordInfo;
+import com.google.protobuf.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Recognition of long audio through the synchronous Speech to Text API.  Audio is cut
+ * at low energy frames into chunks shorter than the synchronous request limit, each
+ * chunk starting a few seconds before the end of the previous chunk.  Speaker tags are
+ * numbered independently for each chunk; tags are mapped to the speakers of the previous
+ * chunk using the words recognized in the overlap.
+ */
+public final class GCSTChunkedRecognition {
+
+	/** Max chunk length in seconds, below the 60s limit of synchronous recognition */
+	public final static float MAX_CHUNK_LENGTH = 55.0f;
+
+	/** Length of audio shared by consecutive chunks in seconds */
+	public final static float CHUNK_OVERLAP = 5.0f;
+
+	/** Length of region at the end of a chunk searched for a cut point in seconds */
+	private final static float CUT_SEARCH_LENGTH = 15.0f;
+
+	/** Length of frames compared when searching for a cut point in seconds */
+	private final static float ENERGY_FRAME_LENGTH = 0.02f;
+
+	private GCSTChunkedRecognition() {
+	}
+
+	/**
+	 * Split samples into overlapping chunks of at most <code>maxLength</code> seconds.
+	 * Each chunk except the last ends at the quietest frame found near its max length.
+	 *
+	 * @param sampled mono samples
+	 * @param maxLength max chunk length in seconds
+	 * @param overlap overlap in seconds, must be less than maxLength - {@value #CUT_SEARCH_LENGTH}
+	 * @return chunks
+	 */
+	public static List<Chunk> planChunks(Sampled sampled, float maxLength, float overlap) {
+		return planChunks(sampled.getNumberOfSamples(), sampled.getSampleRate(), (i) -> sampled.valueForSample(0, i), maxLength, overlap);
+	}
+
+	/**
+	 * Split samples into overlapping chunks of at most <code>maxLength</code> seconds.
+	 *
+	 * @param numSamples
+	 * @param sampleRate
+	 * @param samples value of each sample
+	 * @param maxLength max chunk length in seconds
+	 * @param overlap overlap in seconds
+	 * @return chunks
+	 */
+	static List<Chunk> planChunks(int numSamples, float sampleRate, IntToDoubleFunction samples, float maxLength, float overlap) {
+		final int maxSamples = (int)(maxLength * sampleRate);
+		final int overlapSamples = (int)(overlap * sampleRate);
+		final int searchSamples = (int)(Math.min(CUT_SEARCH_LENGTH, maxLength - overlap - 1.0f) * sampleRate);
+		final int frameSamples = Math.max(1, (int)(ENERGY_FRAME_LENGTH * sampleRate));
+
+		final List<Chunk> retVal = new ArrayList<>();
+		int start = 0;
+		while(numSamples - start > maxSamples) {
+			final int end = quietestFrame(samples, start + maxSamples - searchSamples, start + maxSamples, frameSamples);
+			retVal.add(new Chunk(retVal.size(), start, end));
+			start = end - overlapSamples;
+		}
+		retVal.add(new Chunk(retVal.size(), start, numSamples));
+		return retVal;
+	}
+
+	private static int quietestFrame(IntToDoubleFunction samples, int from, int to, int frameSamples) {
+		int retVal = to;
+		double minEnergy = Double.POSITIVE_INFINITY;
+		for(int frameStart = from; frameStart + frameSamples <= to; frameStart += frameSamples) {
+			double energy = 0.0;
+			for(int i = frameStart; i < frameStart + frameSamples; i++) {
+				final double v = samples.applyAsDouble(i);
+				energy += v * v;
+			}
+			if(energy < minEnergy) {
+				minEnergy = energy;
+				retVal = frameStart + frameSamples / 2;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Merge chunk results into a single alternative.  Word times are offset by the chunk start,
+	 * words of a chunk starting before the end of the previous chunk are dropped, and speaker tags
+	 * are mapped to the speakers of the previous chunk talking at the same time in the overlap.
+	 *
+	 * @param chunks
+	 * @param results recognition result for each chunk, with speaker tags
+	 * @param sampleRate
+	 * @param maxSpeakers max number of speakers, 0 for no limit
+	 * @return merged alternative
+	 */
+	public static SpeechRecognitionAlternative merge(List<Chunk> chunks, List<SpeechRecognitionAlternative> results,
+			float sampleRate, int maxSpeakers) {
+		final SpeechRecognitionAlternative.Builder retVal = SpeechRecognitionAlternative.newBuilder();
+		final StringBuilder transcript = new StringBuilder();
+
+		List<WordInfo> prevWords = Collections.emptyList();
+		double prevEnd = 0.0;
+		int speakerCount = 0;
+		// speaker of the last word merged so far, 0 if none
+		int lastSpeaker = 0;
+		for(Chunk chunk:chunks) {
+			final double offset = chunk.getStartSample() / sampleRate;
+			final List<WordInfo> words = new ArrayList<>();
+			for(WordInfo wordInfo:results.get(chunk.getIndex()).getWordsList()) {
+				words.add(wordInfo.toBuilder()
+						.setStartTime(toDuration(seconds(wordInfo.getStartTime()) + offset))
+						.setEndTime(toDuration(seconds(wordInfo.getEndTime()) + offset))
+						.build());
+			}
+
+			final Map<Integer, Integer> speakerMap = mapSpeakers(prevWords, words, offset, prevEnd);
+			for(int speakerTag:speakerTags(words)) {
+				if(speakerMap.containsKey(speakerTag)) continue;
+				if(maxSpeakers <= 0 || speakerCount < maxSpeakers) {
+					speakerMap.put(speakerTag, ++speakerCount);
+				} else {
+					// no speaker left, continue with the most recent speaker (also after chunks without words)
+					speakerMap.put(speakerTag, (lastSpeaker > 0 ? lastSpeaker : speakerCount));
+				}
+			}
+
+			final List<WordInfo> mappedWords = new ArrayList<>();
+			for(WordInfo wordInfo:words) {
+				final WordInfo mappedWord = wordInfo.toBuilder().setSpeakerTag(speakerMap.get(wordInfo.getSpeakerTag())).build();
+				mappedWords.add(mappedWord);
+				if(seconds(mappedWord.getStartTime()) >= prevEnd) {
+					retVal.addWords(mappedWord);
+					if(transcript.length() > 0) transcript.append(' ');
+					transcript.append(mappedWord.getWord());
+				}
+			}
+			if(!mappedWords.isEmpty()) {
+				lastSpeaker = mappedWords.get(mappedWords.size() - 1).getSpeakerTag();
+			}
+			prevWords = mappedWords;
+			prevEnd = chunk.getEndSample() / sampleRate;
+		}
+		return retVal.setTranscript(transcript.toString()).build();
+	}
+
+	/**
+	 * Map speaker tags of the current chunk to speaker tags of the previous chunk by
+	 * the time both speakers are talking in the overlap, greedily starting with the
+	 * pair sharing the most time.
+	 */
+	static Map<Integer, Integer> mapSpeakers(List<WordInfo> prevWords, List<WordInfo> words,
+			double overlapStart, double overlapEnd) {
+		final Map<List<Integer>, Double> sharedTime = new HashMap<>();
+		for(WordInfo word:words) {
+			final double start = seconds(word.getStartTime());
+			final double end = Math.min(seconds(word.getEndTime()), overlapEnd);
+			if(start >= overlapEnd) break;
+			for(WordInfo prevWord:prevWords) {
+				final double prevStart = Math.max(seconds(prevWord.getStartTime()), overlapStart);
+				final double prevEnd = seconds(prevWord.getEndTime());
+				final double shared = Math.min(end, prevEnd) - Math.max(start, prevStart);
+				if(shared > 0.0) {
+					sharedTime.merge(List.of(word.getSpeakerTag(), prevWord.getSpeakerTag()), shared, Double::sum);
+				}
+			}
+		}
+
+		final List<Map.Entry<List<Integer>, Double>> pairs = new ArrayList<>(sharedTime.entrySet());
+		pairs.sort(Map.Entry.<List<Integer>, Double>comparingByValue().reversed());
+		final Map<Integer, Integer> retVal = new HashMap<>();
+		for(Map.Entry<List<Integer>, Double> pair:pairs) {
+			final int speakerTag = pair.getKey().get(0);
+			final int prevSpeakerTag = pair.getKey().get(1);
+			if(!retVal.containsKey(speakerTag) && !retVal.containsValue(prevSpeakerTag)) {
+				retVal.put(speakerTag, prevSpeakerTag);
+			}
+		}
+		return retVal;
+	}
+
+	private static List<Integer> speakerTags(List<WordInfo> words) {
+		final List<Integer> retVal = new ArrayList<>();
+		for(WordInfo word:words) {
+			if(!retVal.contains(word.getSpeakerTag())) retVal.add(word.getSpeakerTag());
+		}
+		return retVal;
+	}
+
+	private static double seconds(Duration duration) {
+		return duration.getSeconds() + duration.getNanos() * 1e-9;
+	}
+
+	private static Duration toDuration(double seconds) {
+		// word times are reported with millisecond precision
+		final long ms = Math.round(seconds * 1000.0);
+		return Duration.newBuilder()
+				.setSeconds(ms / 1000L)
+				.setNanos((int)(ms % 1000L) * 1000000)
+				.build();
+	}
+
+	/**
+	 * Limits the rate at which requests are started
+	 */
+	public final static class RateLimiter {
+
+		private final long intervalMs;
+
+		private long nextSlot = 0L;
+
+		/**
+		 * @param requestsPerMinute max requests per minute, 0 for no limit
+		 */
+		public RateLimiter(int requestsPerMinute) {
+			this.intervalMs = (requestsPerMinute > 0 ? 60000L / requestsPerMinute : 0L);
+		}
+
+		/**
+		 * Block until the next request may be started
+		 *
+		 * @throws InterruptedException
+		 */
+		public void acquire() throws InterruptedException {
+			final long slot;
+			synchronized(this) {
+				slot = Math.max(System.currentTimeMillis(), nextSlot);
+				nextSlot = slot + intervalMs;
+			}
+			final long wait = slot - System.currentTimeMillis();
+			if(wait > 0) Thread.sleep(wait);
+		}
+
+	}
+
+	/**
+	 * Limits the number of requests in flight and the rate at which requests are
+	 * started.  A single limiter may be shared by several diarization jobs.
+	 */
+	public final static class RequestLimiter {
+
+		private final int maxConcurrentRequests;
+
+		private final Semaphore permits;
+
+		private final RateLimiter rateLimiter;
+
+		/**
+		 * @param maxConcurrentRequests max requests in flight
+		 * @param requestsPerMinute max requests per minute, 0 for no limit
+		 */
+		public RequestLimiter(int maxConcurrentRequests, int requestsPerMinute) {
+			this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+			this.permits = new Semaphore(this.maxConcurrentRequests, true);
+			this.rateLimiter = new RateLimiter(requestsPerMinute);
+		}
+
+		public int getMaxConcurrentRequests() {
+			return this.maxConcurrentRequests;
+		}
+
+		/**
+		 * Block until a request may be started, each successful call must be
+		 * followed by {@link #release()}
+		 *
+		 * @throws InterruptedException
+		 */
+		public void acquire() throws InterruptedException {
+			permits.acquire();
+			try {
+				rateLimiter.acquire();
+			} catch (InterruptedException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		/**
+		 * Release a request slot once the request has finished
+		 */
+		public void release() {
+			permits.release();
+		}
+
+	}
+
+	public final static class Chunk {
+
+		private final int index;
+
+		private final int startSample;
+
+		private final int endSample;
+
+		private Chunk(int index, int startSample, int endSample) {
+			this.index = index;
+			this.startSample = startSample;
+			this.endSample = endSample;
+		}
+
+		public int getIndex() {
+			return this.index;
+		}
+
+		public int getStartSample() {
+			return this.startSample;
+		}
+
+		public int getEndSample() {
+			return this.endSample;
+		}
+
+		public int getLength() {
+			return this.endSample - this.startSample;
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.app.log.LogUtil;
+import com.google.api.services.storage.StorageScopes;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.speech.v1.SpeechClient;
+import com.google.cloud.speech.v1.SpeechSettings;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Google Cloud Storage and Speech to Text clients shared by all diarization jobs
+ * using the same project, credentials and storage host.  Clients keep their HTTP
+ * transport and gRPC channel open between jobs and are shut down when the
+ * application exits or {@link #closeAll()} is called.
+ */
+public final class GCSTClients implements AutoCloseable {
+
+	private final static long SHUTDOWN_TIMEOUT_MS = 5000L;
+
+	private final static Map<List<String>, GCSTClients> instances = new HashMap<>();
+
+	private static boolean shutdownHookInstalled = false;
+
+	private final String projectId;
+
+	private final GoogleCredentials credentials;
+
+	private final String storageHost;
+
+	private Storage storage;
+
+	private SpeechClient speechClient;
+
+	/**
+	 * Get shared clients for the given configuration
+	 *
+	 * @param projectId
+	 * @param credentialsFile service account credentials file
+	 * @param storageHost storage host or <code>null</code> for default
+	 * @return clients
+	 * @throws IOException if credentials could not be loaded
+	 */
+	public synchronized static GCSTClients getInstance(String projectId, String credentialsFile, String storageHost) throws IOException {
+		final List<String> key = new ArrayList<>();
+		key.add(projectId);
+		key.add(credentialsFile);
+		key.add(storageHost);
+		GCSTClients retVal = instances.get(key);
+		if(retVal == null) {
+			try(InputStream in = new FileInputStream(new File(credentialsFile))) {
+				final GoogleCredentials credentials = GoogleCredentials.fromStream(in)
+						.createScoped(Collections.singleton(StorageScopes.CLOUD_PLATFORM));
+				retVal = new GCSTClients(projectId, credentials, storageHost);
+			}
+			instances.put(key, retVal);
+
+			if(!shutdownHookInstalled) {
+				Runtime.getRuntime().addShutdownHook(new Thread(GCSTClients::closeAll, "GCST clients shutdown"));
+				shutdownHookInstalled = true;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Close all shared clients
+	 */
+	public synchronized static void closeAll() {
+		for(GCSTClients clients:instances.values()) {
+			clients.close();
+		}
+		instances.clear();
+	}
+
+	private GCSTClients(String projectId, GoogleCredentials credentials, String storageHost) {
+		this.projectId = projectId;
+		this.credentials = credentials;
+		this.storageHost = storageHost;
+	}
+
+	public GoogleCredentials getCredentials() {
+		return this.credentials;
+	}
+
+	public synchronized Storage getStorage() {
+		if(storage == null) {
+			StorageOptions.Builder builder = StorageOptions.newBuilder()
+					.setCredentials(credentials)
+					.setProjectId(projectId);
+			if(storageHost != null) {
+				builder.setHost(storageHost);
+			}
+			storage = builder.build().getService();
+		}
+		return storage;
+	}
+
+	public synchronized SpeechClient getSpeechClient() throws IOException {
+		if(speechClient == null || speechClient.isShutdown()) {
+			SpeechSettings speechSettings = SpeechSettings
+					.newBuilder()
+					.setCredentialsProvider(() -> credentials).build();
+			speechClient = SpeechClient.create(speechSettings);
+		}
+		return speechClient;
+	}
+
+	@Override
+	public synchronized void close() {
+		if(speechClient != null) {
+			speechClient.shutdown();
+			try {
+				if(!speechClient.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					speechClient.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				speechClient.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+			speechClient = null;
+		}
+		if(storage != null) {
+			try {
+				if(storage instanceof AutoCloseable) {
+					((AutoCloseable)storage).close();
+				}
+			} catch (Exception e) {
+				LogUtil.warning(e);
+			}
+			storage = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "GCSTClients[" + projectId + (Objects.nonNull(storageHost) ? "@" + storageHost : "") + "]";
+	}
+
+}
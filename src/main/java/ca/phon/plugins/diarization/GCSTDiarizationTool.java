@@ -17,29 +17,32 @@ package ca.phon.plugins.diarization;
 
 import ca.phon.app.log.LogUtil;
 import ca.phon.audio.*;
-import ca.phon.orthography.Orthography;
 import ca.phon.session.*;
-import ca.phon.session.Record;
 import ca.phon.util.*;
 import ca.phon.worker.PhonWorker;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.api.gax.longrunning.OperationFuture;
 import com.google.api.gax.paging.Page;
-import com.google.api.services.storage.StorageScopes;
 import com.google.auth.oauth2.*;
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.speech.v1.*;
 import com.google.cloud.storage.*;
 import com.google.protobuf.*;
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.jgit.internal.storage.file.GC;
 
-import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.text.ParseException;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Diarization using Google Cloud Speech to Text services.
@@ -50,6 +53,40 @@ public class GCSTDiarizationTool extends DiarizationTool {
 	private final static float UPLOAD_SAMPLE_RATE = 16000.0f;
 	private final static int UPLOAD_CHANNEL_COUNT = 1;
 
+	/** Upload chunk size, must be a multiple of 256KB */
+	final static int UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/** Number of samples converted per block when streaming converted audio */
+	private final static int CONVERSION_BLOCK_SAMPLES = 128 * 1024;
+
+	/** Number of converted blocks buffered between conversion and upload */
+	private final static int CONVERSION_QUEUE_SIZE = 16;
+
+	/** Number of times an interrupted upload is resumed before giving up */
+	private final static int UPLOAD_MAX_RETRIES = 5;
+
+	/** Default max number of concurrent chunk recognition requests */
+	public final static int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+	/** Default max number of chunk recognition requests started per minute */
+	public final static int DEFAULT_MAX_REQUESTS_PER_MINUTE = 60;
+
+	/** Interval at which recognition progress from operation metadata is reported */
+	private final static long PROGRESS_INTERVAL_MS = 1000L;
+
+	private final static ScheduledExecutorService PROGRESS_EXECUTOR = Executors.newSingleThreadScheduledExecutor( (r) -> {
+		final Thread thread = new Thread(r, "GCST recognition progress");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Recognition results are processed off the operation polling threads */
+	private final static ExecutorService RESULTS_EXECUTOR = Executors.newCachedThreadPool( (r) -> {
+		final Thread thread = new Thread(r, "GCST recognition results");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	/**
 	 * The following supported langs come from the table displayed
 	 * at https://cloud.google.com/speech-to-text/docs/languages
@@ -120,13 +157,25 @@ public class GCSTDiarizationTool extends DiarizationTool {
 	/** Max speakers */
 	private int maxSpeakers;
 
+	/** Cloud Storage host, <code>null</code> for default (e.g., a local storage emulator) */
+	private String storageHost;
+
 	/** Credentials JSON file */
 	private String credentialsFile;
 
-	private volatile boolean cancelIfRunning = false;
+	/** Recognize audio longer than 60s as overlapping chunks through the synchronous API */
+	private boolean splitLongAudio = false;
+
+	/** Max number of concurrent chunk recognition requests */
+	private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+	/** Max number of chunk recognition requests started per minute, 0 for no limit */
+	private int maxRequestsPerMinute = DEFAULT_MAX_REQUESTS_PER_MINUTE;
 
-	private GoogleCredentials credentials;
-	private AccessToken accessToken;
+	/** Request limiter shared with other jobs, <code>null</code> to limit requests of each job separately */
+	private GCSTChunkedRecognition.RequestLimiter requestLimiter;
+
+	private volatile boolean cancelIfRunning = false;
 
 	public String getCredentialsFile() {
 		return credentialsFile;
@@ -136,6 +185,66 @@ public class GCSTDiarizationTool extends DiarizationTool {
 		this.credentialsFile = credentialsFile;
 	}
 
+	public String getStorageHost() {
+		return this.storageHost;
+	}
+
+	/**
+	 * Cloud Storage host, e.g., <code>http://localhost:4443</code> for a local
+	 * storage emulator.
+	 *
+	 * @param storageHost host or <code>null</code> for default
+	 */
+	public void setStorageHost(String storageHost) {
+		this.storageHost = storageHost;
+	}
+
+	public boolean isSplitLongAudio() {
+		return this.splitLongAudio;
+	}
+
+	/**
+	 * Split audio longer than 60s at silences and recognize chunks concurrently
+	 * through the synchronous API instead of uploading audio for long running
+	 * recognition.
+	 *
+	 * @param splitLongAudio
+	 */
+	public void setSplitLongAudio(boolean splitLongAudio) {
+		this.splitLongAudio = splitLongAudio;
+	}
+
+	public int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests;
+	}
+
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+
+	public int getMaxRequestsPerMinute() {
+		return this.maxRequestsPerMinute;
+	}
+
+	public void setMaxRequestsPerMinute(int maxRequestsPerMinute) {
+		this.maxRequestsPerMinute = maxRequestsPerMinute;
+	}
+
+	public GCSTChunkedRecognition.RequestLimiter getRequestLimiter() {
+		return this.requestLimiter;
+	}
+
+	/**
+	 * Limit chunk recognition requests using a limiter shared with other jobs,
+	 * e.g., all Google jobs of a batch.  When set, max concurrent requests and
+	 * requests per minute of the limiter apply to all jobs sharing it.
+	 *
+	 * @param requestLimiter shared limiter or <code>null</code>
+	 */
+	public void setRequestLimiter(GCSTChunkedRecognition.RequestLimiter requestLimiter) {
+		this.requestLimiter = requestLimiter;
+	}
+
 	public void setStorageLocation(String storageLocation) {
 		this.storageLocation = storageLocation;
 	}
@@ -184,16 +293,19 @@ public class GCSTDiarizationTool extends DiarizationTool {
 		this.cancelIfRunning = cancelIfRunning;
 	}
 
+	/**
+	 * Shared clients for the current project, credentials and storage host.
+	 *
+	 * @return clients
+	 * @throws IOException if credentials could not be loaded
+	 */
+	private GCSTClients clients() throws IOException {
+		return GCSTClients.getInstance(projectId, credentialsFile, storageHost);
+	}
+
 	private GoogleCredentials loadCredentials() throws IOException {
-		if(this.credentials == null) {
-			credentials = GoogleCredentials.fromStream(new FileInputStream(new File(credentialsFile)))
-					.createScoped(Collections.singleton(StorageScopes.CLOUD_PLATFORM));
-			credentials.refreshIfExpired();
-		}
-		if(this.accessToken == null)
-			accessToken = credentials.getAccessToken();
-		else
-			accessToken = credentials.refreshAccessToken();
+		final GoogleCredentials credentials = clients().getCredentials();
+		credentials.refreshIfExpired();
 		return credentials;
 	}
 
@@ -207,10 +319,12 @@ public class GCSTDiarizationTool extends DiarizationTool {
 		return bucketName;
 	}
 
-	private boolean hasBucket(String projectId, String bucketId) {
-		Storage storage = StorageOptions.newBuilder()
-				.setCredentials(credentials)
-				.setProjectId(projectId).build().getService();
+	private Storage storage(String projectId) throws IOException {
+		return GCSTClients.getInstance(projectId, credentialsFile, storageHost).getStorage();
+	}
+
+	private boolean hasBucket(String projectId, String bucketId) throws IOException {
+		Storage storage = storage(projectId);
 		Page<Bucket> bucketList = storage.list();
 
 		for(Bucket bucket:bucketList.iterateAll()) {
@@ -219,10 +333,8 @@ public class GCSTDiarizationTool extends DiarizationTool {
 		return false;
 	}
 
-	private Bucket createStorageBucket(String projectId, String bucketId) {
-		Storage storage = StorageOptions.newBuilder()
-				.setCredentials(credentials)
-				.setProjectId(projectId).build().getService();
+	private Bucket createStorageBucket(String projectId, String bucketId) throws IOException {
+		Storage storage = storage(projectId);
 
 		StorageClass storageClass = StorageClass.STANDARD;
 
@@ -231,224 +343,466 @@ public class GCSTDiarizationTool extends DiarizationTool {
 		return bucket;
 	}
 
-	private boolean audioFileExistsInBucket(String projectId, String bucketName, String objectName) {
-		Storage storage = StorageOptions.newBuilder()
-				.setCredentials(credentials)
-				.setProjectId(projectId).build().getService();
-
-		Page<Blob> blobs = storage.list(bucketName);
-		for(Blob blob:blobs.iterateAll()) {
-			if(blob.getName().equals(objectName)) {
-				return true;
-			}
+	/**
+	 * Check if object exists in bucket.  Objects recorded in the local upload
+	 * index are still looked up in storage, index entries for objects which
+	 * are no longer found are dropped so the audio is uploaded again.
+	 *
+	 * @param projectId
+	 * @param bucketName
+	 * @param objectName
+	 * @return true if object exists
+	 */
+	private boolean audioFileExistsInBucket(String projectId, String bucketName, String objectName) throws IOException {
+		final GCSTUploadIndex uploadIndex = GCSTUploadIndex.getInstance();
+		final Storage storage = storage(projectId);
+		final String host = storage.getOptions().getHost();
+
+		final Blob blob = storage.get(BlobId.of(bucketName, objectName), Storage.BlobGetOption.fields(Storage.BlobField.NAME));
+		if(blob != null && blob.exists()) {
+			uploadIndex.add(host, projectId, bucketName, objectName);
+			return true;
+		} else if(uploadIndex.contains(host, projectId, bucketName, objectName)) {
+			fireDiarizationEvent("Uploaded audio " + objectName + " not found in bucket " + bucketName);
+			uploadIndex.remove(host, projectId, bucketName, objectName);
 		}
 		return false;
 	}
 
+	/**
+	 * Description of the encoding used when uploading the given audio file,
+	 * part of the object name.
+	 *
+	 * @param audioFile
+	 * @return encoding description
+	 */
+	private String uploadEncoding(AudioFile audioFile) {
+		if(audioFile.getSampleRate() == UPLOAD_SAMPLE_RATE && audioFile.getNumberOfChannels() == UPLOAD_CHANNEL_COUNT)
+			return "original";
+		return String.format("pcm16@%d/%d", (int)UPLOAD_SAMPLE_RATE, UPLOAD_CHANNEL_COUNT);
+	}
+
+	/**
+	 * Source of bytes for upload
+	 */
+	@FunctionalInterface
+	interface UploadSource {
+
+		/**
+		 * Read bytes into buffer
+		 *
+		 * @param buffer
+		 * @return number of bytes read, -1 at end of data
+		 * @throws IOException
+		 */
+		public int read(ByteBuffer buffer) throws IOException;
+
+	}
+
 	private void uploadAudioFile(String projectId, String bucketName, String objectName, File file) throws IOException {
-		Storage storage = StorageOptions.newBuilder()
-				.setCredentials(credentials)
-				.setProjectId(projectId).build().getService();
-		BlobId blobId = BlobId.of(bucketName, objectName);
-		BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
-		storage.create(blobInfo, Files.readAllBytes(file.toPath()));
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			uploadAudio(projectId, bucketName, objectName, file.length(), in::read);
+		}
 	}
 
-	private File checkAudioFileEncoding(AudioFile audioFile) throws IOException, AudioIOException {
-		File retVal = audioFile.getFile();
+	/**
+	 * Upload data using a resumable upload.  Data is sent in chunks of at most
+	 * UPLOAD_CHUNK_SIZE bytes, if the connection is dropped the upload is
+	 * resumed from the last chunk sent.
+	 *
+	 * @param projectId
+	 * @param bucketName
+	 * @param objectName
+	 * @param totalBytes expected number of bytes, used for progress
+	 * @param source
+	 * @throws IOException
+	 */
+	private void uploadAudio(String projectId, String bucketName, String objectName, long totalBytes, UploadSource source) throws IOException {
+		uploadAudio(storage(projectId), bucketName, objectName, totalBytes, source);
+	}
 
-		if(audioFile.getSampleRate() != UPLOAD_SAMPLE_RATE || audioFile.getNumberOfChannels() != UPLOAD_CHANNEL_COUNT) {
-			Sampled sampled = new AudioFileSampled(audioFile);
+	/**
+	 * Upload data using the given storage service.  If the upload is cancelled
+	 * or cannot be resumed the writer is abandoned without being closed, closing
+	 * would finalize the object with the data sent so far.  The unfinished
+	 * resumable session expires on the server.
+	 *
+	 * @param storage
+	 * @param bucketName
+	 * @param objectName
+	 * @param totalBytes expected number of bytes, used for progress
+	 * @param source
+	 * @throws IOException
+	 */
+	void uploadAudio(Storage storage, String bucketName, String objectName, long totalBytes, UploadSource source) throws IOException {
+		BlobId blobId = BlobId.of(bucketName, objectName);
+		BlobInfo blobInfo = BlobInfo.newBuilder(blobId).setContentType("audio/wav").build();
 
-			if(audioFile.getSampleRate() != UPLOAD_SAMPLE_RATE) {
-				fireDiarizationEvent("Resampling audio @16.0KHz");
-				final Resampler resampler = new Resampler();
-				sampled = resampler.resample(sampled, UPLOAD_SAMPLE_RATE);
+		final long startTime = System.currentTimeMillis();
+		final ByteBuffer buffer = ByteBuffer.allocate(UPLOAD_CHUNK_SIZE);
+		long position = 0L;
+
+		WriteChannel writer = storage.writer(blobInfo);
+		writer.setChunkSize(UPLOAD_CHUNK_SIZE);
+		boolean completed = false;
+		try {
+			int read = 0;
+			while(read >= 0) {
+				if(isCancelIfRunning()) throw new IOException("Upload cancelled");
+
+				buffer.clear();
+				read = source.read(buffer);
+				buffer.flip();
+
+				// state before sending the chunk, used to resume
+				final RestorableState<WriteChannel> state = writer.capture();
+				int retries = 0;
+				while(true) {
+					try {
+						if(read >= 0) {
+							while(buffer.hasRemaining()) {
+								writer.write(buffer);
+							}
+						} else {
+							writer.close();
+						}
+						break;
+					} catch (IOException | StorageException e) {
+						if(++retries > UPLOAD_MAX_RETRIES) throw new IOException(e);
+						LogUtil.warning(e);
+						fireDiarizationEvent("Upload interrupted, resuming (" + retries + "/" + UPLOAD_MAX_RETRIES + ")");
+						try {
+							Thread.sleep(1000L << retries);
+						} catch (InterruptedException ie) {
+							throw new IOException(ie);
+						}
+						writer = state.restore();
+						buffer.rewind();
+					}
+				}
+				if(read > 0) {
+					position += read;
+					fireUploadProgress(position, totalBytes, startTime);
+				}
+			}
+			completed = true;
+		} finally {
+			if(!completed) {
+				LogUtil.info("Abandoned upload of gs://" + bucketName + "/" + objectName + " after " + position + " bytes");
 			}
+		}
+	}
 
-			if(isCancelIfRunning()) return retVal;
+	private void fireUploadProgress(long position, long totalBytes, long startTime) {
+		final long elapsed = System.currentTimeMillis() - startTime;
+		final float percent = (totalBytes > 0 ? 100.0f * position / totalBytes : -1.0f);
+		final long remaining = (position > 0 && totalBytes > 0 ? elapsed * (totalBytes - position) / position : -1L);
+		final DiarizationEvent evt = new DiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationProgress,
+				"upload", elapsed, percent, remaining);
+		evt.setMessage(String.format("%.1fMB of %.1fMB", position / (1024.0f * 1024.0f), totalBytes / (1024.0f * 1024.0f)));
+		fireDiarizationEvent(evt);
+	}
+
+	/**
+	 * Samples converted to the upload sample rate and channel count.
+	 *
+	 * @param audioFile
+	 * @return converted samples or <code>null</code> if the audio file can be used as-is
+	 */
+	private Sampled uploadSampled(AudioFile audioFile) throws IOException, AudioIOException {
+		if(audioFile.getSampleRate() == UPLOAD_SAMPLE_RATE && audioFile.getNumberOfChannels() == UPLOAD_CHANNEL_COUNT)
+			return null;
 
+		Sampled sampled = new AudioFileSampled(audioFile);
+		if(audioFile.getSampleRate() != UPLOAD_SAMPLE_RATE) {
+			fireDiarizationEvent("Resampling audio @16.0KHz");
+			final Resampler resampler = new Resampler();
+			sampled = resampler.resample(sampled, UPLOAD_SAMPLE_RATE);
+		}
+		if(audioFile.getNumberOfChannels() != UPLOAD_CHANNEL_COUNT) {
+			fireDiarizationEvent("Converting audio to mono");
+			sampled = new MonoSampled(sampled);
+		}
+		return sampled;
+	}
+
+	/**
+	 * Convert (if necessary) and upload audio.  Resampling and conversion run block
+	 * by block on a separate thread and converted blocks are uploaded as they become
+	 * available, the converted audio is never held in memory.
+	 *
+	 * @param audioFile
+	 * @param bucketName
+	 * @param objectName
+	 * @throws IOException
+	 * @throws AudioIOException
+	 */
+	private void uploadAudioFile(AudioFile audioFile, String bucketName, String objectName) throws IOException, AudioIOException {
+		if(audioFile.getSampleRate() == UPLOAD_SAMPLE_RATE && audioFile.getNumberOfChannels() == UPLOAD_CHANNEL_COUNT) {
+			uploadAudioFile(projectId, bucketName, objectName, audioFile.getFile());
+		} else {
+			Sampled sampled = new AudioFileSampled(audioFile);
 			if(audioFile.getNumberOfChannels() != UPLOAD_CHANNEL_COUNT) {
-				fireDiarizationEvent("Converting audio to mono");
 				sampled = new MonoSampled(sampled);
 			}
-
-			if(isCancelIfRunning()) return retVal;
-
-			// save samples to temporary file
-			final File tempFile = File.createTempFile("phon", "diarization.wav");
-			AudioIO.writeSamples(sampled, 0, sampled.getNumberOfSamples(), audioFile.getAudioFileEncoding(),
-					new FileOutputStream(tempFile));
-			tempFile.deleteOnExit();
-			retVal = tempFile;
+			fireDiarizationEvent("Converting audio to 16-bit mono @16.0KHz");
+			try(PCM16WavPipeline pipeline = new PCM16WavPipeline(sampled, UPLOAD_SAMPLE_RATE, CONVERSION_BLOCK_SAMPLES, CONVERSION_QUEUE_SIZE)) {
+				pipeline.start();
+				uploadAudio(projectId, bucketName, objectName, pipeline.getTotalBytes(), pipeline::fill);
+			}
 		}
-		return retVal;
 	}
 
-	private Session processSpeechRecognitionAlternative(SpeechRecognitionAlternative alternative) {
-		SessionFactory factory = SessionFactory.newFactory();
-		Session retVal = factory.createSession();
+	Session processSpeechRecognitionAlternative(SpeechRecognitionAlternative alternative) {
+		final GCSTSessionConverter converter = new GCSTSessionConverter(alternative.getWordsCount());
+		converter.addWords(alternative);
+		return converter.toSession( (e) -> {
+			LogUtil.warning(e);
+			fireDiarizationEvent(e.getLocalizedMessage());
+		});
+	}
 
-		List<WordInfo> wordList = alternative.getWordsList();
-		int currentSpeakerTag = -1;
-		long currentStart = -1L;
-		long currentEnd = 0L;
-		Participant currentSpeaker = null;
-		Map<Integer, Participant> speakerMap = new HashMap<>();
+	private RecognitionConfig recognitionConfig() {
+		SpeakerDiarizationConfig speakerDiarizationConfig =
+				SpeakerDiarizationConfig.newBuilder()
+						.setEnableSpeakerDiarization(true)
+						.setMaxSpeakerCount(this.maxSpeakers)
+						.build();
+
+		return RecognitionConfig.newBuilder()
+				.setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+				.setLanguageCode(this.languageModel)
+				.setSampleRateHertz((int)UPLOAD_SAMPLE_RATE)
+				.setDiarizationConfig(speakerDiarizationConfig)
+				.build();
+	}
 
-		StringBuilder builder = new StringBuilder();
+	private Session gcstShortFileDiarization(byte[] content) throws IOException {
+		// shared client, not closed here so its channel is reused by later requests
+		final SpeechClient speechClient = clients().getSpeechClient();
+		RecognitionAudio recognitionAudio =
+				RecognitionAudio.newBuilder().setContent(ByteString.copyFrom(content)).build();
 
-		for(WordInfo wordInfo:wordList) {
-			long thisWordStart = (long)(wordInfo.getStartTime().getSeconds() * 1000);
-			thisWordStart += (long)(wordInfo.getStartTime().getNanos() * 1e-6);
-			if(currentSpeakerTag < 0 || wordInfo.getSpeakerTag() != currentSpeakerTag ||
-					(currentEnd >= 0L && (currentEnd != thisWordStart))) {
-				if(currentStart >= 0) {
-					Record r = factory.createRecord(currentSpeaker);
-					try {
-						Orthography ortho = Orthography.parseOrthography(builder.toString());
-						r.getOrthography().setGroup(0, ortho);
-					} catch (ParseException e) {
-						LogUtil.warning(e);
-						fireDiarizationEvent(e.getLocalizedMessage());
-					}
+		RecognizeResponse recognizeResponse = speechClient.recognize(recognitionConfig(), recognitionAudio);
 
-					// add record to session
-					MediaSegment seg = factory.createMediaSegment();
-					seg.setStartValue((float)currentStart);
-					seg.setEndValue((float)currentEnd);
-					r.getSegment().setGroup(0, seg);
+		// Speaker Tags are only included in the last result object, which has only one alternative.
+		SpeechRecognitionAlternative alternative =
+				recognizeResponse.getResults(recognizeResponse.getResultsCount() - 1).getAlternatives(0);
 
-					retVal.addRecord(r);
+		return processSpeechRecognitionAlternative(alternative);
+	}
+
+	/**
+	 * Split audio at silences into overlapping chunks under 60s and recognize the chunks
+	 * concurrently through the synchronous API.  At most {@link #getMaxConcurrentRequests()}
+	 * requests are in flight and requests are started at no more than
+	 * {@link #getMaxRequestsPerMinute()}, unless a shared request limiter has been set.
+	 * Speaker tags are reconciled using the overlaps.
+	 *
+	 * @param file
+	 * @return future session
+	 * @throws IOException
+	 * @throws AudioIOException
+	 */
+	private CompletableFuture<Session> gcstSplitDiarization(File file) throws IOException, AudioIOException {
+		final SpeechClient speechClient = clients().getSpeechClient();
+		final RecognitionConfig config = recognitionConfig();
+
+		// audio file is kept open until all chunks have been encoded
+		final AudioFile audioFile = AudioIO.openAudioFile(file);
+		final Sampled sampled;
+		final List<GCSTChunkedRecognition.Chunk> chunks;
+		try {
+			final Sampled convertedSampled = uploadSampled(audioFile);
+			sampled = (convertedSampled != null ? convertedSampled : new AudioFileSampled(audioFile));
+			chunks = GCSTChunkedRecognition.planChunks(sampled, GCSTChunkedRecognition.MAX_CHUNK_LENGTH, GCSTChunkedRecognition.CHUNK_OVERLAP);
+		} catch (IOException | AudioIOException | RuntimeException e) {
+			audioFile.close();
+			throw e;
+		}
+		final GCSTChunkedRecognition.RequestLimiter requestLimiter = (this.requestLimiter != null ? this.requestLimiter
+				: new GCSTChunkedRecognition.RequestLimiter(getMaxConcurrentRequests(), getMaxRequestsPerMinute()));
+		final int threadCount = Math.max(1, Math.min(getMaxConcurrentRequests(), requestLimiter.getMaxConcurrentRequests()));
+		fireDiarizationEvent(String.format("Recognizing %d chunks, %d concurrent requests", chunks.size(), threadCount));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount, (r) -> {
+			final Thread thread = new Thread(r, "GCST chunk recognition");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final AtomicInteger completedChunks = new AtomicInteger(0);
+		final long startTime = System.currentTimeMillis();
+
+		final List<CompletableFuture<SpeechRecognitionAlternative>> chunkFutures = new ArrayList<>();
+		for(GCSTChunkedRecognition.Chunk chunk:chunks) {
+			chunkFutures.add(CompletableFuture.supplyAsync( () -> {
+				try {
+					requestLimiter.acquire();
+				} catch (InterruptedException e) {
+					throw new CancellationException();
+				}
+				final RecognizeResponse recognizeResponse;
+				try {
+					if(isCancelIfRunning()) throw new CancellationException();
+
+					final byte[] content;
+					synchronized(sampled) {
+						if(Thread.currentThread().isInterrupted()) throw new CancellationException();
+						content = PCM16WavPipeline.toByteArray(sampled, chunk.getStartSample(), chunk.getLength());
+					}
+					final RecognitionAudio recognitionAudio =
+							RecognitionAudio.newBuilder().setContent(ByteString.copyFrom(content)).build();
+					recognizeResponse = speechClient.recognize(config, recognitionAudio);
+				} finally {
+					requestLimiter.release();
 				}
 
-				Participant speaker = speakerMap.get(wordInfo.getSpeakerTag());
-				if(speaker == null) {
-					speaker = factory.createParticipant();
-					speaker.setId("P" + wordInfo.getSpeakerTag());
-					speaker.setRole(ParticipantRole.PARTICIPANT);
+				fireRecognitionProgress(100.0f * completedChunks.incrementAndGet() / chunks.size(), startTime);
+				// Speaker Tags are only included in the last result object, which has only one alternative.
+				return (recognizeResponse.getResultsCount() > 0
+						? recognizeResponse.getResults(recognizeResponse.getResultsCount() - 1).getAlternatives(0)
+						: SpeechRecognitionAlternative.getDefaultInstance());
+			}, executor));
+		}
 
-					retVal.addParticipant(speaker);
-					speakerMap.put(wordInfo.getSpeakerTag(), speaker);
+		final CompletableFuture<Session> retVal =
+				CompletableFuture.allOf(chunkFutures.toArray(new CompletableFuture[0])).thenApply( (v) -> {
+					final List<SpeechRecognitionAlternative> results = new ArrayList<>();
+					for(CompletableFuture<SpeechRecognitionAlternative> chunkFuture:chunkFutures) {
+						results.add(chunkFuture.join());
+					}
+					return processSpeechRecognitionAlternative(
+							GCSTChunkedRecognition.merge(chunks, results, sampled.getSampleRate(), getMaxSpeakers()));
+				});
+		// fail without waiting for the remaining chunks
+		for(CompletableFuture<SpeechRecognitionAlternative> chunkFuture:chunkFutures) {
+			chunkFuture.whenComplete( (alternative, t) -> {
+				if(t != null) retVal.completeExceptionally(t);
+			});
+		}
+		retVal.whenComplete( (session, t) -> {
+			executor.shutdownNow();
+			synchronized(sampled) {
+				try {
+					audioFile.close();
+				} catch (IOException e) {
+					LogUtil.warning(e);
 				}
-				currentSpeaker = speaker;
-				currentSpeakerTag = wordInfo.getSpeakerTag();
-
-				currentStart = -1L;
-				builder = new StringBuilder();
 			}
+		});
+		return retVal;
+	}
 
-			if(currentStart < 0) {
-				currentStart = wordInfo.getStartTime().getSeconds() * 1000;
-				currentStart += wordInfo.getStartTime().getNanos() * (1e-6);
+	/**
+	 * Request long running recognition of the given object.  The returned future
+	 * is completed by the operation callback, which runs on a separate executor
+	 * instead of the operation polling thread.  Progress reported by operation
+	 * metadata is forwarded as progress events and cancelling the future cancels
+	 * the operation.
+	 *
+	 * @param gsUrl
+	 * @return future session
+	 * @throws IOException
+	 */
+	private CompletableFuture<Session> gcstBucketDiarization(String gsUrl) throws IOException {
+		final SpeechClient speechClient = clients().getSpeechClient();
+		RecognitionConfig config = recognitionConfig();
+		RecognitionAudio audio = RecognitionAudio.newBuilder().setUri(gsUrl).build();
+
+		final CompletableFuture<Session> retVal = new CompletableFuture<>();
+		final OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
+				speechClient.longRunningRecognizeAsync(config, audio);
+		final long startTime = System.currentTimeMillis();
+		final ScheduledFuture<?> progressTask = PROGRESS_EXECUTOR.scheduleWithFixedDelay(
+				new RecognitionProgressMonitor(response, startTime), PROGRESS_INTERVAL_MS, PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+		ApiFutures.addCallback(response, new ApiFutureCallback<LongRunningRecognizeResponse>() {
+
+			@Override
+			public void onSuccess(LongRunningRecognizeResponse longRunningRecognizeResponse) {
+				try {
+					SpeechRecognitionAlternative alternative =
+							longRunningRecognizeResponse.getResults(longRunningRecognizeResponse.getResultsCount() - 1)
+									.getAlternatives(0);
+					fireRecognitionProgress(100.0f, startTime);
+					retVal.complete(processSpeechRecognitionAlternative(alternative));
+				} catch (RuntimeException e) {
+					retVal.completeExceptionally(e);
+				}
 			}
-			currentEnd = wordInfo.getEndTime().getSeconds() * 1000;
-			currentEnd += wordInfo.getEndTime().getNanos() * (1e-6);
-
-			if(builder.length() > 0) builder.append(" ");
-			builder.append(wordInfo.getWord());
-		}
 
-		if(currentStart >= 0) {
-			Record r = factory.createRecord(currentSpeaker);
-			try {
-				Orthography ortho = Orthography.parseOrthography(builder.toString());
-				r.getOrthography().setGroup(0, ortho);
-			} catch (ParseException e) {
-				LogUtil.warning(e);
-				fireDiarizationEvent(e.getLocalizedMessage());
+			@Override
+			public void onFailure(Throwable t) {
+				if(t instanceof CancellationException) {
+					retVal.cancel(false);
+				} else {
+					retVal.completeExceptionally(t);
+				}
 			}
 
-			// add record to session
-			MediaSegment seg = factory.createMediaSegment();
-			seg.setStartValue((float)currentStart);
-			seg.setEndValue((float)currentEnd);
-			r.getSegment().setGroup(0, seg);
-
-			retVal.addRecord(r);
-		}
+		}, RESULTS_EXECUTOR);
 
+		retVal.whenComplete( (session, t) -> {
+			progressTask.cancel(false);
+			if(retVal.isCancelled()) response.cancel(true);
+		});
+		if(isCancelIfRunning()) retVal.cancel(true);
 		return retVal;
 	}
 
-	private Session gcstShortFileDiarization(File file) throws IOException {
-		Path path = file.toPath();
-		byte[] content = Files.readAllBytes(path);
-
-		SpeechSettings speechSettings = SpeechSettings
-				.newBuilder()
-				.setCredentialsProvider(this::loadCredentials).build();
-
-		try (SpeechClient speechClient = SpeechClient.create(speechSettings)) {
-			RecognitionAudio recognitionAudio =
-					RecognitionAudio.newBuilder().setContent(ByteString.copyFrom(content)).build();
-
-			SpeakerDiarizationConfig speakerDiarizationConfig =
-					SpeakerDiarizationConfig.newBuilder()
-							.setEnableSpeakerDiarization(true)
-							.setMaxSpeakerCount(this.maxSpeakers)
-							.build();
+	/**
+	 * Forwards progress reported in operation metadata.  Metadata is fetched by the
+	 * operation's own polling, this task only looks at the latest result.
+	 */
+	private class RecognitionProgressMonitor implements Runnable {
 
-			RecognitionConfig config =
-					RecognitionConfig.newBuilder()
-							.setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-							.setLanguageCode(this.languageModel)
-							.setSampleRateHertz((int)UPLOAD_SAMPLE_RATE)
-							.setDiarizationConfig(speakerDiarizationConfig)
-							.build();
+		private final OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> operation;
 
-			RecognizeResponse recognizeResponse = speechClient.recognize(config, recognitionAudio);
+		private final long startTime;
 
-			// Speaker Tags are only included in the last result object, which has only one alternative.
-			SpeechRecognitionAlternative alternative =
-					recognizeResponse.getResults(recognizeResponse.getResultsCount() - 1).getAlternatives(0);
+		private int lastPercent = -1;
 
-			return processSpeechRecognitionAlternative(alternative);
+		public RecognitionProgressMonitor(OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> operation, long startTime) {
+			this.operation = operation;
+			this.startTime = startTime;
 		}
-	}
 
-	private Session gcstBucketDiarization(String gsUrl) throws IOException {
-		SpeechSettings speechSettings = SpeechSettings
-				.newBuilder()
-				.setCredentialsProvider(this::loadCredentials).build();
-		try (SpeechClient speechClient = SpeechClient.create(speechSettings)) {
-			SpeakerDiarizationConfig speakerDiarizationConfig =
-					SpeakerDiarizationConfig.newBuilder()
-							.setEnableSpeakerDiarization(true)
-							.setMaxSpeakerCount(this.maxSpeakers)
-							.build();
-
-			RecognitionConfig config =
-					RecognitionConfig.newBuilder()
-							.setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-							.setLanguageCode(this.languageModel)
-							.setSampleRateHertz((int) UPLOAD_SAMPLE_RATE)
-							.setDiarizationConfig(speakerDiarizationConfig)
-							.build();
-
-			RecognitionAudio audio = RecognitionAudio.newBuilder().setUri(gsUrl).build();
-
-			OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
-					speechClient.longRunningRecognizeAsync(config, audio);
-
-			while(!response.isDone()) {
-				fireDiarizationEvent("Waiting for response...");
-				Thread.sleep(10000);
-				if(isCancelIfRunning()) response.cancel(true);
+		@Override
+		public void run() {
+			final ApiFuture<LongRunningRecognizeMetadata> metadataFuture = operation.peekMetadata();
+			if(metadataFuture == null || !metadataFuture.isDone()) return;
+			try {
+				final LongRunningRecognizeMetadata metadata = metadataFuture.get();
+				if(metadata != null && metadata.getProgressPercent() != lastPercent) {
+					lastPercent = metadata.getProgressPercent();
+					fireRecognitionProgress(lastPercent, startTime);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException | CancellationException e) {
+				// operation failure is reported by the operation callback
 			}
+		}
 
-			LongRunningRecognizeResponse longRunningRecognizeResponse = response.get();
-			SpeechRecognitionAlternative alternative =
-					longRunningRecognizeResponse.getResults(longRunningRecognizeResponse.getResultsCount() - 1)
-							.getAlternatives(0);
+	}
 
-			return processSpeechRecognitionAlternative(alternative);
-		} catch (InterruptedException | ExecutionException | IllegalStateException e) {
-			throw new IOException(e);
-		}
+	private void fireRecognitionProgress(float percent, long startTime) {
+		final long elapsed = System.currentTimeMillis() - startTime;
+		final long remaining = (percent > 0 ? (long)(elapsed * (100.0f - percent) / percent) : -1L);
+		final DiarizationEvent evt = new DiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationProgress,
+				"recognition", elapsed, percent, remaining);
+		fireDiarizationEvent(evt);
 	}
 
-	private Session gcstDiarizeFile(File file) throws GoogleJsonResponseException {
+	/**
+	 * Prepare audio and request diarization.  Returns once the recognition request
+	 * has been submitted.
+	 *
+	 * @param file
+	 * @return future session, completed with <code>null</code> on error or cancellation before the request
+	 * @throws GoogleJsonResponseException
+	 */
+	private CompletableFuture<Session> gcstDiarizeFile(File file) throws GoogleJsonResponseException {
 		fireDiarizationEvent("Google Cloud Speech to Text Diarization");
 		fireDiarizationEvent("---------------------------------------");
 		fireDiarizationEvent("Project id: " + projectId);
@@ -464,90 +818,114 @@ public class GCSTDiarizationTool extends DiarizationTool {
 			loadCredentials();
 		} catch (IOException e) {
 			LogUtil.severe(e);
-			Toolkit.getDefaultToolkit().beep();
 			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 
-		if(isCancelIfRunning()) return null;
-
-		String bucketName = bucketName(projectId);
-		if(!hasBucket(projectId, bucketName)) {
-			fireDiarizationEvent("Creating storage bucket with id " + bucketName);
-			createStorageBucket(projectId, bucketName);
-		} else {
-			fireDiarizationEvent("Using storage bucket with id " + bucketName);
-		}
-
-		if(isCancelIfRunning()) return null;
+		if(isCancelIfRunning()) return CompletableFuture.completedFuture(null);
 
 		try (AudioFile audioFile = AudioIO.openAudioFile(file)) {
 			fireDiarizationEvent(String.format("Audio file format: %s@%.1fKHz, channels: %d, length: %s",
 					audioFile.getAudioFileEncoding().toString(), audioFile.getSampleRate() / 1000.0f,
 					audioFile.getNumberOfChannels(), MsFormatter.msToDisplayString((long)(audioFile.getLength() * 1000.0f))));
-			if(isCancelIfRunning()) return null;
+			if(isCancelIfRunning()) return CompletableFuture.completedFuture(null);
 
 			// if less than 60s, use short method
 			if(audioFile.getLength() < 60.0f) {
-				final File resampledFile = checkAudioFileEncoding(audioFile);
-				if(isCancelIfRunning()) return null;
+				final Sampled sampled = uploadSampled(audioFile);
+				final byte[] content = (sampled != null ? PCM16WavPipeline.toByteArray(sampled) : Files.readAllBytes(file.toPath()));
+				if(isCancelIfRunning()) return CompletableFuture.completedFuture(null);
 				fireDiarizationEvent("Requesting diarization for " + file.getName());
-				return gcstShortFileDiarization(resampledFile);
+				return CompletableFuture.completedFuture(gcstShortFileDiarization(content));
+			} else if(isSplitLongAudio()) {
+				// chunks recognized through the short method, no bucket storage required
+				fireDiarizationEvent("Requesting diarization for " + file.getName() + " in chunks");
+				return gcstSplitDiarization(file);
 			} else {
-				if(!audioFileExistsInBucket(projectId, bucketName, file.getName())) {
-					final File resampledFile = checkAudioFileEncoding(audioFile);
-					if(isCancelIfRunning()) return null;
+				final String bucketName = bucketName(projectId);
+				if(!hasBucket(projectId, bucketName)) {
+					fireDiarizationEvent("Creating storage bucket with id " + bucketName);
+					createStorageBucket(projectId, bucketName);
+				} else {
+					fireDiarizationEvent("Using storage bucket with id " + bucketName);
+				}
+				if(isCancelIfRunning()) return CompletableFuture.completedFuture(null);
+
+				final String objectName = GCSTUploadIndex.objectName(file, uploadEncoding(audioFile));
+				if(!audioFileExistsInBucket(projectId, bucketName, objectName)) {
 					try {
-						fireDiarizationEvent("Uploading audio file to bucket " + bucketName + " with name " + file.getName());
-						uploadAudioFile(projectId, bucketName, file.getName(), resampledFile);
+						fireDiarizationEvent("Uploading audio file to bucket " + bucketName + " with name " + objectName);
+						uploadAudioFile(audioFile, bucketName, objectName);
+						GCSTUploadIndex.getInstance().add(storage(projectId).getOptions().getHost(), projectId, bucketName, objectName);
 					} catch (IOException e) {
 						LogUtil.severe(e);
-						Toolkit.getDefaultToolkit().beep();
 						fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
-						return null;
+						return CompletableFuture.completedFuture(null);
 					}
+				} else {
+					fireDiarizationEvent("Using uploaded audio " + objectName);
 				}
 
-				if(isCancelIfRunning()) return null;
+				if(isCancelIfRunning()) return CompletableFuture.completedFuture(null);
 
-				final String gsUrl = "gs://" + bucketName + "/" + file.getName();
+				final String gsUrl = "gs://" + bucketName + "/" + objectName;
 				fireDiarizationEvent("Requesting diarization for " + gsUrl);
 				return gcstBucketDiarization(gsUrl);
 			}
 		} catch (IOException | AudioIOException e) {
 			LogUtil.severe(e);
 			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
-			return null;
+			return CompletableFuture.completedFuture(null);
 		}
 	}
 
 	@Override
 	public DiarizationFutureResult diarize(final File file) throws IOException {
-		FutureTask<Session> sessionFutureTask = new FutureTask<Session>( () -> {
-			try {
-				return gcstDiarizeFile(file);
-			} catch (StorageException | GoogleJsonResponseException ex) {
-				fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, ex.getMessage());
-				return null;
-			}
-		} );
+		final CompletableFuture<Session> futureSession = new CompletableFuture<>();
 
+		// the worker prepares and uploads audio, recognition completes the future asynchronously
 		PhonWorker worker = PhonWorker.createWorker();
 		worker.setName("Phon Diarization");
 		worker.setFinishWhenQueueEmpty(true);
-		worker.invokeLater(sessionFutureTask);
+		worker.invokeLater( () -> {
+			final CompletableFuture<Session> recognition;
+			try {
+				recognition = gcstDiarizeFile(file);
+			} catch (StorageException | GoogleJsonResponseException ex) {
+				fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, ex.getMessage());
+				futureSession.complete(null);
+				return;
+			} catch (RuntimeException ex) {
+				futureSession.completeExceptionally(ex);
+				return;
+			}
+			futureSession.whenComplete( (session, t) -> {
+				if(futureSession.isCancelled()) recognition.cancel(true);
+			});
+			recognition.whenComplete( (session, t) -> {
+				if(t == null) {
+					futureSession.complete(session);
+				} else if(recognition.isCancelled()) {
+					futureSession.cancel(false);
+				} else {
+					LogUtil.severe(t);
+					fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, t.getLocalizedMessage());
+					futureSession.completeExceptionally(t);
+				}
+			});
+		});
 		worker.start();
 
-		return new GCSTDiarizationResult(worker, sessionFutureTask);
+		return new GCSTDiarizationResult(worker, futureSession);
 	}
 
 	private class GCSTDiarizationResult implements DiarizationFutureResult {
 
 		private PhonWorker worker;
 
-		FutureTask<Session> futureSession;
+		CompletableFuture<Session> futureSession;
 
-		public GCSTDiarizationResult(PhonWorker worker, FutureTask<Session> futureSession) {
+		public GCSTDiarizationResult(PhonWorker worker, CompletableFuture<Session> futureSession) {
 			this.worker = worker;
 			this.futureSession = futureSession;
 		}
@@ -559,10 +937,10 @@ public class GCSTDiarizationTool extends DiarizationTool {
 
 		@Override
 		public void cancel() {
+			setCancelIfRunning(true);
+
 			worker.shutdown();
 			this.futureSession.cancel(true);
-
-			setCancelIfRunning(true);
 		}
 
 	}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.orthography.Orthography;
+import ca.phon.session.*;
+import ca.phon.session.Record;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.WordInfo;
+import com.google.protobuf.Duration;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Converts recognized words into a session with one record per run of consecutive words
+ * by the same speaker.  Words are streamed into primitive segment arrays (start, end,
+ * speaker tag and text offset) with the text of all segments kept in a single buffer;
+ * records are created once all words have been added, with orthography parsed in
+ * parallel for large results.
+ */
+public final class GCSTSessionConverter {
+
+	/** Min number of segments for which orthography is parsed in parallel */
+	private final static int PARALLEL_PARSE_THRESHOLD = 256;
+
+	private final static int MIN_CAPACITY = 16;
+
+	private int segmentCount = 0;
+
+	private long[] segmentStarts;
+
+	private long[] segmentEnds;
+
+	private int[] speakerTags;
+
+	/** End offset of segment text in text buffer, segment text starts at the end of the previous segment */
+	private int[] textEnds;
+
+	private final StringBuilder text;
+
+	/**
+	 * @param expectedWords expected number of words, used to size buffers
+	 */
+	public GCSTSessionConverter(int expectedWords) {
+		final int capacity = Math.max(MIN_CAPACITY, expectedWords / 8);
+		segmentStarts = new long[capacity];
+		segmentEnds = new long[capacity];
+		speakerTags = new int[capacity];
+		textEnds = new int[capacity];
+		text = new StringBuilder(Math.max(MIN_CAPACITY, expectedWords * 8));
+	}
+
+	/**
+	 * Add all words of alternative
+	 *
+	 * @param alternative
+	 */
+	public void addWords(SpeechRecognitionAlternative alternative) {
+		final int wordCount = alternative.getWordsCount();
+		for(int i = 0; i < wordCount; i++) {
+			addWord(alternative.getWords(i));
+		}
+	}
+
+	public void addWord(WordInfo wordInfo) {
+		addWord(wordInfo.getSpeakerTag(), toMs(wordInfo.getStartTime()), toMs(wordInfo.getEndTime()), wordInfo.getWord());
+	}
+
+	/**
+	 * Add word, a new segment is started when the speaker changes or the word does not
+	 * start at the end of the previous word.
+	 *
+	 * @param speakerTag
+	 * @param startMs
+	 * @param endMs
+	 * @param word
+	 */
+	public void addWord(int speakerTag, long startMs, long endMs, CharSequence word) {
+		final int last = segmentCount - 1;
+		if(last < 0 || speakerTags[last] != speakerTag || segmentEnds[last] != startMs) {
+			ensureCapacity(segmentCount + 1);
+			segmentStarts[segmentCount] = startMs;
+			speakerTags[segmentCount] = speakerTag;
+			++segmentCount;
+		} else {
+			text.append(' ');
+		}
+		text.append(word);
+		segmentEnds[segmentCount - 1] = endMs;
+		textEnds[segmentCount - 1] = text.length();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity <= segmentStarts.length) return;
+		final int newCapacity = Math.max(capacity, segmentStarts.length * 2);
+		segmentStarts = Arrays.copyOf(segmentStarts, newCapacity);
+		segmentEnds = Arrays.copyOf(segmentEnds, newCapacity);
+		speakerTags = Arrays.copyOf(speakerTags, newCapacity);
+		textEnds = Arrays.copyOf(textEnds, newCapacity);
+	}
+
+	public int getSegmentCount() {
+		return this.segmentCount;
+	}
+
+	public long getSegmentStart(int segment) {
+		return segmentStarts[segment];
+	}
+
+	public long getSegmentEnd(int segment) {
+		return segmentEnds[segment];
+	}
+
+	public int getSpeakerTag(int segment) {
+		return speakerTags[segment];
+	}
+
+	public String getSegmentText(int segment) {
+		return text.substring(segment > 0 ? textEnds[segment - 1] : 0, textEnds[segment]);
+	}
+
+	/**
+	 * Create session with one participant per speaker tag and one record per segment.
+	 *
+	 * @param parseErrorHandler called for segments with text which could not be parsed as orthography,
+	 *                          may be called from multiple threads but not concurrently
+	 * @return session
+	 */
+	public Session toSession(Consumer<ParseException> parseErrorHandler) {
+		final Orthography[] orthography = parseOrthography(parseErrorHandler);
+
+		final SessionFactory factory = SessionFactory.newFactory();
+		final Session retVal = factory.createSession();
+		final Map<Integer, Participant> speakerMap = new HashMap<>();
+		for(int i = 0; i < segmentCount; i++) {
+			Participant speaker = speakerMap.get(speakerTags[i]);
+			if(speaker == null) {
+				speaker = factory.createParticipant();
+				speaker.setId("P" + speakerTags[i]);
+				speaker.setRole(ParticipantRole.PARTICIPANT);
+
+				retVal.addParticipant(speaker);
+				speakerMap.put(speakerTags[i], speaker);
+			}
+
+			final Record r = factory.createRecord(speaker);
+			if(orthography[i] != null) {
+				r.getOrthography().setGroup(0, orthography[i]);
+			}
+
+			final MediaSegment seg = factory.createMediaSegment();
+			seg.setStartValue((float)segmentStarts[i]);
+			seg.setEndValue((float)segmentEnds[i]);
+			r.getSegment().setGroup(0, seg);
+
+			retVal.addRecord(r);
+		}
+		return retVal;
+	}
+
+	private Orthography[] parseOrthography(Consumer<ParseException> parseErrorHandler) {
+		final Orthography[] retVal = new Orthography[segmentCount];
+		final IntStream segments = IntStream.range(0, segmentCount);
+		(segmentCount >= PARALLEL_PARSE_THRESHOLD ? segments.parallel() : segments).forEach( (i) -> {
+			try {
+				retVal[i] = Orthography.parseOrthography(getSegmentText(i));
+			} catch (ParseException e) {
+				synchronized(parseErrorHandler) {
+					parseErrorHandler.accept(e);
+				}
+			}
+		});
+		return retVal;
+	}
+
+	private static long toMs(Duration duration) {
+		return duration.getSeconds() * 1000L + duration.getNanos() / 1000000;
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.app.log.LogUtil;
+import ca.phon.util.PrefHelper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Local index of audio objects uploaded to Cloud Storage.  Objects are named
+ * using a content hash of the source audio and the upload encoding, so the
+ * same audio is uploaded at most once per bucket regardless of file name.
+ * Entries are keyed on the storage host, project, bucket and object name.  The
+ * index only records uploads, objects must still be looked up in storage since
+ * they may have been deleted (e.g., by a bucket lifecycle rule.)
+ */
+public final class GCSTUploadIndex {
+
+	private final static String INDEX_FILE = "diarization" + File.separator + "gcst_uploads.txt";
+
+	private final static String OBJECT_PREFIX = "audio/";
+
+	private final static int HASH_BUFFER_SIZE = 1024 * 1024;
+
+	private static GCSTUploadIndex instance;
+
+	private final File indexFile;
+
+	private final Set<String> entries = new HashSet<>();
+
+	public synchronized static GCSTUploadIndex getInstance() {
+		if(instance == null) {
+			instance = new GCSTUploadIndex(new File(PrefHelper.getUserDataFolder(), INDEX_FILE));
+		}
+		return instance;
+	}
+
+	public GCSTUploadIndex(File indexFile) {
+		this.indexFile = indexFile;
+		load();
+	}
+
+	private void load() {
+		if(!indexFile.exists()) return;
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+			String line = null;
+			while((line = reader.readLine()) != null) {
+				// entries written before the storage host and project were recorded are dropped
+				if(line.indexOf('\t') > 0) entries.add(line);
+			}
+		} catch (IOException e) {
+			LogUtil.warning(e);
+		}
+	}
+
+	private static String entry(String storageHost, String projectId, String bucketName, String objectName) {
+		return storageHost + "\t" + projectId + "\t" + bucketName + "/" + objectName;
+	}
+
+	/**
+	 * Has the object been uploaded to the given bucket
+	 *
+	 * @param storageHost
+	 * @param projectId
+	 * @param bucketName
+	 * @param objectName
+	 * @return true if object is in index
+	 */
+	public synchronized boolean contains(String storageHost, String projectId, String bucketName, String objectName) {
+		return entries.contains(entry(storageHost, projectId, bucketName, objectName));
+	}
+
+	/**
+	 * Add uploaded object to index
+	 *
+	 * @param storageHost
+	 * @param projectId
+	 * @param bucketName
+	 * @param objectName
+	 */
+	public synchronized void add(String storageHost, String projectId, String bucketName, String objectName) {
+		final String entry = entry(storageHost, projectId, bucketName, objectName);
+		if(!entries.add(entry)) return;
+		indexFile.getParentFile().mkdirs();
+		try(PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8))) {
+			out.println(entry);
+		} catch (IOException e) {
+			LogUtil.warning(e);
+		}
+	}
+
+	/**
+	 * Remove object from index, e.g., if it is no longer found in the bucket
+	 *
+	 * @param storageHost
+	 * @param projectId
+	 * @param bucketName
+	 * @param objectName
+	 */
+	public synchronized void remove(String storageHost, String projectId, String bucketName, String objectName) {
+		if(!entries.remove(entry(storageHost, projectId, bucketName, objectName))) return;
+		indexFile.getParentFile().mkdirs();
+		try(PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8))) {
+			entries.forEach(out::println);
+		} catch (IOException e) {
+			LogUtil.warning(e);
+		}
+	}
+
+	/**
+	 * Object name for audio file, a SHA-256 hash of the file contents and
+	 * upload encoding.
+	 *
+	 * @param audioFile
+	 * @param encoding description of the upload encoding, e.g., 'pcm16@16000/1'
+	 * @return object name
+	 * @throws IOException
+	 */
+	public static String objectName(File audioFile, String encoding) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try(FileChannel channel = FileChannel.open(audioFile.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+			while(channel.read(buffer) > 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		digest.update(encoding.getBytes(StandardCharsets.UTF_8));
+
+		final StringBuilder builder = new StringBuilder(OBJECT_PREFIX);
+		for(byte b:digest.digest()) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.append(".wav").toString();
+	}
+
+}
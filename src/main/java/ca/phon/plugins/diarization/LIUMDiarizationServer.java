@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import fr.lium.spkDiarization.libClusteringData.ClusterSet;
+
+/**
+ * Long-lived LIUM diarization worker.  Jobs are read from stdin and executed
+ * one at a time, keeping loaded classes, JIT profile and models warm between jobs.
+ *
+ * Protocol (one command per line, fields separated by a single space):
+ * <pre>
+ * stdin:  PING &lt;id&gt;
+ *         JOB &lt;id&gt; &lt;arg&gt;\t&lt;arg&gt;...
+ *         CANCEL &lt;id&gt;
+ *         QUIT
+ * stdout: PONG &lt;id&gt;
+ *         LOG &lt;id&gt; &lt;message&gt;
+ *         EVENT &lt;id&gt; &lt;stage line&gt;
+ *         RESULT &lt;id&gt; &lt;result line&gt;
+ *         DONE &lt;id&gt;
+ *         ERROR &lt;id&gt; &lt;message&gt;
+ * </pre>
+ *
+ * Job arguments are escaped using {@link #encodeArgs(List)}, so arguments may
+ * contain tabs and line breaks.
+ *
+ * Stage events and the final cluster set of a job are sent as <code>EVENT</code>
+ * and <code>RESULT</code> lines using the format of {@link LIUMResultsConverter}.
+ *
+ * The server exits when stdin is closed.
+ */
+public final class LIUMDiarizationServer {
+
+	public final static String PING = "PING";
+
+	public final static String PONG = "PONG";
+
+	public final static String JOB = "JOB";
+
+	public final static String CANCEL = "CANCEL";
+
+	public final static String QUIT = "QUIT";
+
+	public final static String LOG = "LOG";
+
+	public final static String EVENT = "EVENT";
+
+	public final static String RESULT = "RESULT";
+
+	public final static String DONE = "DONE";
+
+	public final static String ERROR = "ERROR";
+
+	public final static String ARG_SEPARATOR = "\t";
+
+	private final PrintStream out;
+
+	private final ExecutorService jobQueue = Executors.newSingleThreadExecutor();
+
+	private final Map<String, SpkDiarization> runningJobs = new ConcurrentHashMap<>();
+
+	private final Set<String> cancelledJobs = ConcurrentHashMap.newKeySet();
+
+	private volatile String currentJobId = null;
+
+	/**
+	 * Join arguments into a single line.  Backslashes, tabs and line breaks in
+	 * arguments are escaped and arguments are separated by {@link #ARG_SEPARATOR}.
+	 *
+	 * @param args
+	 * @return encoded arguments
+	 */
+	public static String encodeArgs(List<String> args) {
+		final StringBuilder builder = new StringBuilder();
+		for(int argIdx = 0; argIdx < args.size(); argIdx++) {
+			final String arg = args.get(argIdx);
+			if(argIdx > 0) builder.append(ARG_SEPARATOR);
+			for(int i = 0; i < arg.length(); i++) {
+				final char c = arg.charAt(i);
+				switch(c) {
+					case '\\': builder.append("\\\\"); break;
+					case '\t': builder.append("\\t"); break;
+					case '\n': builder.append("\\n"); break;
+					case '\r': builder.append("\\r"); break;
+					default: builder.append(c); break;
+				}
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Split and unescape arguments encoded by {@link #encodeArgs(List)}
+	 *
+	 * @param line
+	 * @return arguments
+	 */
+	public static String[] decodeArgs(String line) {
+		final String[] retVal = line.split(ARG_SEPARATOR, -1);
+		for(int i = 0; i < retVal.length; i++) {
+			final String arg = retVal[i];
+			if(arg.indexOf('\\') < 0) continue;
+			final StringBuilder builder = new StringBuilder(arg.length());
+			for(int j = 0; j < arg.length(); j++) {
+				final char c = arg.charAt(j);
+				if(c != '\\' || j + 1 == arg.length()) {
+					builder.append(c);
+					continue;
+				}
+				final char escaped = arg.charAt(++j);
+				switch(escaped) {
+					case 't': builder.append('\t'); break;
+					case 'n': builder.append('\n'); break;
+					case 'r': builder.append('\r'); break;
+					default: builder.append(escaped); break;
+				}
+			}
+			retVal[i] = builder.toString();
+		}
+		return retVal;
+	}
+
+	private LIUMDiarizationServer(PrintStream out) {
+		this.out = out;
+	}
+
+	private synchronized void send(String... fields) {
+		out.println(String.join(" ", fields).replace('\n', ' ').replace('\r', ' '));
+		out.flush();
+	}
+
+	private void runJob(String jobId, String[] args) {
+		if(cancelledJobs.remove(jobId)) {
+			send(ERROR, jobId, "Diarization cancelled");
+			return;
+		}
+		final SpkDiarization diarization = new SpkDiarization();
+		diarization.addStageListener( (evt) -> send(EVENT, jobId, LIUMResultsConverter.stageLine(evt)) );
+		runningJobs.put(jobId, diarization);
+		currentJobId = jobId;
+		try {
+			final ClusterSet clusterSet = diarization.diarizeShow(args);
+			LIUMResultsConverter.writeLines(clusterSet, diarization.getMergeHistory(), diarization.getFrameRate(), (line) -> send(RESULT, jobId, line));
+			send(DONE, jobId);
+		} catch (Exception e) {
+			send(ERROR, jobId, diarization.isCancelled() ? "Diarization cancelled" : String.valueOf(e.getLocalizedMessage()));
+		} finally {
+			currentJobId = null;
+			runningJobs.remove(jobId);
+		}
+	}
+
+	private void serve(BufferedReader in) throws IOException {
+		String line = null;
+		while((line = in.readLine()) != null) {
+			final String[] cmd = line.split(" ", 3);
+			switch(cmd[0]) {
+				case PING:
+					if(cmd.length >= 2)
+						send(PONG, cmd[1]);
+					else
+						send(PONG);
+					break;
+
+				case JOB:
+					if(cmd.length < 3) break;
+					final String jobId = cmd[1];
+					final String[] args = decodeArgs(cmd[2]);
+					jobQueue.execute(() -> runJob(jobId, args));
+					break;
+
+				case CANCEL:
+					if(cmd.length < 2) break;
+					SpkDiarization diarization = runningJobs.get(cmd[1]);
+					if(diarization != null)
+						diarization.cancel();
+					else
+						cancelledJobs.add(cmd[1]);
+					break;
+
+				case QUIT:
+					return;
+
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Forwards log records from the job thread to the client.
+	 */
+	private class JobLogHandler extends Handler {
+
+		@Override
+		public void publish(LogRecord record) {
+			final String jobId = currentJobId;
+			if(jobId == null || record.getLevel().intValue() < Level.INFO.intValue()) return;
+			send(LOG, jobId, String.valueOf(record.getMessage()));
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() throws SecurityException {
+		}
+
+	}
+
+	public static void main(String[] args) {
+		// keep stdout for the protocol, anything else printed goes to stderr
+		final PrintStream protocolOut = new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8);
+		System.setOut(System.err);
+
+		final LIUMDiarizationServer server = new LIUMDiarizationServer(protocolOut);
+		final JobLogHandler logHandler = server.new JobLogHandler();
+		Logger.getLogger("fr.lium").addHandler(logHandler);
+		Logger.getLogger(SpkDiarization.class.getName()).addHandler(logHandler);
+
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+			server.serve(in);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			server.runningJobs.values().forEach(SpkDiarization::cancel);
+			server.jobQueue.shutdownNow();
+		}
+		System.exit(0);
+	}
+
+}
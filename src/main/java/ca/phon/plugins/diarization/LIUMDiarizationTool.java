@@ -16,12 +16,28 @@
 package ca.phon.plugins.diarization;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
@@ -34,6 +50,8 @@ import ca.phon.session.Record;
 import ca.phon.session.io.*;
 import ca.phon.worker.PhonWorker;
 
+import fr.lium.spkDiarization.libClusteringData.ClusterSet;
+
 import ca.phon.ui.nativedialogs.OSInfo;
 
 /**
@@ -47,6 +65,30 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 	
 	private final static String XSLT_FILE = "epac2session.xslt";
 
+	private final static String LIUM_LOGGER = "fr.lium";
+
+	/** Length of time prefix of LIUM log lines */
+	private final static int LOG_TIME_LENGTH = 10;
+
+	/** Converts and saves results of jobs run by the worker process */
+	private final static ExecutorService WORKER_RESULTS_EXECUTOR = Executors.newCachedThreadPool( (r) -> {
+		final Thread thread = new Thread(r, "LIUM worker results");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * How the LIUM pipeline is executed.
+	 */
+	public static enum ExecutionMode {
+		/** Run pipeline stages on a worker thread in this JVM */
+		IN_PROCESS,
+		/** Send jobs to a long-lived worker JVM, see {@link LIUMWorkerProcess} */
+		WORKER,
+		/** Fork a new JVM for each diarization */
+		SUBPROCESS
+	};
+
 	public static final String THRESHOLDS = "--thresholds";
 
 	public static final String DO_CECLUSTERING = "--doCEClustering";
@@ -71,6 +113,33 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 	/** Max speaker count (when forced) */
 	private int maxSpeakerCount = 0;
 
+	/** Execution mode */
+	private ExecutionMode executionMode = ExecutionMode.IN_PROCESS;
+
+	/** Evaluate threshold grid points in parallel */
+	private boolean parallelSweep = false;
+
+	/** Chunk length (in seconds) for chunked diarization of long recordings, 0 to disable */
+	private double chunkLength = 0.0;
+
+	/** Record speaker clustering merge tree with results */
+	private boolean recordMergeHistory = false;
+
+	/** Folder for cached audio features, <code>null</code> to disable */
+	private File featureCacheFolder = null;
+
+	/** Budget for derived features, as a fraction of max heap */
+	private double featureCacheBudget = LIUMFeatureCache.DEFAULT_BUDGET_FRACTION;
+
+	/** Convert results using the epac2session stylesheet instead of the streaming converter */
+	private boolean useXSLTConversion = false;
+
+	/** Optional file receiving LIUM 'seg.xml' results */
+	private File resultsFile = null;
+
+	/** Compiled epac2session stylesheet */
+	private static Templates epac2SessionTemplates;
+
 	public void setDoCEClustering(boolean doCEClustering) {
 		this.doCEClustering = doCEClustering;
 	}
@@ -159,27 +228,254 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 		this.maxSpeakerCount = maxSpeakerCount;
 	}
 
+	/**
+	 * File receiving LIUM 'seg.xml' results.  When <code>null</code> (default)
+	 * results are returned in memory and no file is written.
+	 *
+	 * @return results file or <code>null</code>
+	 */
+	public File getResultsFile() {
+		return this.resultsFile;
+	}
+
+	public void setResultsFile(File resultsFile) {
+		this.resultsFile = resultsFile;
+	}
+
+	public boolean isUseXSLTConversion() {
+		return this.useXSLTConversion;
+	}
+
+	public void setUseXSLTConversion(boolean useXSLTConversion) {
+		this.useXSLTConversion = useXSLTConversion;
+	}
+
+	public boolean isParallelSweep() {
+		return this.parallelSweep;
+	}
+
+	public void setParallelSweep(boolean parallelSweep) {
+		this.parallelSweep = parallelSweep;
+	}
+
+	public double getChunkLength() {
+		return this.chunkLength;
+	}
+
+	/**
+	 * Split recordings longer than 1.5 times the given length into chunks which
+	 * are segmented and clustered in parallel before speakers are linked across
+	 * chunks.
+	 *
+	 * @param chunkLength chunk length in seconds, 0 to disable
+	 */
+	public void setChunkLength(double chunkLength) {
+		this.chunkLength = chunkLength;
+	}
+
+	public boolean isRecordMergeHistory() {
+		return this.recordMergeHistory;
+	}
+
+	/**
+	 * Record the speaker clustering merge tree, results for other numbers of
+	 * speakers can then be created using {@link SpeakerMergeHistory#materialize(int)}.
+	 *
+	 * @param recordMergeHistory
+	 */
+	public void setRecordMergeHistory(boolean recordMergeHistory) {
+		this.recordMergeHistory = recordMergeHistory;
+	}
+
+	public File getFeatureCacheFolder() {
+		return this.featureCacheFolder;
+	}
+
+	/**
+	 * Store features computed from audio in the given folder, later runs on the
+	 * same (unchanged) audio file read the cached features.
+	 *
+	 * @param featureCacheFolder folder, <code>null</code> to disable
+	 */
+	public void setFeatureCacheFolder(File featureCacheFolder) {
+		this.featureCacheFolder = featureCacheFolder;
+	}
+
+	public double getFeatureCacheBudget() {
+		return this.featureCacheBudget;
+	}
+
+	/**
+	 * Memory budget for derived features of a run, as a fraction of max heap.
+	 * Reduce when several runs share a process.
+	 *
+	 * @param featureCacheBudget
+	 */
+	public void setFeatureCacheBudget(double featureCacheBudget) {
+		this.featureCacheBudget = featureCacheBudget;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return this.executionMode;
+	}
+
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	/**
+	 * Command line arguments for the LIUM diarization pipeline (excluding the
+	 * java executable and main class.)
+	 *
+	 * @param audioFile
+	 * @param resultFile seg.xml output file, may be <code>null</code>
+	 * @return list of arguments
+	 */
+	private List<String> liumArguments(File audioFile, File resultFile) {
+		String[] args = {
+				DO_CECLUSTERING,
+				THRESHOLDS, String.format("%f:%f,%f:%f,%f:%f,%f:%f", getlMin(), getlMax(), gethMin(), gethMax(), getdMin(), getdMax(), getcMin(), getcMax()),
+				"--fInputMask", audioFile.getAbsolutePath()
+		};
+		List<String> retVal = new ArrayList<>(Arrays.asList(args));
+		if(resultFile != null) {
+			retVal.addAll(List.of("--sOutputMask", resultFile.getAbsolutePath(), "--sOutputFormat", "seg.xml"));
+		} else {
+			retVal.add(0, SpkDiarization.NO_OUTPUT_FILE);
+		}
+		retVal.add(audioFile.getName());
+		if(isParallelSweep()) {
+			retVal.add(0, SpkDiarization.PARALLEL_SWEEP);
+		}
+		if(getChunkLength() > 0) {
+			retVal.addAll(0, List.of(SpkDiarization.CHUNK_LENGTH, Double.toString(getChunkLength())));
+		}
+		if(isForceSpeakerMax() || isRecordMergeHistory()) {
+			// speaker cap is applied by replaying recorded merges
+			retVal.add(0, SpkDiarization.MERGE_HISTORY);
+			if(!isRecordMergeHistory()) {
+				// merges below the cap are never replayed
+				retVal.addAll(0, List.of(SpkDiarization.MERGE_HISTORY_LIMIT, Integer.toString(Math.max(1, getMaxSpeakerCount()))));
+			}
+		}
+		if(getFeatureCacheFolder() != null) {
+			retVal.addAll(0, List.of(SpkDiarization.FEATURE_CACHE, getFeatureCacheFolder().getAbsolutePath()));
+		}
+		if(getFeatureCacheBudget() != LIUMFeatureCache.DEFAULT_BUDGET_FRACTION) {
+			retVal.addAll(0, List.of(SpkDiarization.FEATURE_CACHE_BUDGET, Double.toString(getFeatureCacheBudget())));
+		}
+		return retVal;
+	}
+
 	public DiarizationFutureResult diarize(File audioFile) throws IOException {
+		File resultFile = getResultsFile();
+		boolean tempResultFile = false;
+		if(resultFile == null && isUseXSLTConversion()) {
+			// stylesheet conversion requires a seg.xml file
+			resultFile = File.createTempFile("phon-diarization", ".seg.xml");
+			resultFile.deleteOnExit();
+			tempResultFile = true;
+		}
+		final ResultOutput output = new ResultOutput(resultFile, tempResultFile);
+
+		switch(getExecutionMode()) {
+			case IN_PROCESS:
+				return diarizeInProcess(audioFile, output);
+
+			case WORKER:
+				return diarizeWorker(audioFile, output);
+
+			default:
+				return diarizeSubprocess(audioFile, output);
+		}
+	}
+
+	/**
+	 * Command used to start a new JVM with the current classpath
+	 *
+	 * @param mainClass
+	 * @return command
+	 */
+	static List<String> javaCommand(String mainClass) {
 		final String javaHome = System.getProperty("java.home");
-		final String javaBin = javaHome + File.separator + "bin" + File.separator + "java" + 
+		final String javaBin = javaHome + File.separator + "bin" + File.separator + "java" +
 				(OSInfo.isWindows() ? ".exe" : "");
 		final String cp = System.getProperty("java.class.path");
-		
-		final File tmpFile = File.createTempFile("phon-diarization", audioFile.getName());
-		
-		List<String> fullCmd = new ArrayList<String>();
+
+		List<String> retVal = new ArrayList<String>();
 		String[] cmd = {
 				javaBin,
 				"-cp", cp,
-				MAIN_CLASS,
-				DO_CECLUSTERING,
-				THRESHOLDS, String.format("%f:%f,%f:%f,%f:%f,%f:%f", getlMin(), getlMax(), gethMin(), gethMax(), getdMin(), getdMax(), getcMin(), getcMax()),
-				"--fInputMask", audioFile.getAbsolutePath(),
-				"--sOutputMask", tmpFile.getAbsolutePath(),
-				"--sOutputFormat", "seg.xml"
+				mainClass
 		};
-		fullCmd.addAll(Arrays.asList(cmd));
-		fullCmd.add(audioFile.getName());
+		retVal.addAll(Arrays.asList(cmd));
+		return retVal;
+	}
+
+	private DiarizationFutureResult diarizeInProcess(File audioFile, ResultOutput output) {
+		final String[] args = liumArguments(audioFile, output.file).toArray(new String[0]);
+		final SpkDiarization diarization = new SpkDiarization();
+
+		diarization.addStageListener(this::fireDiarizationEvent);
+
+		FutureTask<Session> sessionFutureTask = new FutureTask<Session>( () -> {
+			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationStarted, "");
+			final InProcessLogHandler logHandler = new InProcessLogHandler(diarization);
+			final Logger liumLogger = Logger.getLogger(LIUM_LOGGER);
+			final Logger spkLogger = Logger.getLogger(SpkDiarization.class.getName());
+			liumLogger.addHandler(logHandler);
+			spkLogger.addHandler(logHandler);
+			Session results = null;
+			try {
+				final ClusterSet clusterSet = diarization.diarizeShow(args);
+				results = LIUMResultsConverter.fromClusterSet(clusterSet, diarization.getMergeHistory(), diarization.getFrameRate());
+			} catch (Exception e) {
+				if(diarization.isCancelled()) {
+					fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, "Diarization cancelled");
+				} else {
+					LogUtil.severe(e);
+					fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
+				}
+				return null;
+			} finally {
+				liumLogger.removeHandler(logHandler);
+				spkLogger.removeHandler(logHandler);
+			}
+			return completeDiarization(results, output);
+		});
+
+		PhonWorker worker = PhonWorker.createWorker();
+		worker.setName("LIUM Diarization");
+		worker.setFinishWhenQueueEmpty(true);
+		worker.invokeLater(sessionFutureTask);
+		worker.start();
+
+		return new LIUMInProcessDiarizationResult(worker, diarization, sessionFutureTask);
+	}
+
+	private DiarizationFutureResult diarizeWorker(File audioFile, ResultOutput output) throws IOException {
+		fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationStarted, "");
+		final LIUMWorkerProcess.Job job =
+				LIUMWorkerProcess.getInstance().submit(liumArguments(audioFile, output.file), this::fireDiarizationEvent);
+
+		// results are converted and saved off the worker callback thread
+		Future<Session> futureSession = job.getFuture().handleAsync( (results, e) -> {
+			if(e == null) {
+				return completeDiarization(results, output);
+			} else {
+				Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+				fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError,
+						(cause instanceof CancellationException ? "Diarization cancelled" : cause.getLocalizedMessage()));
+				return null;
+			}
+		}, WORKER_RESULTS_EXECUTOR);
+		return new LIUMWorkerDiarizationResult(job, futureSession);
+	}
+
+	private DiarizationFutureResult diarizeSubprocess(File audioFile, ResultOutput output) throws IOException {
+		List<String> fullCmd = javaCommand(MAIN_CLASS);
+		fullCmd.add(SpkDiarization.PRINT_RESULTS);
+		fullCmd.addAll(liumArguments(audioFile, output.file));
 		
 		ProcessBuilder pb = new ProcessBuilder(fullCmd);
 
@@ -190,8 +486,9 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 			try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
 				String line = null;
 				while ((line = reader.readLine()) != null) {
-					// remove time from beginning of string
-					fireDiarizationEvent(line.substring(10));
+					final String message = stripLogTime(line);
+					if(message.length() > 0)
+						fireDiarizationEvent(message);
 				}
 			} catch (IOException e) {
 				fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
@@ -200,17 +497,41 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 		};
 		PhonWorker.getInstance().invokeLater(readErrData);
 
-		Future<Session> futureSession = p.onExit().thenApply( process -> {
-			int exitValue = p.exitValue();
-			if(exitValue == 0) {
-				try {
-					Session retVal = transformResults(tmpFile);
-					fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationCompleted, retVal.getParticipantCount() + " clusters with " + retVal.getRecordCount() + " segments detected");
-					return retVal;
-				} catch (IOException e) {
-					fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
-					return null;
+		// stage events and results are printed to stdout by the subprocess
+		final CompletableFuture<Session> resultsFuture = new CompletableFuture<>();
+		final Thread readOutData = new Thread(() -> {
+			final DiarizationSessionBuilder builder = new DiarizationSessionBuilder();
+			boolean done = false;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					final DiarizationEvent stageEvent = LIUMResultsConverter.readStageLine(line);
+					if(stageEvent != null)
+						fireDiarizationEvent(stageEvent);
+					else if(LIUMResultsConverter.DONE.equals(line))
+						done = true;
+					else
+						LIUMResultsConverter.readLine(line, builder);
 				}
+				if(done)
+					resultsFuture.complete(builder.build());
+				else
+					resultsFuture.completeExceptionally(new IOException("Diarization did not complete"));
+			} catch (IOException e) {
+				resultsFuture.completeExceptionally(e);
+			}
+		}, "LIUM diarization output");
+		readOutData.setDaemon(true);
+		readOutData.start();
+
+		Future<Session> futureSession = p.onExit().thenCombine(resultsFuture.exceptionally( e -> null ), (process, results) -> {
+			int exitValue = p.exitValue();
+			if(exitValue == 0 && results == null && output.file == null) {
+				// no results printed and no output file, the subprocess failed without an exit value
+				fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, "Diarization did not complete");
+				return null;
+			} else if(exitValue == 0) {
+				return completeDiarization(results, output);
 			} else {
 				fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, "Process exited with value " + exitValue);
 				return null;
@@ -219,44 +540,161 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 		return new LIUMDiarizationResult(p, futureSession);
 	}
 
-	private Session transformResults(File resultFile) throws IOException {
+	/**
+	 * Remove time from the beginning of a LIUM log line.
+	 *
+	 * @param line
+	 * @return message
+	 */
+	private static String stripLogTime(String line) {
+		return (line.length() > LOG_TIME_LENGTH ? line.substring(LOG_TIME_LENGTH) : line).trim();
+	}
+
+	/**
+	 * Finish diarization using results returned by the LIUM pipeline.
+	 *
+	 * @param results in-memory results, <code>null</code> if not available
+	 * @param output
+	 * @return session or <code>null</code> if results could not be read
+	 */
+	private Session completeDiarization(Session results, ResultOutput output) {
+		try {
+			Session retVal = transformResults(results, output.file);
+			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationCompleted, retVal.getParticipantCount() + " clusters with " + retVal.getRecordCount() + " segments detected");
+			return retVal;
+		} catch (IOException e) {
+			fireDiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationError, e.getLocalizedMessage());
+			return null;
+		} finally {
+			if(output.temporary && !output.file.delete()) {
+				LogUtil.warning("Unable to delete " + output.file.getAbsolutePath());
+			}
+		}
+	}
+
+	Session transformResults(Session results, File resultFile) throws IOException {
+		Session retVal = null;
+		if(isUseXSLTConversion()) {
+			retVal = transformResultsXSLT(resultFile);
+			if(results != null && results.getExtension(SpeakerMergeHistory.class) != null) {
+				retVal.putExtension(SpeakerMergeHistory.class, results.getExtension(SpeakerMergeHistory.class));
+			}
+		} else if(results != null) {
+			retVal = results;
+		} else if(resultFile != null) {
+			retVal = LIUMResultsConverter.fromEpac(resultFile);
+		} else {
+			throw new IOException("No diarization results");
+		}
+		if(isForceSpeakerMax()) {
+			enforceMaxSpeakers(retVal);
+		}
+		return retVal;
+	}
+
+	private static Templates epac2SessionTemplates() throws TransformerConfigurationException {
+		synchronized(LIUMDiarizationTool.class) {
+			if(epac2SessionTemplates == null) {
+				StreamSource stylesource = new StreamSource(LIUMDiarizationTool.class.getResourceAsStream(XSLT_FILE));
+				epac2SessionTemplates = TransformerFactory.newInstance().newTemplates(stylesource);
+			}
+			return epac2SessionTemplates;
+		}
+	}
+
+	/**
+	 * Convert results using the epac2session stylesheet and phonbank 1.2 session reader.
+	 *
+	 * @param resultFile
+	 * @return session
+	 * @throws IOException
+	 */
+	private Session transformResultsXSLT(File resultFile) throws IOException {
 		try {
 			SessionInputFactory inputFactory = new SessionInputFactory();
-			StreamSource stylesource = new StreamSource(getClass().getResourceAsStream(XSLT_FILE)); 
-            Transformer transformer = TransformerFactory.newInstance().newTransformer(stylesource);
+            Transformer transformer = epac2SessionTemplates().newTransformer();
 
             ByteArrayOutputStream bout = new ByteArrayOutputStream();
             transformer.transform(new StreamSource(resultFile), new StreamResult(bout));
-            
-            Session retVal =
-		            inputFactory.createReader("phonbank", "1.2").readSession(new ByteArrayInputStream(bout.toByteArray()));
-			if(isForceSpeakerMax()) {
-				enforceMaxSpeakers(retVal);
-			}
-			return retVal;
+
+            return inputFactory.createReader("phonbank", "1.2").readSession(new ByteArrayInputStream(bout.toByteArray()));
 		} catch (TransformerFactoryConfigurationError | TransformerException e) {
 			throw new IOException(e);
 		}
 	}
 
-	private void enforceMaxSpeakers(Session s) {
-		if(s.getParticipantCount() <= getMaxSpeakerCount()) return;
-		fireDiarizationEvent("Forcing number of clusters to " + getMaxSpeakerCount());
-
-		for(int i = getMaxSpeakerCount(); i < s.getParticipantCount(); i++) {
-			Participant assignFrom = s.getParticipant(i);
-			Participant assignTo = s.getParticipant(i % getMaxSpeakerCount());
+	/**
+	 * Reduce the number of participants to the max speaker count.  If the session
+	 * has a {@link SpeakerMergeHistory} clusters are merged in the order they would have
+	 * been merged by LIUM speaker clustering.  Otherwise the participants with the most
+	 * speech are kept and records of other participants are assigned to the speaker of
+	 * the previous record.
+	 *
+	 * @param s
+	 */
+	void enforceMaxSpeakers(Session s) {
+		final int maxSpeakers = getMaxSpeakerCount();
+		if(s.getParticipantCount() <= maxSpeakers) return;
+		fireDiarizationEvent("Forcing number of clusters to " + maxSpeakers);
+
+		final Map<String, Participant> participants = new LinkedHashMap<>();
+		for(int i = 0; i < s.getParticipantCount(); i++) {
+			participants.put(s.getParticipant(i).getId(), s.getParticipant(i));
+		}
+		final Map<String, String> mapping = new HashMap<>();
+		final SpeakerMergeHistory mergeHistory = s.getExtension(SpeakerMergeHistory.class);
+		if(mergeHistory != null) {
+			mapping.putAll(mergeHistory.clusterMapping(participants.keySet(), maxSpeakers));
+		}
+		if(mapping.isEmpty() || mapping.values().stream().distinct().count() > maxSpeakers) {
+			mapping.clear();
+			final Map<String, Float> speechTime = new HashMap<>();
 			for(Record r:s.getRecords()) {
-				if(r.getSpeaker() == assignFrom) {
-					r.setSpeaker(assignTo);
-				}
+				final MediaSegment seg = r.getSegment().getGroup(0);
+				speechTime.merge(r.getSpeaker().getId(), seg.getEndValue() - seg.getStartValue(), Float::sum);
+			}
+			participants.keySet().stream()
+					.sorted( (p1, p2) -> Float.compare(speechTime.getOrDefault(p2, 0.0f), speechTime.getOrDefault(p1, 0.0f)) )
+					.limit(maxSpeakers)
+					.forEach( (id) -> mapping.put(id, id) );
+		}
+
+		Participant previous = null;
+		for(Record r:s.getRecords()) {
+			final String assignTo = mapping.get(r.getSpeaker().getId());
+			if(assignTo != null) {
+				r.setSpeaker(participants.get(assignTo));
+			} else if(previous != null) {
+				r.setSpeaker(previous);
+			} else {
+				r.setSpeaker(participants.get(mapping.values().iterator().next()));
 			}
+			previous = r.getSpeaker();
 		}
-		for(int i = s.getParticipantCount() - 1; i >= getMaxSpeakerCount(); i--) {
-			s.removeParticipant(i);
+		for(int i = s.getParticipantCount() - 1; i >= 0; i--) {
+			final String id = s.getParticipant(i).getId();
+			if(!id.equals(mapping.get(id))) {
+				s.removeParticipant(i);
+			}
 		}
 	}
-	
+
+	/**
+	 * Optional seg.xml output of a diarization.
+	 */
+	private final static class ResultOutput {
+
+		private final File file;
+
+		private final boolean temporary;
+
+		private ResultOutput(File file, boolean temporary) {
+			this.file = file;
+			this.temporary = temporary;
+		}
+
+	}
+
 	public static class LIUMDiarizationResult implements DiarizationFutureResult {
 		
 		private Process process;
@@ -283,5 +721,85 @@ public final class LIUMDiarizationTool extends DiarizationTool {
 		}
 
 	}
+
+	public static class LIUMInProcessDiarizationResult implements DiarizationFutureResult {
+
+		private PhonWorker worker;
+
+		private SpkDiarization diarization;
+
+		private FutureTask<Session> futureSession;
+
+		public LIUMInProcessDiarizationResult(PhonWorker worker, SpkDiarization diarization, FutureTask<Session> futureSession) {
+			this.worker = worker;
+			this.diarization = diarization;
+			this.futureSession = futureSession;
+		}
+
+		@Override
+		public Future<Session> getFutureSession() {
+			return futureSession;
+		}
+
+		@Override
+		public void cancel() {
+			diarization.cancel();
+			worker.shutdown();
+			futureSession.cancel(true);
+		}
+
+	}
+
+	public static class LIUMWorkerDiarizationResult implements DiarizationFutureResult {
+
+		private LIUMWorkerProcess.Job job;
+
+		private Future<Session> futureSession;
+
+		public LIUMWorkerDiarizationResult(LIUMWorkerProcess.Job job, Future<Session> futureSession) {
+			this.job = job;
+			this.futureSession = futureSession;
+		}
+
+		@Override
+		public Future<Session> getFutureSession() {
+			return futureSession;
+		}
+
+		@Override
+		public void cancel() {
+			job.cancel();
+		}
+
+	}
+
+	/**
+	 * Forwards log records produced by the diarization run, on the
+	 * diarization thread or its fork/join tasks, as diarization events.
+	 */
+	private class InProcessLogHandler extends Handler {
+
+		private final SpkDiarization diarization;
+
+		public InProcessLogHandler(SpkDiarization diarization) {
+			this.diarization = diarization;
+		}
+
+		@Override
+		public void publish(LogRecord record) {
+			if(SpkDiarization.currentRun() != diarization) return;
+			if(record.getLevel().intValue() < Level.INFO.intValue()) return;
+			fireDiarizationEvent(record.getMessage());
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() throws SecurityException {
+		}
+
+	}
 	
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import fr.lium.spkDiarization.lib.DiarizationException;
+import fr.lium.spkDiarization.libClusteringData.ClusterSet;
+import fr.lium.spkDiarization.libClusteringData.Segment;
+import fr.lium.spkDiarization.libFeature.AudioFeatureSet;
+import fr.lium.spkDiarization.parameter.Parameter;
+
+/**
+ * Memoizes feature sets derived from a base feature set during the diarization of
+ * a single show.  Entries are keyed by show, feature descriptor, speech detector
+ * settings, base feature set and the segments of the cluster set used for
+ * normalization.  The least recently used entries are evicted once the estimated
+ * size of cached features exceeds the memory budget.
+ */
+public final class LIUMFeatureCache {
+
+	/** Default budget, as a fraction of max heap */
+	public final static double DEFAULT_BUDGET_FRACTION = 0.25;
+
+	@FunctionalInterface
+	public interface FeatureLoader {
+		public AudioFeatureSet load() throws IOException, DiarizationException;
+	}
+
+	private final long maxBytes;
+
+	private long currentBytes = 0L;
+
+	private int hits = 0;
+
+	private int misses = 0;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	public LIUMFeatureCache() {
+		this(DEFAULT_BUDGET_FRACTION);
+	}
+
+	/**
+	 * Cache with a budget of the given fraction of max heap
+	 *
+	 * @param budgetFraction
+	 */
+	public LIUMFeatureCache(double budgetFraction) {
+		this((long)(Runtime.getRuntime().maxMemory() * budgetFraction));
+	}
+
+	public LIUMFeatureCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Return the cached feature set for the given parameters or load (and cache)
+	 * the feature set using the provided loader.
+	 *
+	 * @param parameter
+	 * @param descriptor
+	 * @param baseFeatureSet
+	 * @param clusterSet
+	 * @param loader
+	 * @return feature set
+	 * @throws IOException
+	 * @throws DiarizationException
+	 */
+	public synchronized AudioFeatureSet get(Parameter parameter, String descriptor, AudioFeatureSet baseFeatureSet,
+	                                        ClusterSet clusterSet, FeatureLoader loader) throws IOException, DiarizationException {
+		final Key key = new Key(parameter.show, descriptor,
+				parameter.getParameterInputFeature().getSpeechMethodAsString() + ":" + parameter.getParameterInputFeature().getSpeechThreshold(),
+				baseFeatureSet, new Segments(clusterSet));
+		Entry entry = entries.get(key);
+		if(entry != null) {
+			++hits;
+			return entry.featureSet;
+		}
+		++misses;
+
+		final AudioFeatureSet featureSet = loader.load();
+		final long size = (long)baseFeatureSet.getNumberOfFeatures() * featureSet.getFeatureSize() * Float.BYTES;
+		if(size <= maxBytes) {
+			entries.put(key, new Entry(featureSet, size));
+			currentBytes += size;
+			evict();
+		}
+		return featureSet;
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<Key, Entry>> itr = entries.entrySet().iterator();
+		while(currentBytes > maxBytes && itr.hasNext()) {
+			currentBytes -= itr.next().getValue().size;
+			itr.remove();
+		}
+	}
+
+	/**
+	 * Remove feature sets derived from the given base feature set.
+	 *
+	 * @param baseFeatureSet
+	 */
+	public synchronized void remove(AudioFeatureSet baseFeatureSet) {
+		final Iterator<Map.Entry<Key, Entry>> itr = entries.entrySet().iterator();
+		while(itr.hasNext()) {
+			final Map.Entry<Key, Entry> entry = itr.next();
+			if(entry.getKey().baseFeatureSet == baseFeatureSet) {
+				currentBytes -= entry.getValue().size;
+				itr.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached feature sets.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		currentBytes = 0L;
+	}
+
+	public synchronized int getHits() {
+		return this.hits;
+	}
+
+	public synchronized int getMisses() {
+		return this.misses;
+	}
+
+	public synchronized long getCurrentBytes() {
+		return this.currentBytes;
+	}
+
+	/**
+	 * Segment boundaries and cluster names of a cluster set.  Segments are
+	 * compared element by element, the hash is only used to find candidates.
+	 */
+	private final static class Segments {
+
+		/** Start (high 32 bits) and length (low 32 bits) of each segment */
+		private final long[] boundaries;
+
+		/** Show and cluster name of each segment */
+		private final String[] names;
+
+		private final int hash;
+
+		private Segments(ClusterSet clusterSet) {
+			final int count = clusterSet.getSegments().size();
+			boundaries = new long[count];
+			names = new String[count];
+			int i = 0;
+			for(Segment segment:clusterSet.getSegments()) {
+				boundaries[i] = ((long)segment.getStart() << 32) | (segment.getLength() & 0xffffffffL);
+				names[i] = segment.getShowName() + "\t" + segment.getClusterName();
+				++i;
+			}
+			hash = 31 * Arrays.hashCode(boundaries) + Arrays.hashCode(names);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof Segments)) return false;
+			Segments segments = (Segments)o;
+			return hash == segments.hash && Arrays.equals(boundaries, segments.boundaries)
+					&& Arrays.equals(names, segments.names);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	private final static class Entry {
+
+		private final AudioFeatureSet featureSet;
+
+		private final long size;
+
+		private Entry(AudioFeatureSet featureSet, long size) {
+			this.featureSet = featureSet;
+			this.size = size;
+		}
+
+	}
+
+	private final static class Key {
+
+		private final String show;
+
+		private final String descriptor;
+
+		private final String speechDetector;
+
+		/** Base feature set, compared by identity */
+		private final AudioFeatureSet baseFeatureSet;
+
+		private final Segments segments;
+
+		private Key(String show, String descriptor, String speechDetector, AudioFeatureSet baseFeatureSet, Segments segments) {
+			this.show = show;
+			this.descriptor = descriptor;
+			this.speechDetector = speechDetector;
+			this.baseFeatureSet = baseFeatureSet;
+			this.segments = segments;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof Key)) return false;
+			Key key = (Key)o;
+			return baseFeatureSet == key.baseFeatureSet && segments.equals(key.segments)
+					&& Objects.equals(show, key.show) && Objects.equals(descriptor, key.descriptor)
+					&& Objects.equals(speechDetector, key.speechDetector);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(show, descriptor, speechDetector, System.identityHashCode(baseFeatureSet), segments.hashCode());
+		}
+
+	}
+
+}
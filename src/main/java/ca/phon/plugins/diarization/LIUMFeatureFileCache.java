@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.lium.spkDiarization.lib.DiarizationException;
+import fr.lium.spkDiarization.libClusteringData.ClusterSet;
+import fr.lium.spkDiarization.libFeature.AudioFeatureSet;
+import fr.lium.spkDiarization.parameter.Parameter;
+import fr.lium.spkDiarization.parameter.ParameterInputFeature;
+
+/**
+ * Persistent cache of the acoustic features computed by LIUM from audio files.
+ * Raw (static and energy) features are stored in sphinx format, a 32-bit value count
+ * followed by big-endian floats, in a file named after the audio file, a hash of its
+ * path and a hash of its content, the feature descriptor and the frame rate.  Later runs
+ * read the cached file using the sphinx reader, deltas and normalization are still
+ * computed from the descriptor.  Cache files for previous versions of the audio file
+ * (same path) are removed when a new cache file is written.  Content hashes are
+ * memoized for the process by canonical path, size and modification time.
+ */
+public final class LIUMFeatureFileCache {
+
+	private final static Logger LOGGER = Logger.getLogger(LIUMFeatureFileCache.class.getName());
+
+	public final static String EXTENSION = ".mfc";
+
+	private final static int HASH_BUFFER_SIZE = 1024 * 1024;
+
+	/** Number of bytes of the path hash used in cache file names */
+	private final static int PATH_HASH_BYTES = 4;
+
+	/** Content hashes of audio files, keyed by canonical path */
+	private final static Map<String, ContentHash> contentHashes = new ConcurrentHashMap<>();
+
+	private final File folder;
+
+	public LIUMFeatureFileCache(File folder) {
+		this.folder = folder;
+	}
+
+	public File getFolder() {
+		return this.folder;
+	}
+
+	/**
+	 * Load features of the current show, using the cache when the descriptor reads
+	 * features from audio.
+	 *
+	 * @param parameter
+	 * @param clusterSet
+	 * @param descriptor feature descriptor
+	 * @return feature set
+	 * @throws IOException
+	 * @throws DiarizationException
+	 */
+	public AudioFeatureSet loadFeature(Parameter parameter, ClusterSet clusterSet, String descriptor) throws IOException, DiarizationException {
+		final String[] fields = descriptor.split(",");
+		if(fields.length < 3 || !fields[0].startsWith("audio")) {
+			return SpkDiarization.loadFeature(parameter, clusterSet, descriptor);
+		}
+		final ParameterInputFeature inputFeature = parameter.getParameterInputFeature();
+		final File audioFile = new File(inputFeature.getFeatureMask().replace("%s", parameter.show));
+
+		final String[] presence = fields[1].split(":");
+		final String rawDescriptor = fields[0] + "," + presence[0] + ":" + (presence.length > 1 ? presence[1] : "0")
+				+ ":0:0:0:0," + fields[2] + ",0:0:0:0";
+		final String cachedDescriptor = "sphinx" + descriptor.substring(fields[0].length());
+		final File cacheFile = cacheFile(audioFile, rawDescriptor + "@" + parameter.getParameterSegmentationInputFile().getRate());
+
+		if(!cacheFile.exists()) {
+			final AudioFeatureSet rawFeatures = SpkDiarization.loadFeature(parameter, clusterSet, rawDescriptor);
+			rawFeatures.setCurrentShow(parameter.show);
+			write(rawFeatures, cacheFile);
+			prune(audioFile, cacheFile);
+		} else {
+			LOGGER.fine("Using cached features " + cacheFile);
+		}
+
+		final String mask = inputFeature.getFeatureMask();
+		inputFeature.setFeatureMask(cacheFile.getAbsolutePath());
+		try {
+			return SpkDiarization.loadFeature(parameter, clusterSet, cachedDescriptor);
+		} catch (IOException | DiarizationException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Unable to read cached features " + cacheFile, e);
+			Files.deleteIfExists(cacheFile.toPath());
+		} finally {
+			inputFeature.setFeatureMask(mask);
+		}
+		return SpkDiarization.loadFeature(parameter, clusterSet, descriptor);
+	}
+
+	/**
+	 * Cache file for the given audio file and descriptor
+	 *
+	 * @param audioFile
+	 * @param descriptor
+	 * @return cache file
+	 * @throws IOException
+	 */
+	public File cacheFile(File audioFile, String descriptor) throws IOException {
+		final MessageDigest digest = sha256();
+		digest.update(contentHash(audioFile));
+		digest.update(descriptor.getBytes(StandardCharsets.UTF_8));
+
+		final StringBuilder name = new StringBuilder(prefix(audioFile));
+		appendHex(name, digest.digest(), 8);
+		return new File(folder, name.append(EXTENSION).toString());
+	}
+
+	/**
+	 * SHA-256 of the content of the given audio file.  The file is only read when
+	 * it has not been hashed by this process at its current size and modification
+	 * time.
+	 *
+	 * @param audioFile
+	 * @return content hash
+	 * @throws IOException
+	 */
+	static byte[] contentHash(File audioFile) throws IOException {
+		final String path = audioFile.getCanonicalPath();
+		final long size = audioFile.length();
+		final long lastModified = audioFile.lastModified();
+		final ContentHash contentHash = contentHashes.compute(path,
+				(k, v) -> (v != null && v.size == size && v.lastModified == lastModified ? v : new ContentHash(size, lastModified)));
+		synchronized(contentHash) {
+			if(contentHash.hash == null) {
+				final MessageDigest digest = sha256();
+				try(FileChannel channel = FileChannel.open(audioFile.toPath(), StandardOpenOption.READ)) {
+					final ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+					while(channel.read(buffer) > 0) {
+						buffer.flip();
+						digest.update(buffer);
+						buffer.clear();
+					}
+				}
+				contentHash.hash = digest.digest();
+			}
+			return contentHash.hash;
+		}
+	}
+
+	private final static class ContentHash {
+
+		private final long size;
+
+		private final long lastModified;
+
+		private byte[] hash;
+
+		private ContentHash(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+	/**
+	 * File name prefix of cache files for the given audio file, the base name of the
+	 * audio file followed by a hash of its canonical path.  Audio files with the same
+	 * name in different folders (e.g. corpora) have different prefixes.
+	 *
+	 * @param audioFile
+	 * @return prefix
+	 * @throws IOException
+	 */
+	private static String prefix(File audioFile) throws IOException {
+		final MessageDigest digest = sha256();
+		digest.update(audioFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+		final StringBuilder retVal = new StringBuilder(baseName(audioFile)).append('-');
+		appendHex(retVal, digest.digest(), PATH_HASH_BYTES);
+		return retVal.append('-').toString();
+	}
+
+	private static MessageDigest sha256() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void appendHex(StringBuilder builder, byte[] hash, int len) {
+		for(int i = 0; i < len; i++) {
+			builder.append(String.format("%02x", hash[i]));
+		}
+	}
+
+	private void write(AudioFeatureSet featureSet, File cacheFile) throws IOException, DiarizationException {
+		final int numFeatures = featureSet.getNumberOfFeatures();
+		final int featureSize = featureSet.getFeatureSize();
+		final long size = Integer.BYTES + (long)numFeatures * featureSize * Float.BYTES;
+		if(size > Integer.MAX_VALUE) {
+			LOGGER.warning("Features too large to cache (" + size + " bytes)");
+			return;
+		}
+
+		if(!folder.exists()) {
+			folder.mkdirs();
+		}
+		final File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", folder);
+		try {
+			try(FileChannel channel = FileChannel.open(tempFile.toPath(),
+					StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buffer.order(ByteOrder.BIG_ENDIAN);
+				buffer.putInt(numFeatures * featureSize);
+				for(int i = 0; i < numFeatures; i++) {
+					final float[] feature = featureSet.getFeatureUnsafe(i);
+					for(int j = 0; j < featureSize; j++) {
+						buffer.putFloat(feature[j]);
+					}
+				}
+				buffer.force();
+			}
+			Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/**
+	 * Remove cache files of the given audio file other than current
+	 *
+	 * @param audioFile
+	 * @param current
+	 */
+	private void prune(File audioFile, File current) throws IOException {
+		final String prefix = prefix(audioFile);
+		final File[] files = folder.listFiles( (dir, name) -> name.startsWith(prefix) && name.endsWith(EXTENSION)
+				&& name.length() == prefix.length() + 16 + EXTENSION.length() );
+		if(files == null) return;
+		for(File file:files) {
+			if(!file.equals(current) && !file.delete()) {
+				LOGGER.warning("Unable to remove stale feature cache " + file);
+			}
+		}
+	}
+
+	private static String baseName(File audioFile) {
+		final String name = audioFile.getName();
+		final int dotIdx = name.lastIndexOf('.');
+		return (dotIdx > 0 ? name.substring(0, dotIdx) : name);
+	}
+
+}
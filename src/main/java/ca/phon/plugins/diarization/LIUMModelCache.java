@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.lium.spkDiarization.lib.DiarizationException;
+import fr.lium.spkDiarization.lib.MainTools;
+import fr.lium.spkDiarization.libModel.gaussian.GMM;
+import fr.lium.spkDiarization.libModel.gaussian.GMMArrayList;
+import fr.lium.spkDiarization.parameter.ParameterModel;
+
+/**
+ * Process-wide cache of GMM containers bundled with LIUM (e.g., the ester2
+ * models.)  Each container is parsed once; callers receive a copy of the cached
+ * models as LIUM keeps scoring state inside each {@link GMM}.  The cached
+ * instances are never handed out and are not modified after loading.
+ */
+public final class LIUMModelCache {
+
+	/** Folder of the ester2 models in the LIUM jar */
+	public final static String ESTER2 = "ester2";
+
+	public final static String SMS_MODEL = ESTER2 + "/sms.gmms";
+
+	public final static String SILENCE_MODEL = ESTER2 + "/s.gmms";
+
+	public final static String GENDER_MODEL = ESTER2 + "/gender.gmms";
+
+	public final static String UBM_MODEL = ESTER2 + "/ubm.gmm";
+
+	private final static Map<String, GMMArrayList> cache = new ConcurrentHashMap<>();
+
+	private LIUMModelCache() {
+	}
+
+	/**
+	 * Return a copy of the GMM container at the given resource path,
+	 * relative to the LIUM system package.
+	 *
+	 * @param resource
+	 * @param parameterModel used when the container is first loaded
+	 * @return copy of models
+	 * @throws IOException
+	 * @throws DiarizationException
+	 */
+	public static GMMArrayList getModels(String resource, ParameterModel parameterModel) throws IOException, DiarizationException {
+		GMMArrayList models = cache.get(resource);
+		if(models == null) {
+			synchronized(cache) {
+				models = cache.get(resource);
+				if(models == null) {
+					models = loadModels(resource, parameterModel);
+					cache.put(resource, models);
+				}
+			}
+		}
+
+		GMMArrayList retVal = new GMMArrayList(models.size());
+		for(GMM gmm:models) {
+			retVal.add((GMM)gmm.clone());
+		}
+		return retVal;
+	}
+
+	private static GMMArrayList loadModels(String resource, ParameterModel parameterModel) throws IOException, DiarizationException {
+		try (InputStream is = fr.lium.spkDiarization.system.Diarization.class.getResourceAsStream(resource)) {
+			if(is == null) throw new IOException("Model not found " + resource);
+			return MainTools.readGMMContainer(is, parameterModel);
+		}
+	}
+
+	/**
+	 * Remove all cached models.
+	 */
+	public static void clear() {
+		cache.clear();
+	}
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.session.Session;
+import fr.lium.spkDiarization.libClusteringData.Cluster;
+import fr.lium.spkDiarization.libClusteringData.ClusterSet;
+import fr.lium.spkDiarization.libClusteringData.Segment;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Converts LIUM diarization output to {@link Session}s in a single pass.
+ *
+ * Results sent between processes use a compact line format, one speaker or
+ * segment per line with fields separated by a single space:
+ * <pre>
+ * SPEAKER &lt;name&gt; &lt;gender&gt;
+ * SEGMENT &lt;speaker&gt; &lt;startMs&gt; &lt;endMs&gt;
+ * DONE
+ * </pre>
+ * The <code>DONE</code> line is printed by the diarization subprocess once all
+ * results have been written, results without it are incomplete.
+ *
+ * Pipeline stage events are sent as
+ * <pre>
+ * STAGE start|end &lt;stage&gt; &lt;elapsedMs&gt; &lt;percentComplete&gt; &lt;remainingMs&gt; &lt;cpuMs&gt; &lt;allocatedBytes&gt; &lt;featureCount&gt;
+ * </pre>
+ */
+public final class LIUMResultsConverter {
+
+	public final static String SPEAKER = "SPEAKER";
+
+	public final static String SEGMENT = "SEGMENT";
+
+	public final static String DONE = "DONE";
+
+	public final static String STAGE = "STAGE";
+
+	public final static String MERGE = "MERGE";
+
+	public final static String LEAF = "LEAF";
+
+	/** Gender of leaf clusters with unknown gender */
+	private final static String UNKNOWN_GENDER = "U";
+
+	public final static String THRESHOLD = "THRESHOLD";
+
+	private final static String STAGE_START = "start";
+
+	private final static String STAGE_END = "end";
+
+	private final static XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+
+	private LIUMResultsConverter() {
+	}
+
+	/**
+	 * Read LIUM 'seg.xml' (epac) output.  Speakers are read from
+	 * <code>epac/audiofile/speakers/speaker</code> and records are created
+	 * for each <code>epac/audiofile/segments/segment</code>.
+	 *
+	 * @param file
+	 * @return session
+	 * @throws IOException
+	 */
+	public static Session fromEpac(File file) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return fromEpac(in);
+		}
+	}
+
+	/**
+	 * Read LIUM 'seg.xml' (epac) output.
+	 *
+	 * @param in
+	 * @return session
+	 * @throws IOException
+	 * @see #fromEpac(File)
+	 */
+	public static Session fromEpac(InputStream in) throws IOException {
+		final DiarizationSessionBuilder builder = new DiarizationSessionBuilder();
+		XMLStreamReader reader = null;
+		try {
+			reader = inputFactory.createXMLStreamReader(in);
+			final Deque<String> elementStack = new ArrayDeque<>();
+			while(reader.hasNext()) {
+				switch(reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						final String parent = elementStack.peek();
+						final String current = reader.getLocalName();
+						elementStack.push(current);
+						if("speaker".equals(current) && "speakers".equals(parent)) {
+							builder.addSpeaker(requiredAttribute(reader, "name"), reader.getAttributeValue(null, "gender"));
+						} else if("segment".equals(current) && "segments".equals(parent)) {
+							float start = Float.parseFloat(requiredAttribute(reader, "start")) * 1000.0f;
+							float end = Float.parseFloat(requiredAttribute(reader, "end")) * 1000.0f;
+							builder.addSegment(requiredAttribute(reader, "speaker"), start, end);
+						}
+						break;
+
+					case XMLStreamConstants.END_ELEMENT:
+						elementStack.pop();
+						break;
+
+					default:
+						break;
+				}
+			}
+		} catch (XMLStreamException | NumberFormatException e) {
+			throw new IOException(e);
+		} finally {
+			if(reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// ignore
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	private static String requiredAttribute(XMLStreamReader reader, String name) throws IOException {
+		final String retVal = reader.getAttributeValue(null, name);
+		if(retVal == null)
+			throw new IOException("Missing " + name + " attribute in " + reader.getLocalName() + " element at line "
+					+ reader.getLocation().getLineNumber());
+		return retVal;
+	}
+
+	/**
+	 * Create session from the final cluster set of a LIUM diarization.
+	 *
+	 * @param clusterSet
+	 * @param frameRate feature frames per second
+	 * @return session
+	 */
+	public static Session fromClusterSet(ClusterSet clusterSet, int frameRate) {
+		return fromClusterSet(clusterSet, null, frameRate);
+	}
+
+	/**
+	 * Create session from the final cluster set of a LIUM diarization.
+	 *
+	 * @param clusterSet
+	 * @param mergeHistory speaker clustering merge history, may be <code>null</code>
+	 * @param frameRate feature frames per second
+	 * @return session, the merge history is available as a session extension
+	 */
+	public static Session fromClusterSet(ClusterSet clusterSet, SpeakerMergeHistory mergeHistory, int frameRate) {
+		final DiarizationSessionBuilder builder = new DiarizationSessionBuilder();
+		builder.setMergeHistory(mergeHistory);
+		for(Cluster cluster:clusterSet.getClusterMap().values()) {
+			builder.addSpeaker(cluster.getName(), cluster.getGender());
+		}
+		for(Segment segment:clusterSet.getSegments()) {
+			builder.addSegment(segment.getClusterName(), toMs(segment.getStart(), frameRate),
+					toMs(segment.getStart() + segment.getLength(), frameRate));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Write the final cluster set of a LIUM diarization using the line format.
+	 *
+	 * @param clusterSet
+	 * @param frameRate feature frames per second
+	 * @param out receives one line at a time
+	 */
+	public static void writeLines(ClusterSet clusterSet, int frameRate, Consumer<String> out) {
+		writeLines(clusterSet, null, frameRate, out);
+	}
+
+	/**
+	 * Write the final cluster set and merge history of a LIUM diarization using the line format.
+	 *
+	 * @param clusterSet
+	 * @param mergeHistory speaker clustering merge history, may be <code>null</code>
+	 * @param frameRate feature frames per second
+	 * @param out receives one line at a time
+	 */
+	public static void writeLines(ClusterSet clusterSet, SpeakerMergeHistory mergeHistory, int frameRate, Consumer<String> out) {
+		if(mergeHistory != null) {
+			writeMergeLines(mergeHistory, out);
+		}
+		for(Cluster cluster:clusterSet.getClusterMap().values()) {
+			out.accept(SPEAKER + " " + cluster.getName() + " " + cluster.getGender());
+		}
+		for(Segment segment:clusterSet.getSegments()) {
+			out.accept(SEGMENT + " " + segment.getClusterName()
+					+ " " + toMs(segment.getStart(), frameRate)
+					+ " " + toMs(segment.getStart() + segment.getLength(), frameRate));
+		}
+	}
+
+	/**
+	 * Add the speaker, segment or merge described by the given line to the builder.
+	 *
+	 * @param line
+	 * @param builder
+	 * @return <code>true</code> if the line was a result line, <code>false</code> otherwise
+	 * @throws IOException if the line is a malformed result line
+	 */
+	public static boolean readLine(String line, DiarizationSessionBuilder builder) throws IOException {
+		final String[] fields = line.split(" ");
+		try {
+			if(SPEAKER.equals(fields[0]) && fields.length == 3) {
+				builder.addSpeaker(fields[1], fields[2]);
+				return true;
+			} else if(SEGMENT.equals(fields[0]) && fields.length == 4) {
+				builder.addSegment(fields[1], Float.parseFloat(fields[2]), Float.parseFloat(fields[3]));
+				return true;
+			} else if(MERGE.equals(fields[0]) || LEAF.equals(fields[0]) || THRESHOLD.equals(fields[0])) {
+				return readMergeLine(line, builder.getMergeHistory());
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid result line: " + line, e);
+		}
+		return false;
+	}
+
+	/**
+	 * Write merge history using the line format.  Leaf segments and merges are
+	 * written in order, the resulting lines form a complete merge tree.
+	 *
+	 * @param mergeHistory
+	 * @param out receives one line at a time
+	 */
+	public static void writeMergeLines(SpeakerMergeHistory mergeHistory, Consumer<String> out) {
+		if(!Double.isNaN(mergeHistory.getThreshold())) {
+			out.accept(THRESHOLD + " " + mergeHistory.getThreshold());
+		}
+		for(SpeakerMergeHistory.Leaf leaf:mergeHistory.getLeaves()) {
+			final String gender = mergeHistory.getLeafGender(leaf.getCluster());
+			out.accept(LEAF + " " + leaf.getCluster() + " " + (gender != null ? gender : UNKNOWN_GENDER)
+					+ " " + leaf.getStartMs() + " " + leaf.getEndMs());
+		}
+		for(SpeakerMergeHistory.Merge merge:mergeHistory.getMerges()) {
+			out.accept(MERGE + " " + merge.getMerged() + " " + merge.getInto() + " " + merge.getScore());
+		}
+	}
+
+	/**
+	 * Add the merge, leaf segment or threshold described by the given line to the merge history.
+	 *
+	 * @param line
+	 * @param mergeHistory
+	 * @return <code>true</code> if the line was a merge history line, <code>false</code> otherwise
+	 * @throws IOException if the line is a malformed merge history line
+	 */
+	public static boolean readMergeLine(String line, SpeakerMergeHistory mergeHistory) throws IOException {
+		final String[] fields = line.split(" ");
+		try {
+			if(MERGE.equals(fields[0]) && fields.length == 4) {
+				mergeHistory.addMerge(fields[1], fields[2], Double.parseDouble(fields[3]));
+				return true;
+			} else if(LEAF.equals(fields[0]) && fields.length == 5) {
+				mergeHistory.addLeaf(fields[1], UNKNOWN_GENDER.equals(fields[2]) ? null : fields[2],
+						Float.parseFloat(fields[3]), Float.parseFloat(fields[4]));
+				return true;
+			} else if(THRESHOLD.equals(fields[0]) && fields.length == 2) {
+				mergeHistory.setThreshold(Double.parseDouble(fields[1]));
+				return true;
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid merge history line: " + line, e);
+		}
+		return false;
+	}
+
+	/**
+	 * Encode stage event using the line format.
+	 *
+	 * @param evt
+	 * @return line
+	 */
+	public static String stageLine(DiarizationEvent evt) {
+		return STAGE + " "
+				+ (evt.getType() == DiarizationEvent.DiarizationEventType.DiarizationStageStarted ? STAGE_START : STAGE_END)
+				+ " " + evt.getStage() + " " + evt.getElapsedTime() + " " + evt.getPercentComplete() + " " + evt.getRemainingTime()
+				+ " " + evt.getCpuTime() + " " + evt.getAllocatedBytes() + " " + evt.getFeatureCount();
+	}
+
+	/**
+	 * Decode stage event.
+	 *
+	 * @param line
+	 * @return stage event or <code>null</code> if line is not a valid stage line
+	 */
+	public static DiarizationEvent readStageLine(String line) {
+		final String[] fields = line.split(" ");
+		if(!STAGE.equals(fields[0]) || fields.length != 9) return null;
+		try {
+			final DiarizationEvent.DiarizationEventType type = (STAGE_START.equals(fields[1])
+					? DiarizationEvent.DiarizationEventType.DiarizationStageStarted : DiarizationEvent.DiarizationEventType.DiarizationStageCompleted);
+			final DiarizationEvent retVal =
+					new DiarizationEvent(type, fields[2], Long.parseLong(fields[3]), Float.parseFloat(fields[4]), Long.parseLong(fields[5]));
+			retVal.setCpuTime(Long.parseLong(fields[6]));
+			retVal.setAllocatedBytes(Long.parseLong(fields[7]));
+			retVal.setFeatureCount(Integer.parseInt(fields[8]));
+			return retVal;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static float toMs(int frame, int frameRate) {
+		return frame * 1000.0f / frameRate;
+	}
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.phon.app.log.LogUtil;
+import ca.phon.session.Session;
+
+/**
+ * Client for a warm {@link LIUMDiarizationServer} process.  The worker
+ * is started on first use and restarted if it has exited or stops responding
+ * to health checks.  Jobs are queued by the worker and executed in order.
+ *
+ * Worker output is read on a dedicated thread which only parses lines; job
+ * listeners are called and job futures completed on a separate callback
+ * thread so health check replies are never delayed by job handling.
+ */
+public final class LIUMWorkerProcess {
+
+	private final static String SERVER_CLASS = "ca.phon.plugins.diarization.LIUMDiarizationServer";
+
+	/**
+	 * Time to wait for a response to a health check.  Pings are answered by the
+	 * worker's command thread while jobs run, the timeout only needs to outlast
+	 * stalls of the whole worker (e.g., a long GC pause during a full-show job.)
+	 */
+	private final static long PING_TIMEOUT_MS = 60000L;
+
+	private static LIUMWorkerProcess instance;
+
+	public synchronized static LIUMWorkerProcess getInstance() {
+		if(instance == null) {
+			instance = new LIUMWorkerProcess();
+			Runtime.getRuntime().addShutdownHook(new Thread(instance::shutdown));
+		}
+		return instance;
+	}
+
+	private final AtomicLong jobCounter = new AtomicLong(0L);
+
+	private final AtomicLong pingCounter = new AtomicLong(0L);
+
+	private final Map<String, Job> pendingJobs = new ConcurrentHashMap<>();
+
+	private final Map<String, CompletableFuture<Void>> pendingPings = new ConcurrentHashMap<>();
+
+	/** Calls job listeners and completes job futures in the order output was read */
+	private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor( (r) -> {
+		final Thread thread = new Thread(r, "LIUM worker callbacks");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Held while checking and restarting the worker so only one caller restarts it */
+	private final Object restartLock = new Object();
+
+	private Process process;
+
+	private Writer processInput;
+
+	private LIUMWorkerProcess() {
+	}
+
+	/**
+	 * Is the worker process running?
+	 *
+	 * @return true if worker process is alive
+	 */
+	public synchronized boolean isRunning() {
+		return process != null && process.isAlive();
+	}
+
+	/**
+	 * Send a health check to the worker and wait for a reply.
+	 *
+	 * @return true if the worker responded within the timeout
+	 */
+	public boolean ping() {
+		final String pingId = Long.toString(pingCounter.incrementAndGet());
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		pendingPings.put(pingId, future);
+		try {
+			send(LIUMDiarizationServer.PING, pingId);
+			future.get(PING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+			return false;
+		} finally {
+			pendingPings.remove(pingId);
+		}
+	}
+
+	/**
+	 * Submit a diarization job to the worker, starting or restarting the
+	 * worker process if necessary.
+	 *
+	 * @param args LIUM arguments
+	 * @param listener receives log messages and stage events produced by the job
+	 * @return job
+	 * @throws IOException if the worker could not be started
+	 */
+	public Job submit(List<String> args, DiarizationListener listener) throws IOException {
+		ensureRunning();
+
+		synchronized(this) {
+			final Job job = new Job(Long.toString(jobCounter.incrementAndGet()), listener, process);
+			pendingJobs.put(job.getId(), job);
+			try {
+				send(LIUMDiarizationServer.JOB, job.getId(), LIUMDiarizationServer.encodeArgs(args));
+			} catch (IOException e) {
+				pendingJobs.remove(job.getId());
+				throw e;
+			}
+			return job;
+		}
+	}
+
+	private void ensureRunning() throws IOException {
+		synchronized(restartLock) {
+			final Process p;
+			synchronized(this) {
+				if(process != null && !process.isAlive()) {
+					LogUtil.warning("LIUM worker exited with value " + process.exitValue() + ", restarting");
+					process = null;
+				}
+				if(process == null) {
+					start();
+					return;
+				}
+				p = process;
+			}
+			if(!ping()) {
+				synchronized(this) {
+					// only restart the worker which failed the health check
+					if(process == p) {
+						LogUtil.warning("LIUM worker not responding, restarting");
+						p.destroyForcibly();
+						process = null;
+						processInput = null;
+						failPendingJobs(p, "LIUM worker not responding");
+					}
+					if(process == null) {
+						start();
+					}
+				}
+			}
+		}
+	}
+
+	private synchronized void start() throws IOException {
+		ProcessBuilder pb = new ProcessBuilder(LIUMDiarizationTool.javaCommand(SERVER_CLASS));
+		final Process p = pb.start();
+		process = p;
+		processInput = new BufferedWriter(new OutputStreamWriter(p.getOutputStream(), StandardCharsets.UTF_8));
+
+		final Thread outputReader = new Thread(() -> readOutput(p), "LIUM worker output");
+		outputReader.setDaemon(true);
+		outputReader.start();
+
+		final Thread errorReader = new Thread(() -> readError(p), "LIUM worker error");
+		errorReader.setDaemon(true);
+		errorReader.start();
+	}
+
+	private synchronized void send(String... fields) throws IOException {
+		if(processInput == null) throw new IOException("LIUM worker not running");
+		processInput.write(String.join(" ", fields));
+		processInput.write("\n");
+		processInput.flush();
+	}
+
+	private void readOutput(Process p) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+			String line = null;
+			while((line = reader.readLine()) != null) {
+				final String[] resp = line.split(" ", 3);
+				switch(resp[0]) {
+					case LIUMDiarizationServer.PONG:
+						if(resp.length >= 2) {
+							CompletableFuture<Void> pongFuture = pendingPings.remove(resp[1]);
+							if(pongFuture != null) pongFuture.complete(null);
+						}
+						break;
+
+					case LIUMDiarizationServer.LOG:
+						if(resp.length == 3) {
+							Job job = pendingJobs.get(resp[1]);
+							if(job != null) job.fireEvent(new DiarizationEvent(resp[2]));
+						}
+						break;
+
+					case LIUMDiarizationServer.EVENT:
+						if(resp.length == 3) {
+							Job job = pendingJobs.get(resp[1]);
+							DiarizationEvent evt = LIUMResultsConverter.readStageLine(resp[2]);
+							if(job != null && evt != null) job.fireEvent(evt);
+						}
+						break;
+
+					case LIUMDiarizationServer.RESULT:
+						if(resp.length == 3) {
+							Job job = pendingJobs.get(resp[1]);
+							if(job != null) job.readResult(resp[2]);
+						}
+						break;
+
+					case LIUMDiarizationServer.DONE:
+						if(resp.length >= 2) {
+							Job job = pendingJobs.remove(resp[1]);
+							if(job != null) job.complete();
+						}
+						break;
+
+					case LIUMDiarizationServer.ERROR:
+						if(resp.length >= 2) {
+							Job job = pendingJobs.remove(resp[1]);
+							if(job != null)
+								job.fail(new IOException(resp.length == 3 ? resp[2] : "Diarization failed"));
+						}
+						break;
+
+					default:
+						break;
+				}
+			}
+		} catch (IOException e) {
+			LogUtil.warning(e);
+		}
+		synchronized(this) {
+			if(process == p) {
+				process = null;
+				processInput = null;
+			}
+		}
+		// jobs submitted to a restarted worker are not affected
+		failPendingJobs(p, "LIUM worker exited");
+	}
+
+	private void readError(Process p) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
+			String line = null;
+			while((line = reader.readLine()) != null) {
+				LogUtil.info(line);
+			}
+		} catch (IOException e) {
+			LogUtil.warning(e);
+		}
+	}
+
+	/**
+	 * Fail jobs submitted to the given worker process
+	 *
+	 * @param p
+	 * @param message
+	 */
+	private void failPendingJobs(Process p, String message) {
+		for(Job job:pendingJobs.values()) {
+			if(job.process == p && pendingJobs.remove(job.getId(), job))
+				job.fail(new IOException(message));
+		}
+	}
+
+	/**
+	 * Stop the worker process, failing any queued jobs.
+	 */
+	public synchronized void shutdown() {
+		if(process != null) {
+			try {
+				send(LIUMDiarizationServer.QUIT);
+			} catch (IOException e) {
+				// worker already gone
+			}
+			process.destroy();
+			process = null;
+			processInput = null;
+		}
+	}
+
+	/**
+	 * Handle for a job submitted to the worker.
+	 */
+	public final class Job {
+
+		private final String id;
+
+		private final DiarizationListener listener;
+
+		private final CompletableFuture<Session> future = new CompletableFuture<>();
+
+		private final DiarizationSessionBuilder resultBuilder = new DiarizationSessionBuilder();
+
+		/** Worker process the job was submitted to */
+		private final Process process;
+
+		private Job(String id, DiarizationListener listener, Process process) {
+			this.id = id;
+			this.listener = listener;
+			this.process = process;
+		}
+
+		public String getId() {
+			return this.id;
+		}
+
+		/**
+		 * Future completed with the diarization results when the worker
+		 * reports the job is done.
+		 *
+		 * @return future
+		 */
+		public CompletableFuture<Session> getFuture() {
+			return this.future;
+		}
+
+		private void readResult(String line) {
+			try {
+				LIUMResultsConverter.readLine(line, resultBuilder);
+			} catch (IOException e) {
+				pendingJobs.remove(id);
+				fail(e);
+			}
+		}
+
+		private void fireEvent(DiarizationEvent evt) {
+			callbackExecutor.execute(() -> listener.diarizationEvent(evt));
+		}
+
+		private void complete() {
+			callbackExecutor.execute(() -> future.complete(resultBuilder.build()));
+		}
+
+		private void fail(Throwable t) {
+			callbackExecutor.execute(() -> future.completeExceptionally(t));
+		}
+
+		public void cancel() {
+			try {
+				send(LIUMDiarizationServer.CANCEL, id);
+			} catch (IOException e) {
+				LogUtil.warning(e);
+			}
+			future.cancel(true);
+		}
+
+	}
+
+}
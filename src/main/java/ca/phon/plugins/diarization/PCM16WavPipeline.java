@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.audio.Sampled;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the first channel of a {@link Sampled} as a 16-bit PCM wav stream, optionally
+ * resampled using a {@link BlockResampler}.  Blocks are resampled and converted on a
+ * separate thread and handed to the reader through a bounded queue, so conversion and
+ * consumption (e.g., upload) overlap and at most <code>queueSize</code> blocks are held
+ * in memory.
+ */
+public final class PCM16WavPipeline implements AutoCloseable {
+
+	private final static int WAV_HEADER_SIZE = 44;
+
+	/** End of stream marker */
+	private final static ByteBuffer EOF = ByteBuffer.allocate(0);
+
+	private final Sampled sampled;
+
+	/** Resampler, <code>null</code> if samples are encoded at the source rate */
+	private final BlockResampler resampler;
+
+	private final int sampleRate;
+
+	private final int numSamples;
+
+	private final int blockSamples;
+
+	private final BlockingQueue<ByteBuffer> queue;
+
+	private Thread converterThread;
+
+	private volatile boolean closed = false;
+
+	private volatile Exception conversionError;
+
+	/** Partially consumed block */
+	private ByteBuffer current;
+
+	private boolean eof = false;
+
+	/**
+	 * @param sampled mono samples
+	 * @param blockSamples number of samples converted per block
+	 * @param queueSize max number of converted blocks waiting to be read
+	 */
+	public PCM16WavPipeline(Sampled sampled, int blockSamples, int queueSize) {
+		this(sampled, sampled.getSampleRate(), blockSamples, queueSize);
+	}
+
+	/**
+	 * @param sampled source samples, the first channel is encoded
+	 * @param sampleRate sample rate of the wav stream
+	 * @param blockSamples number of samples converted per block
+	 * @param queueSize max number of converted blocks waiting to be read
+	 */
+	public PCM16WavPipeline(Sampled sampled, float sampleRate, int blockSamples, int queueSize) {
+		this.sampled = sampled;
+		this.resampler = (sampleRate != sampled.getSampleRate()
+				? new BlockResampler(sampled.getNumberOfSamples(), sampled.getSampleRate(), sampleRate, (i) -> sampled.valueForSample(0, i))
+				: null);
+		this.sampleRate = (int)sampleRate;
+		this.numSamples = (resampler != null ? resampler.getNumberOfSamples() : sampled.getNumberOfSamples());
+		this.blockSamples = blockSamples;
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+	}
+
+	/**
+	 * Size of the wav stream in bytes
+	 *
+	 * @return number of bytes
+	 */
+	public long getTotalBytes() {
+		return WAV_HEADER_SIZE + 2L * numSamples;
+	}
+
+	/**
+	 * Start conversion thread
+	 */
+	public void start() {
+		converterThread = new Thread(this::convert, "Diarization audio conversion");
+		converterThread.setDaemon(true);
+		converterThread.start();
+	}
+
+	private void convert() {
+		try {
+			put(wavHeader(numSamples, sampleRate));
+			for(int start = 0; start < numSamples && !closed; start += blockSamples) {
+				final int length = Math.min(blockSamples, numSamples - start);
+				put(resampler != null ? encode(resampler.resample(start, length)) : encode(sampled, start, length));
+			}
+		} catch (InterruptedException e) {
+			conversionError = e;
+		} catch (RuntimeException e) {
+			conversionError = e;
+		} finally {
+			try {
+				put(EOF);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void put(ByteBuffer block) throws InterruptedException {
+		while(!closed && !queue.offer(block, 100, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Fill buffer with the next bytes of the wav stream, blocks until the
+	 * buffer is full or the end of the stream is reached.
+	 *
+	 * @param buffer
+	 * @return number of bytes read, -1 at end of stream
+	 * @throws IOException if conversion failed
+	 */
+	public int fill(ByteBuffer buffer) throws IOException {
+		int retVal = 0;
+		while(buffer.hasRemaining() && !eof) {
+			if(current == null || !current.hasRemaining()) {
+				try {
+					current = queue.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				if(current == EOF) {
+					eof = true;
+					if(conversionError != null) throw new IOException(conversionError);
+					break;
+				}
+			}
+			final int len = Math.min(buffer.remaining(), current.remaining());
+			final ByteBuffer slice = current.duplicate();
+			slice.limit(slice.position() + len);
+			buffer.put(slice);
+			current.position(current.position() + len);
+			retVal += len;
+		}
+		return (retVal == 0 && eof ? -1 : retVal);
+	}
+
+	/**
+	 * Stop conversion
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		queue.clear();
+		if(converterThread != null) {
+			converterThread.interrupt();
+		}
+	}
+
+	/**
+	 * Encode the whole stream on the calling thread, used for short audio.
+	 *
+	 * @param sampled
+	 * @return wav data
+	 */
+	public static byte[] toByteArray(Sampled sampled) {
+		return toByteArray(sampled, 0, sampled.getNumberOfSamples());
+	}
+
+	/**
+	 * Encode a range of samples as a wav stream on the calling thread.
+	 *
+	 * @param sampled
+	 * @param start first sample
+	 * @param length number of samples
+	 * @return wav data
+	 */
+	public static byte[] toByteArray(Sampled sampled, int start, int length) {
+		final ByteBuffer retVal = ByteBuffer.allocate(WAV_HEADER_SIZE + 2 * length);
+		retVal.put(wavHeader(length, (int)sampled.getSampleRate()));
+		retVal.put(encode(sampled, start, length));
+		return retVal.array();
+	}
+
+	private static ByteBuffer encode(Sampled sampled, int start, int length) {
+		final ByteBuffer retVal = ByteBuffer.allocate(2 * length).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = start; i < start + length; i++) {
+			final double v = Math.max(-1.0, Math.min(1.0, sampled.valueForSample(0, i)));
+			retVal.putShort((short)Math.round(v * Short.MAX_VALUE));
+		}
+		retVal.flip();
+		return retVal;
+	}
+
+	private static ByteBuffer encode(double[] samples) {
+		final ByteBuffer retVal = ByteBuffer.allocate(2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+		for(double sample:samples) {
+			final double v = Math.max(-1.0, Math.min(1.0, sample));
+			retVal.putShort((short)Math.round(v * Short.MAX_VALUE));
+		}
+		retVal.flip();
+		return retVal;
+	}
+
+	private static ByteBuffer wavHeader(int numSamples, int sampleRate) {
+		final int dataLength = 2 * numSamples;
+		final ByteBuffer retVal = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		retVal.putInt(0x46464952); // RIFF
+		retVal.putInt(36 + dataLength);
+		retVal.putInt(0x45564157); // WAVE
+		retVal.putInt(0x20746d66); // fmt
+		retVal.putInt(16);
+		retVal.putShort((short)1); // PCM
+		retVal.putShort((short)1); // mono
+		retVal.putInt(sampleRate);
+		retVal.putInt(sampleRate * 2);
+		retVal.putShort((short)2);
+		retVal.putShort((short)16);
+		retVal.putInt(0x61746164); // data
+		retVal.putInt(dataLength);
+		retVal.flip();
+		return retVal;
+	}
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import ca.phon.session.Session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sequence of cluster merges performed by LIUM speaker clustering, in merge order.
+ * When merging continues past the clustering threshold, merges not applied to the
+ * final cluster set are kept so that the number of speakers can be reduced later
+ * without re-running the diarization.
+ *
+ * When the segments of the clusters present before the first merge (leaves) are
+ * recorded, the history forms a complete merge tree and results can be materialized
+ * for any threshold or number of speakers.
+ */
+public final class SpeakerMergeHistory {
+
+	private final List<Merge> merges = new ArrayList<>();
+
+	private final List<Leaf> leaves = new ArrayList<>();
+
+	private final Map<String, String> leafGenders = new LinkedHashMap<>();
+
+	private double threshold = Double.NaN;
+
+	/**
+	 * Record a merge
+	 *
+	 * @param merged name of cluster merged into other cluster
+	 * @param into name of cluster which remains after the merge
+	 * @param score clustering score of the merge
+	 */
+	public void addMerge(String merged, String into, double score) {
+		merges.add(new Merge(merged, into, score));
+	}
+
+	public int getMergeCount() {
+		return merges.size();
+	}
+
+	public List<Merge> getMerges() {
+		return merges;
+	}
+
+	/**
+	 * Record segment of a cluster present before the first merge
+	 *
+	 * @param cluster
+	 * @param gender 'M', 'F' or <code>null</code> if unknown
+	 * @param startMs
+	 * @param endMs
+	 */
+	public void addLeaf(String cluster, String gender, float startMs, float endMs) {
+		leaves.add(new Leaf(cluster, startMs, endMs));
+		if(!leafGenders.containsKey(cluster) || gender != null) {
+			leafGenders.put(cluster, gender);
+		}
+	}
+
+	public List<Leaf> getLeaves() {
+		return leaves;
+	}
+
+	/**
+	 * Does this history include leaf segments, i.e., can results be materialized
+	 *
+	 * @return true if leaf segments are available
+	 */
+	public boolean hasLeaves() {
+		return leaves.size() > 0;
+	}
+
+	/**
+	 * Gender of leaf cluster
+	 *
+	 * @param cluster
+	 * @return gender or <code>null</code> if unknown
+	 */
+	public String getLeafGender(String cluster) {
+		return leafGenders.get(cluster);
+	}
+
+	/**
+	 * Number of clusters before the first merge
+	 *
+	 * @return leaf cluster count
+	 */
+	public int getLeafClusterCount() {
+		return leafGenders.size();
+	}
+
+	/**
+	 * Clustering threshold of the final cluster set
+	 *
+	 * @return threshold or NaN if unknown
+	 */
+	public double getThreshold() {
+		return this.threshold;
+	}
+
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Create session with leaf segments assigned to the clusters remaining
+	 * after merging until the next merge score reaches the given threshold.
+	 *
+	 * @param threshold
+	 * @return session with this history as an extension
+	 */
+	public Session materialize(double threshold) {
+		return materialize(replay(leafGenders.keySet(), 1, threshold));
+	}
+
+	/**
+	 * Create session with leaf segments assigned to the clusters remaining
+	 * after merging down to the given number of speakers.
+	 *
+	 * @param speakerCount
+	 * @return session with this history as an extension
+	 */
+	public Session materialize(int speakerCount) {
+		return materialize(clusterMapping(leafGenders.keySet(), speakerCount));
+	}
+
+	/**
+	 * Score of the merge which reduces the leaf clusters to the given number of speakers.
+	 *
+	 * @param speakerCount
+	 * @return merge score or NaN if no merge is required
+	 */
+	public double mergeScore(int speakerCount) {
+		final int mergeIdx = getLeafClusterCount() - speakerCount - 1;
+		return (mergeIdx >= 0 && mergeIdx < merges.size() ? merges.get(mergeIdx).score : Double.NaN);
+	}
+
+	private Session materialize(Map<String, String> mapping) {
+		final DiarizationSessionBuilder builder = new DiarizationSessionBuilder();
+		builder.setMergeHistory(this);
+		for(String cluster:new LinkedHashSet<>(mapping.values())) {
+			builder.addSpeaker(cluster, getLeafGender(cluster));
+		}
+		for(Leaf leaf:leaves) {
+			builder.addSegment(mapping.get(leaf.cluster), leaf.startMs, leaf.endMs);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Replay merges on the given clusters until at most <code>maxClusters</code>
+	 * remain.  Merges involving clusters that are not part of the given collection
+	 * (i.e., merges already applied) are skipped.
+	 *
+	 * @param clusters current cluster names
+	 * @param maxClusters
+	 * @return map of each cluster name to the name of the cluster it belongs to after replay
+	 */
+	public Map<String, String> clusterMapping(Collection<String> clusters, int maxClusters) {
+		return replay(clusters, maxClusters, Double.POSITIVE_INFINITY);
+	}
+
+	private Map<String, String> replay(Collection<String> clusters, int maxClusters, double threshold) {
+		final Map<String, String> parent = new HashMap<>();
+		for(String cluster:clusters) {
+			parent.put(cluster, cluster);
+		}
+		int clusterCount = parent.size();
+		for(int i = 0; i < merges.size() && clusterCount > maxClusters; i++) {
+			final Merge merge = merges.get(i);
+			if(merge.score >= threshold) break;
+			if(!parent.containsKey(merge.merged) || !parent.containsKey(merge.into)) continue;
+			final String from = find(parent, merge.merged);
+			final String to = find(parent, merge.into);
+			if(!from.equals(to)) {
+				parent.put(from, to);
+				--clusterCount;
+			}
+		}
+
+		final Map<String, String> retVal = new LinkedHashMap<>();
+		for(String cluster:clusters) {
+			retVal.put(cluster, find(parent, cluster));
+		}
+		return retVal;
+	}
+
+	private static String find(Map<String, String> parent, String cluster) {
+		String root = cluster;
+		while(!root.equals(parent.get(root))) {
+			root = parent.get(root);
+		}
+		// path compression
+		String current = cluster;
+		while(!current.equals(root)) {
+			final String next = parent.get(current);
+			parent.put(current, root);
+			current = next;
+		}
+		return root;
+	}
+
+	public final static class Leaf {
+
+		private final String cluster;
+
+		private final float startMs;
+
+		private final float endMs;
+
+		private Leaf(String cluster, float startMs, float endMs) {
+			this.cluster = cluster;
+			this.startMs = startMs;
+			this.endMs = endMs;
+		}
+
+		public String getCluster() {
+			return this.cluster;
+		}
+
+		public float getStartMs() {
+			return this.startMs;
+		}
+
+		public float getEndMs() {
+			return this.endMs;
+		}
+
+	}
+
+	public final static class Merge {
+
+		private final String merged;
+
+		private final String into;
+
+		private final double score;
+
+		private Merge(String merged, String into, double score) {
+			this.merged = merged;
+			this.into = into;
+			this.score = score;
+		}
+
+		public String getMerged() {
+			return this.merged;
+		}
+
+		public String getInto() {
+			return this.into;
+		}
+
+		public double getScore() {
+			return this.score;
+		}
+
+	}
+
+}
@@ -20,11 +20,36 @@ package ca.phon.plugins.diarization;
  *
  */
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,7 +87,7 @@ import fr.lium.spkDiarization.tools.SSplitSeg;
 /**
  * The Class Diarization.
  */
-public class SpkDiarization extends Thread {
+public class SpkDiarization {
 
 	/** The Constant logger. */
 	private final static Logger logger = Logger.getLogger(SpkDiarization.class.getName());
@@ -82,17 +107,521 @@ public class SpkDiarization extends Thread {
 	/** The mult. */
 	double mult = 100;
 
-	/** The diarization list. */
-	static ArrayList<SpkDiarization> diarizationList;
+	/** Diarizations of individual shows started by this run. */
+	private final List<SpkDiarization> showDiarizations = new CopyOnWriteArrayList<SpkDiarization>();
 
-	/** The nb treated job. */
-	static int nbTreatedJob = 0;
+	/** Option enabling parallel evaluation of the l/h/d threshold grid. */
+	public final static String PARALLEL_SWEEP = "--parallelSweep";
 
-	/** The list of cluster set. */
-	static ArrayList<ClusterSet> listOfClusterSet;
+	/** Evaluate threshold grid points in parallel. */
+	private boolean parallelSweep = false;
 
-	/** The arguments. */
-	static String[] arguments;
+	/** Option disabling output of the final cluster set to the output mask. */
+	public final static String NO_OUTPUT_FILE = "--noOutputFile";
+
+	/** Option printing the final cluster set of a single show to stdout, see {@link LIUMResultsConverter#writeLines}. */
+	public final static String PRINT_RESULTS = "--printResults";
+
+	/** Option enabling chunked diarization, followed by the chunk length in seconds. */
+	public final static String CHUNK_LENGTH = "--chunkLength";
+
+	/** Option enabling the persistent feature cache, followed by the cache folder. */
+	public final static String FEATURE_CACHE = "--featureCache";
+
+	/** Option recording the speaker clustering merge history, see {@link SpeakerMergeHistory}. */
+	public final static String MERGE_HISTORY = "--mergeHistory";
+
+	/** Option stopping the recorded merges at a number of clusters, followed by the cluster count. */
+	public final static String MERGE_HISTORY_LIMIT = "--mergeHistoryLimit";
+
+	/** Option setting the derived feature cache budget, followed by a fraction of max heap. */
+	public final static String FEATURE_CACHE_BUDGET = "--featureCacheBudget";
+
+	/** Half width in features of the energy window compared when choosing chunk boundaries. */
+	private final static int BOUNDARY_ENERGY_WINDOW = 25;
+
+	/** Feature type computing features from audio, required for chunked diarization. */
+	private final static String AUDIO_FEATURE_TYPE = "audio2sphinx";
+
+	/** Length in seconds of the silence appended to chunk audio so features cover the last window. */
+	private final static double CHUNK_AUDIO_PADDING = 0.05;
+
+	/** Max length in seconds of the speech of each chunk speaker used to link speakers across chunks. */
+	private final static double LINK_SPEECH_LENGTH = 30.0;
+
+	/** Chunk length in seconds, chunked diarization is disabled when &lt;= 0. */
+	private double chunkLength = 0.0;
+
+	/** Persistent cache of features computed from audio, may be <code>null</code>. */
+	private LIUMFeatureFileCache featureFileCache;
+
+	/** Record speaker clustering merges, merging continues past the threshold down to a single cluster. */
+	private boolean recordMergeHistory = false;
+
+	/** Number of clusters at which the recorded merges past the threshold stop. */
+	private int mergeHistoryLimit = 1;
+
+	/** Merge histories of speaker clustering results of the current show. */
+	private final Map<ClusterSet, SpeakerMergeHistory> mergeHistories = Collections.synchronizedMap(new IdentityHashMap<ClusterSet, SpeakerMergeHistory>());
+
+	/** Merge history of the final cluster set of the last diarized show. */
+	private SpeakerMergeHistory mergeHistory;
+
+	/** Write the final cluster set using the output mask. */
+	private boolean writeOutputFile = true;
+
+	/** Print the final cluster set to stdout. */
+	private boolean printResults = false;
+
+	/** Feature frame rate of the last diarized show. */
+	private int frameRate = 100;
+
+	/** LIUM arguments of this run, used to create parameter copies. */
+	private String[] runArguments;
+
+	/** Derived feature sets for the show being diarized. */
+	private LIUMFeatureCache featureCache;
+
+	/** Budget of the derived feature cache, as a fraction of max heap. */
+	private double featureCacheBudget = LIUMFeatureCache.DEFAULT_BUDGET_FRACTION;
+
+	/** Listeners receiving stage started/completed events. */
+	private final List<DiarizationListener> stageListeners = new CopyOnWriteArrayList<DiarizationListener>();
+
+	/** Expected number of stages for the current show, used for progress. */
+	private volatile int expectedStages = 0;
+
+	/** Number of completed stages for the current show. */
+	private final AtomicInteger completedStages = new AtomicInteger(0);
+
+	/** Start time of the current show (System.nanoTime). */
+	private volatile long runStartTime = 0L;
+
+	/** Cancellation flag, checked between pipeline stages. */
+	private volatile boolean cancelled = false;
+
+	/** Pool running fork/join stages of the current show, shut down on cancel. */
+	private volatile ForkJoinPool forkJoinPool;
+
+	/** Diarization run executing on the current thread, including fork/join tasks of the run. */
+	private final static ThreadLocal<SpkDiarization> currentRun = new ThreadLocal<SpkDiarization>();
+
+	/**
+	 * Diarization run executing on the calling thread.  Log records published by
+	 * stages of a run, on the calling thread or on fork/join workers, can be
+	 * attributed to the run using this value.
+	 *
+	 * @return the diarization or <code>null</code> if the thread is not executing a run
+	 */
+	public static SpkDiarization currentRun() {
+		return currentRun.get();
+	}
+
+	/**
+	 * Fork/join task executing the callable as part of this run, see {@link #currentRun()}.
+	 *
+	 * @param <T> the result type
+	 * @param callable the callable
+	 * @return the task
+	 */
+	private <T> ForkJoinTask<T> adapt(Callable<T> callable) {
+		return ForkJoinTask.adapt(() -> {
+			SpkDiarization previous = currentRun.get();
+			currentRun.set(this);
+			try {
+				return callable.call();
+			} finally {
+				currentRun.set(previous);
+			}
+		});
+	}
+
+	/**
+	 * Request cancellation of this diarization.  The pipeline will stop
+	 * at the beginning of the next stage.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+		ForkJoinPool pool = forkJoinPool;
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+		showDiarizations.forEach(SpkDiarization::cancel);
+	}
+
+	/**
+	 * Checks if cancelled.
+	 *
+	 * @return true, if cancel has been requested
+	 */
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * Throw an exception if cancel has been requested or the current thread
+	 * has been interrupted.
+	 *
+	 * @throws DiarizationException the diarization exception
+	 */
+	private void checkCancelled() throws DiarizationException {
+		if (cancelled || Thread.currentThread().isInterrupted()) {
+			cancelled = true;
+			throw new DiarizationException("Diarization cancelled");
+		}
+	}
+
+	/**
+	 * Adds a listener for stage events.
+	 *
+	 * @param listener the listener
+	 */
+	public void addStageListener(DiarizationListener listener) {
+		stageListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener for stage events.
+	 *
+	 * @param listener the listener
+	 * @return true, if the listener was removed
+	 */
+	public boolean removeStageListener(DiarizationListener listener) {
+		return stageListeners.remove(listener);
+	}
+
+	/**
+	 * Reset progress for a show.
+	 *
+	 * @param stageCount expected number of stages
+	 */
+	private void resetProgress(int stageCount) {
+		expectedStages = stageCount;
+		completedStages.set(0);
+		runStartTime = System.nanoTime();
+	}
+
+	/**
+	 * Check for cancellation and notify listeners that a stage has started.
+	 *
+	 * @param stage the stage
+	 * @return measurements taken at the start of the stage
+	 * @throws DiarizationException the diarization exception
+	 */
+	private StageStart startStage(String stage) throws DiarizationException {
+		checkCancelled();
+		if (stageListeners.size() > 0) {
+			fireStageEvent(new DiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationStageStarted, stage, -1L, percentComplete(completedStages.get()), -1L));
+		}
+		return new StageStart();
+	}
+
+	/**
+	 * Notify listeners that a stage has completed.  Events include wall time,
+	 * CPU time and bytes allocated by the calling thread during the stage.
+	 *
+	 * @param stage the stage
+	 * @param stageStart measurements taken at the start of the stage
+	 * @param clusterSet the cluster set processed by the stage, used to count the features of the stage
+	 * @throws DiarizationException the diarization exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void endStage(String stage, StageStart stageStart, ClusterSet clusterSet) throws DiarizationException, IOException {
+		StageStart stageEnd = new StageStart();
+		int completed = completedStages.incrementAndGet();
+		long elapsed = (stageEnd.wallTime - stageStart.wallTime) / 1000000L;
+		long cpuTime = (stageStart.cpuTime >= 0 && stageEnd.cpuTime >= 0 ? (stageEnd.cpuTime - stageStart.cpuTime) / 1000000L : -1L);
+		long allocatedBytes = (stageStart.allocatedBytes >= 0 && stageEnd.allocatedBytes >= 0 ? stageEnd.allocatedBytes - stageStart.allocatedBytes : -1L);
+		logger.fine("stage " + stage + " " + elapsed + "ms cpu=" + cpuTime + "ms allocated=" + allocatedBytes);
+		if (stageListeners.size() > 0) {
+			long remaining = -1L;
+			int expected = expectedStages;
+			if (expected > completed) {
+				remaining = ((stageEnd.wallTime - runStartTime) / 1000000L) * (expected - completed) / completed;
+			} else if (expected > 0) {
+				remaining = 0L;
+			}
+			DiarizationEvent event = new DiarizationEvent(DiarizationEvent.DiarizationEventType.DiarizationStageCompleted, stage, elapsed, percentComplete(completed), remaining);
+			event.setCpuTime(cpuTime);
+			event.setAllocatedBytes(allocatedBytes);
+			event.setFeatureCount(clusterSet != null ? featureCount(clusterSet) : -1);
+			fireStageEvent(event);
+		}
+	}
+
+	/**
+	 * Number of features covered by the segments of the cluster set.
+	 *
+	 * @param clusterSet the cluster set
+	 * @return the feature count
+	 */
+	private static int featureCount(ClusterSet clusterSet) {
+		int retVal = 0;
+		for (Segment segment : clusterSet.getSegments()) {
+			retVal += segment.getLength();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Wall time, CPU time and allocated bytes of the current thread.  CPU time
+	 * and allocated bytes are -1 when not supported by the JVM.
+	 */
+	private static class StageStart {
+
+		/** The wall time (ns). */
+		private final long wallTime;
+
+		/** The cpu time (ns). */
+		private final long cpuTime;
+
+		/** The allocated bytes. */
+		private final long allocatedBytes;
+
+		/**
+		 * Instantiates a new stage start using the current values.
+		 */
+		private StageStart() {
+			ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+			wallTime = System.nanoTime();
+			cpuTime = (threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled() ? threadBean.getCurrentThreadCpuTime() : -1L);
+			if (threadBean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled()) {
+				allocatedBytes = ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+			} else {
+				allocatedBytes = -1L;
+			}
+		}
+
+	}
+
+	/**
+	 * Percent complete of the current show.
+	 *
+	 * @param completed the number of completed stages
+	 * @return percent complete or -1 if unknown
+	 */
+	private float percentComplete(int completed) {
+		int expected = expectedStages;
+		if (expected <= 0) {
+			return -1.0f;
+		}
+		return Math.min(100.0f, 100.0f * completed / expected);
+	}
+
+	/**
+	 * Fire stage event.
+	 *
+	 * @param event the event
+	 */
+	private void fireStageEvent(DiarizationEvent event) {
+		for (DiarizationListener listener : stageListeners) {
+			listener.diarizationEvent(event);
+		}
+	}
+
+	/**
+	 * Checks if the threshold grid is evaluated in parallel.
+	 *
+	 * @return true, if parallel sweep is enabled
+	 */
+	public boolean isParallelSweep() {
+		return this.parallelSweep;
+	}
+
+	/**
+	 * Sets parallel evaluation of the threshold grid.
+	 *
+	 * @param parallelSweep the parallel sweep
+	 */
+	public void setParallelSweep(boolean parallelSweep) {
+		this.parallelSweep = parallelSweep;
+	}
+
+	/**
+	 * Checks if the final cluster set is written using the output mask.
+	 *
+	 * @return true, if the output file is written
+	 */
+	public boolean isWriteOutputFile() {
+		return this.writeOutputFile;
+	}
+
+	/**
+	 * Sets if the final cluster set is written using the output mask.
+	 *
+	 * @param writeOutputFile the write output file
+	 */
+	public void setWriteOutputFile(boolean writeOutputFile) {
+		this.writeOutputFile = writeOutputFile;
+	}
+
+	/**
+	 * Gets the chunk length.
+	 *
+	 * @return the chunk length in seconds, &lt;= 0 if chunked diarization is disabled
+	 */
+	public double getChunkLength() {
+		return this.chunkLength;
+	}
+
+	/**
+	 * Sets the chunk length.  Wav files longer than 1.5 times the chunk length are
+	 * split into chunks which are diarized independently and in parallel, features
+	 * are streamed from the audio one chunk at a time.  Speakers are then linked across chunks
+	 * by speaker clustering of a sample of the speech of each chunk speaker.
+	 *
+	 * @param chunkLength the chunk length in seconds, &lt;= 0 to disable
+	 */
+	public void setChunkLength(double chunkLength) {
+		this.chunkLength = chunkLength;
+	}
+
+	/**
+	 * Gets the feature cache folder.
+	 *
+	 * @return the feature cache folder, <code>null</code> if features are not cached
+	 */
+	public File getFeatureCacheFolder() {
+		return (featureFileCache != null ? featureFileCache.getFolder() : null);
+	}
+
+	/**
+	 * Sets the feature cache folder.  Features computed from audio are stored in
+	 * this folder and reused by later runs on the same audio.
+	 *
+	 * @param featureCacheFolder the feature cache folder, <code>null</code> to disable
+	 */
+	public void setFeatureCacheFolder(File featureCacheFolder) {
+		this.featureFileCache = (featureCacheFolder != null ? new LIUMFeatureFileCache(featureCacheFolder) : null);
+	}
+
+	/**
+	 * Gets the derived feature cache budget.
+	 *
+	 * @return the budget as a fraction of max heap
+	 */
+	public double getFeatureCacheBudget() {
+		return this.featureCacheBudget;
+	}
+
+	/**
+	 * Sets the derived feature cache budget.  When several shows are diarized
+	 * concurrently in the same process, each should be given its share of the
+	 * default budget.
+	 *
+	 * @param featureCacheBudget the budget as a fraction of max heap
+	 */
+	public void setFeatureCacheBudget(double featureCacheBudget) {
+		this.featureCacheBudget = featureCacheBudget;
+	}
+
+	/**
+	 * Checks if the speaker clustering merge history is recorded.
+	 *
+	 * @return true, if the merge history is recorded
+	 */
+	public boolean isRecordMergeHistory() {
+		return this.recordMergeHistory;
+	}
+
+	/**
+	 * Sets if the speaker clustering merge history is recorded.  When enabled, the final
+	 * speaker clustering of a show continues merging past the threshold down to the
+	 * {@link #setMergeHistoryLimit merge history limit}, merges after the threshold are
+	 * only recorded.  Speaker clustering of the
+	 * threshold sweep and of chunks is not affected.
+	 *
+	 * @param recordMergeHistory the record merge history
+	 */
+	public void setRecordMergeHistory(boolean recordMergeHistory) {
+		this.recordMergeHistory = recordMergeHistory;
+	}
+
+	/**
+	 * Gets the number of clusters at which recording merges past the threshold stops.
+	 *
+	 * @return the merge history limit
+	 */
+	public int getMergeHistoryLimit() {
+		return this.mergeHistoryLimit;
+	}
+
+	/**
+	 * Sets the number of clusters at which recording merges past the threshold stops,
+	 * e.g. the max speaker count when the history is only used to enforce it.
+	 *
+	 * @param mergeHistoryLimit the merge history limit, 1 to merge down to a single cluster
+	 */
+	public void setMergeHistoryLimit(int mergeHistoryLimit) {
+		this.mergeHistoryLimit = mergeHistoryLimit;
+	}
+
+	/**
+	 * Gets the merge history of the final cluster set of the last diarized show.
+	 *
+	 * @return the merge history, <code>null</code> if not recorded
+	 */
+	public SpeakerMergeHistory getMergeHistory() {
+		return this.mergeHistory;
+	}
+
+	/**
+	 * Gets the feature frame rate of the last diarized show, used to convert
+	 * segment positions to time.
+	 *
+	 * @return frames per second
+	 */
+	public int getFrameRate() {
+		return this.frameRate;
+	}
+
+	/**
+	 * Read options handled by this class and return remaining LIUM arguments.
+	 *
+	 * @param args the args
+	 * @return LIUM arguments
+	 */
+	public String[] readOptions(String[] args) {
+		ArrayList<String> liumArgs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (CHUNK_LENGTH.equals(arg) && i + 1 < args.length) {
+				chunkLength = Double.parseDouble(args[++i]);
+			} else if (FEATURE_CACHE.equals(arg) && i + 1 < args.length) {
+				setFeatureCacheFolder(new File(args[++i]));
+			} else if (FEATURE_CACHE_BUDGET.equals(arg) && i + 1 < args.length) {
+				featureCacheBudget = Double.parseDouble(args[++i]);
+			} else if (MERGE_HISTORY.equals(arg)) {
+				recordMergeHistory = true;
+			} else if (MERGE_HISTORY_LIMIT.equals(arg) && i + 1 < args.length) {
+				mergeHistoryLimit = Integer.parseInt(args[++i]);
+			} else if (PARALLEL_SWEEP.equals(arg)) {
+				parallelSweep = true;
+			} else if (NO_OUTPUT_FILE.equals(arg)) {
+				writeOutputFile = false;
+			} else if (PRINT_RESULTS.equals(arg)) {
+				printResults = true;
+			} else {
+				liumArgs.add(arg);
+			}
+		}
+		runArguments = liumArgs.toArray(new String[0]);
+		return runArguments;
+	}
+
+	/**
+	 * Create a new parameter for the show of the given parameter, using the
+	 * arguments of this run.
+	 *
+	 * @param parameter the parameter
+	 * @return the parameter
+	 */
+	private Parameter copyParameter(Parameter parameter) {
+		Parameter retVal = getParameter(runArguments);
+		retVal.show = parameter.show;
+		setupSystem(retVal);
+		return retVal;
+	}
 
 	/**
 	 * Load feature.
@@ -112,6 +641,24 @@ public class SpkDiarization extends Thread {
 		return result;
 	}
 
+	/**
+	 * Load the base features of the show, using the feature cache if enabled.
+	 *
+	 * @param parameter the parameter
+	 * @param clusterSet the cluster set
+	 * @param descriptor the descriptor
+	 * @return the audio feature set
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws DiarizationException the diarization exception
+	 */
+	private AudioFeatureSet loadBaseFeature(Parameter parameter, ClusterSet clusterSet, String descriptor) throws IOException, DiarizationException {
+		LIUMFeatureFileCache cache = featureFileCache;
+		if (cache != null) {
+			return cache.loadFeature(parameter, clusterSet, descriptor);
+		}
+		return loadFeature(parameter, clusterSet, descriptor);
+	}
+
 	/**
 	 * Load feature.
 	 *
@@ -124,6 +671,25 @@ public class SpkDiarization extends Thread {
 	 * @throws DiarizationException the diarization exception
 	 */
 	private AudioFeatureSet loadFeature(AudioFeatureSet featureSet, Parameter parameter, ClusterSet clusterSet, String descriptor) throws IOException, DiarizationException {
+		LIUMFeatureCache cache = featureCache;
+		if (cache != null) {
+			return cache.get(parameter, descriptor, featureSet, clusterSet, () -> readFeature(featureSet, parameter, clusterSet, descriptor));
+		}
+		return readFeature(featureSet, parameter, clusterSet, descriptor);
+	}
+
+	/**
+	 * Read feature, bypassing the feature cache.
+	 *
+	 * @param featureSet the feature set
+	 * @param parameter the parameter
+	 * @param clusterSet the cluster set
+	 * @param descriptor the descriptor
+	 * @return the audio feature set
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws DiarizationException the diarization exception
+	 */
+	private static AudioFeatureSet readFeature(AudioFeatureSet featureSet, Parameter parameter, ClusterSet clusterSet, String descriptor) throws IOException, DiarizationException {
 		String oldDescriptor = parameter.getParameterInputFeature().getFeaturesDescriptorAsString();
 		parameter.getParameterInputFeature().setFeaturesDescription(descriptor);
 		AudioFeatureSet result = MainTools.readFeatureSet(parameter, clusterSet, featureSet);
@@ -171,6 +737,7 @@ public class SpkDiarization extends Thread {
 	 * @throws TransformerException the transformer exception
 	 */
 	public ClusterSet sanityCheck(ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter) throws DiarizationException, IOException, ParserConfigurationException, SAXException, TransformerException {
+		final StageStart stageStart = startStage("sanityCheck");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 
 		ClusterSet clustersSegInit = new ClusterSet();
@@ -183,6 +750,7 @@ public class SpkDiarization extends Thread {
 
 		parameter.getParameterSegmentationOutputFile().setMask(mask);
 
+		endStage("sanityCheck", stageStart, clusterSet);
 		return clustersSegInit;
 	}
 
@@ -198,6 +766,7 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet segmentation(String method, String kind, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter) throws Exception {
+		final StageStart stageStart = startStage("segmentation");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 
 		String oldMethod = parameter.getParameterSegmentation().getMethodAsString();
@@ -219,6 +788,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterModel().setModelKind(oldModelKind);
 		parameter.getParameterSegmentationOutputFile().setMask(mask);
 
+		endStage("segmentation", stageStart, clusterSet);
 		return clustersSeg;
 	}
 
@@ -233,6 +803,7 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet clusteringLinear(double threshold, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter) throws Exception {
+		final StageStart stageStart = startStage("clusteringLinear");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 		String oldMethod = parameter.getParameterClustering().getMethodAsString();
 		double oldThreshold = parameter.getParameterClustering().getThreshold();
@@ -255,6 +826,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterClustering().setThreshold(oldThreshold);
 		parameter.getParameterSegmentationOutputFile().setMask(mask);
 
+		endStage("clusteringLinear", stageStart, clusterSet);
 		return clustersLClust;
 	}
 
@@ -269,6 +841,7 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet clustering(double threshold, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter) throws Exception {
+		final StageStart stageStart = startStage("clustering");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 		String oldMethod = parameter.getParameterClustering().getMethodAsString();
 		double oldThreshold = parameter.getParameterClustering().getThreshold();
@@ -296,6 +869,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterClustering().setThreshold(oldThreshold);
 		parameter.getParameterSegmentationOutputFile().setMask(mask);
 
+		endStage("clustering", stageStart, clusterSet);
 		return clustersHClust;
 	}
 
@@ -311,6 +885,7 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet decode(int nbComp, double threshold, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter) throws Exception {
+		final StageStart stageStart = startStage("decode");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 		String oldModelKind = parameter.getParameterModel().getModelKindAsString();
 		int oldNumberOfComponent = parameter.getParameterModel().getNumberOfComponents();
@@ -349,6 +924,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterSegmentationOutputFile().setMask(mask);
 		parameter.getParameterModel().setNumberOfComponents(oldNumberOfComponent);
 		parameter.getParameterModel().setModelKind(oldModelKind);
+		endStage("decode", stageStart, clusterSet);
 		return clustersAdjClust;
 	}
 
@@ -365,6 +941,7 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet speech(String threshold, ClusterSet clustersSetBase, ClusterSet clustersSegInit, ClusterSet clustersDClust, AudioFeatureSet featureSet, Parameter parameter) throws Exception {
+		final StageStart stageStart = startStage("speech");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 		String oldDecoderPenalty = parameter.getParameterDecoder().getDecoderPenaltyAsString();
 
@@ -372,10 +949,8 @@ public class SpkDiarization extends Thread {
 		String FeatureFormat = "featureSetTransformation";
 		AudioFeatureSet featureSet2 = loadFeature(featureSet, parameter, clustersSetBase, FeatureFormat
 				+ ",1:3:2:0:0:0,13,0:0:0:0");
-		String dir = "ester2";
 		// ** load the model : 8 GMMs with 64 diagonal components
-		InputStream pmsInputStream = fr.lium.spkDiarization.system.Diarization.class.getResourceAsStream(dir + "/sms.gmms");
-		GMMArrayList pmsVect = MainTools.readGMMContainer(pmsInputStream, parameter.getParameterModel());
+		GMMArrayList pmsVect = LIUMModelCache.getModels(LIUMModelCache.SMS_MODEL, parameter.getParameterModel());
 		// ** set penalties for the i to j states
 		// ** 10 for the first and second model corresponding to boad/narrowband silence
 		// ** 50 for the other jingle speech (f0 f2 f3 fx), jingle and music
@@ -411,8 +986,7 @@ public class SpkDiarization extends Thread {
 		}
 
 		// ** segments of more than 20s are split according of silence present in the pms or using a gmm silence detector
-		InputStream silenceInputStream = fr.lium.spkDiarization.system.Diarization.class.getResourceAsStream(dir + "/s.gmms");
-		GMMArrayList sVect = MainTools.readGMMContainer(silenceInputStream, parameter.getParameterModel());
+		GMMArrayList sVect = LIUMModelCache.getModels(LIUMModelCache.SILENCE_MODEL, parameter.getParameterModel());
 		parameter.getParameterSegmentationFilterFile().setClusterFilterName("iS,iT,j");
 		ClusterSet clustersSplitClust = SSplitSeg.make(featureSet2, clustersFltClust, sVect, clustersPMSClust, parameter);
 		if (parameter.getParameterDiarization().isSaveAllStep()) {
@@ -426,6 +1000,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterFilter().setSilenceMinimumLength(oldSilenceMinimumLength);
 		parameter.getParameterFilter().setSpeechMinimumLength(oldSpeechMinimumLength);
 
+		endStage("speech", stageStart, clustersDClust);
 		return clustersSplitClust;
 	}
 
@@ -440,6 +1015,7 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet gender(ClusterSet clusterSetBase, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter) throws Exception {
+		final StageStart stageStart = startStage("gender");
 		String mask = parameter.getParameterSegmentationOutputFile().getMask();
 		boolean oldByCluster = parameter.getParameterScore().isByCluster();
 		boolean oldGender = parameter.getParameterScore().isGender();
@@ -447,9 +1023,7 @@ public class SpkDiarization extends Thread {
 		String FeatureFormat = "featureSetTransformation";
 		AudioFeatureSet featureSet2 = loadFeature(featureSet, parameter, clusterSet, FeatureFormat
 				+ ",1:3:2:0:0:0,13,1:1:0:0");
-		String dir = "ester2";
-		InputStream genderInputStream = fr.lium.spkDiarization.system.Diarization.class.getResourceAsStream(dir + "/gender.gmms");
-		GMMArrayList genderVector = MainTools.readGMMContainer(genderInputStream, parameter.getParameterModel());
+		GMMArrayList genderVector = LIUMModelCache.getModels(LIUMModelCache.GENDER_MODEL, parameter.getParameterModel());
 		parameter.getParameterScore().setByCluster(true);
 		parameter.getParameterScore().setGender(true);
 		ClusterSet clustersGender = MScore.make(featureSet2, clusterSet, genderVector, null, parameter);
@@ -461,6 +1035,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterScore().setByCluster(oldByCluster);
 		parameter.getParameterScore().setGender(oldGender);
 
+		endStage("gender", stageStart, clusterSet);
 		return clustersGender;
 	}
 
@@ -479,6 +1054,28 @@ public class SpkDiarization extends Thread {
 	 * @throws Exception the exception
 	 */
 	public ClusterSet speakerClustering(ClusterSet referenceClusterSet, ClusterSet uemClusterSet, String partialKey, String method, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter, ClusterSetResultList showResult) throws Exception {
+		return speakerClustering(referenceClusterSet, uemClusterSet, partialKey, method, clusterSet, featureSet, parameter, showResult, false);
+	}
+
+	/**
+	 * Speaker clustering.  When <code>recordHistory</code> is true and merge history
+	 * recording is enabled, merging continues past the threshold down to a single
+	 * cluster and the merge history of the result is kept, see {@link #getMergeHistory()}.
+	 *
+	 * @param referenceClusterSet the reference cluster set
+	 * @param uemClusterSet the uem cluster set
+	 * @param partialKey the partial key
+	 * @param method the method
+	 * @param clusterSet the cluster set
+	 * @param featureSet the feature set
+	 * @param parameter the parameter
+	 * @param showResult the show result
+	 * @param recordHistory record the merge history, only for the final speaker clustering of the show
+	 * @return the cluster set
+	 * @throws Exception the exception
+	 */
+	private ClusterSet speakerClustering(ClusterSet referenceClusterSet, ClusterSet uemClusterSet, String partialKey, String method, ClusterSet clusterSet, AudioFeatureSet featureSet, Parameter parameter, ClusterSetResultList showResult, boolean recordHistory) throws Exception {
+		final StageStart stageStart = startStage("speakerClustering");
 
 		String oldSpeechDetectorMethod = parameter.getParameterInputFeature().getSpeechMethodAsString();
 		double oldSpeechDetectorThreshold = parameter.getParameterInputFeature().getSpeechThreshold();
@@ -491,6 +1088,17 @@ public class SpkDiarization extends Thread {
 		int oldNTop = parameter.getParameterTopGaussian().getScoreNTop();
 		boolean saveAll = parameter.getParameterDiarization().isSaveAllStep();
 
+		SpeakerMergeHistory mergeHistory = null;
+		if (recordMergeHistory && recordHistory) {
+			// segments of the clusters before the first merge are the leaves of the merge tree
+			int rate = parameter.getParameterSegmentationInputFile().getRate();
+			mergeHistory = new SpeakerMergeHistory();
+			mergeHistory.setThreshold(cMax);
+			for (Segment segment : clusterSet.getSegments()) {
+				mergeHistory.addLeaf(segment.getClusterName(), clusterSet.getCluster(segment.getClusterName()).getGender(),
+						segment.getStart() * 1000.0f / rate, (segment.getStart() + segment.getLength()) * 1000.0f / rate);
+			}
+		}
 		DiarizationError computeError = new DiarizationError(referenceClusterSet, uemClusterSet);
 		double prevScore = cMin;
 		int nbMerge = 0;
@@ -498,9 +1106,7 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterInputFeature().setSpeechThreshold(0.1);
 
 		String FeatureFormat = "featureSetTransformation";
-		String dir = "ester2";
-		InputStream ubmInputStream = fr.lium.spkDiarization.system.Diarization.class.getResourceAsStream(dir + "/ubm.gmm");
-		GMMArrayList ubmVect = MainTools.readGMMContainer(ubmInputStream, parameter.getParameterModel());
+		GMMArrayList ubmVect = LIUMModelCache.getModels(LIUMModelCache.UBM_MODEL, parameter.getParameterModel());
 		GMM ubm = ubmVect.get(0);
 
 		AudioFeatureSet featureSet2 = loadFeature(featureSet, parameter, clusterSet, FeatureFormat
@@ -528,12 +1134,13 @@ public class SpkDiarization extends Thread {
 		logger.fine("first " + parameter.show + " key=" + partialKey + " clrScore=" + score + " clrErrorRate="
 				+ errorRate + " clrSize=" + clustering.getSize());
 		while ((score < cMax) && (clustering.getSize() > 1)) {
+			checkCancelled();
 			nbMerge++;
 			if (computeError.isUsed()) {
 				showResult.setResult(prevScore, score, clustering.getClusterSet());
 				prevScore = Math.max(score, prevScore);
 			}
-			clustering.mergeCandidates();
+			mergeCandidates(clustering, score, mergeHistory);
 			score = clustering.getScoreOfCandidatesForMerging();
 
 			/*
@@ -558,6 +1165,18 @@ public class SpkDiarization extends Thread {
 			parameter.getParameterSegmentationOutputFile().setMask(mask);
 		}
 
+		ClusterSet clusterSetResult = clustering.getClusterSet();
+		if (mergeHistory != null) {
+			// record the remaining merges down to the limit, the result is the cluster set at the threshold
+			clusterSetResult = clusterSetResult.clone();
+			while (clustering.getSize() > Math.max(1, mergeHistoryLimit)) {
+				checkCancelled();
+				mergeCandidates(clustering, score, mergeHistory);
+				score = clustering.getScoreOfCandidatesForMerging();
+			}
+			mergeHistories.put(clusterSetResult, mergeHistory);
+		}
+
 		clustering.reset();
 
 		parameter.getParameterModel().setNumberOfComponents(oldNumberOfComponent);
@@ -570,7 +1189,46 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterInputFeature().setSpeechThreshold(oldSpeechDetectorThreshold);
 		// parameter.getParameterDiarization().setSaveAllStep(oldSaveAll);
 
-		return clustering.getClusterSet();
+		endStage("speakerClustering", stageStart, clusterSet);
+		return clusterSetResult;
+	}
+
+	/**
+	 * Merge the candidates of the clustering, recording the merge if a merge history is given.
+	 *
+	 * @param clustering the clustering
+	 * @param score the score of the candidates
+	 * @param mergeHistory the merge history, may be <code>null</code>
+	 * @throws Exception the exception
+	 */
+	private static void mergeCandidates(CLRHClustering clustering, double score, SpeakerMergeHistory mergeHistory) throws Exception {
+		if (mergeHistory == null) {
+			clustering.mergeCandidates();
+			return;
+		}
+		HashMap<String, Integer> lengths = new HashMap<String, Integer>();
+		for (Cluster cluster : clustering.getClusterSet().getClusterMap().values()) {
+			lengths.put(cluster.getName(), cluster.getLength());
+		}
+		clustering.mergeCandidates();
+
+		// the merged cluster is removed, the cluster it was merged into grows
+		String merged = null;
+		String into = null;
+		Map<String, Cluster> clusterMap = clustering.getClusterSet().getClusterMap();
+		for (Map.Entry<String, Integer> entry : lengths.entrySet()) {
+			Cluster cluster = clusterMap.get(entry.getKey());
+			if (cluster == null) {
+				merged = entry.getKey();
+			} else if (cluster.getLength() != entry.getValue()) {
+				into = entry.getKey();
+			}
+		}
+		if ((merged != null) && (into != null)) {
+			mergeHistory.addMerge(merged, into, score);
+		} else {
+			logger.warning("unable to record merge, merged=" + merged + " into=" + into);
+		}
 	}
 
 	/**
@@ -596,93 +1254,101 @@ public class SpkDiarization extends Thread {
 		parameter.getParameterSegmentationOutputFile().setMask(mask);
 	}
 
-	/**
-	 * Gets the next cluster set.
-	 *
-	 * @return the next cluster set
-	 */
-	public synchronized ClusterSet getNextClusterSet() {
-
-		int index = nbTreatedJob;
-		nbTreatedJob++;
-		if (index < listOfClusterSet.size()) {
-			return listOfClusterSet.get(index);
-		}
-		return null;
-	}
-
 	/*
 	 * public synchronized void sumResult(TreeMap<String, DiarizationResultList> showResult) throws DiarizationException { for (String key : showResult.keySet()) { DiarizationResultList values = showResult.get(key); if (corpusResult.containsKey(key)) {
 	 * corpusResult.get(key).addResultArray(values); } else { corpusResult.put(key, values); } } }
 	 */
 
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Thread#run()
-	 */
-	@Override
-	public void run() {
-		ClusterSet clusterSet = getNextClusterSet();
-		while (clusterSet != null) {
-			Parameter parameter = getParameter(arguments);
-			parameter.show = clusterSet.getShowNames().first();
-			logger.finer("-------------------------------------------");
-			logger.finer("--- " + parameter.show + " ---");
-			logger.finer("-------------------------------------------");
-			try {
-				ester2Diarization(parameter, clusterSet);
-				System.gc();
-			} catch (DiarizationException e) {
-				logger.log(Level.SEVERE, "Diarization error", e);
-				e.printStackTrace();
-			} catch (Exception e) {
-				logger.log(Level.SEVERE, "Exception error", e);
-				e.printStackTrace();
-			}
-			clusterSet = getNextClusterSet();
-		}
+	/**
+	 * Diarize one show of a corpus with a new parameter created from the
+	 * arguments of this run.
+	 *
+	 * @param clusterSet the cluster set of the show
+	 * @throws DiarizationException the diarization exception
+	 * @throws Exception the exception
+	 */
+	private void diarizeClusterSet(ClusterSet clusterSet) throws DiarizationException, Exception {
+		Parameter parameter = getParameter(runArguments);
+		parameter.show = clusterSet.getShowNames().first();
+		setupSystem(parameter);
+		logger.finer("-------------------------------------------");
+		logger.finer("--- " + parameter.show + " ---");
+		logger.finer("-------------------------------------------");
+		ester2Diarization(parameter, clusterSet);
 	}
 
 	/**
-	 * Checks if is thread alive.
+	 * Ester2 diarization corpus.  Blocks until all shows have been processed
+	 * using <code>parameter.getParameterDiarization().getThread()</code> threads.
 	 *
-	 * @return true, if is thread alive
+	 * @param parameter the parameter
+	 * @throws DiarizationException the diarization exception
+	 * @throws Exception the exception
 	 */
-	public boolean isThreadAlive() {
-		for (SpkDiarization diarization : diarizationList) {
-			if (diarization.isAlive() == true) {
-				return true;
-			}
+	public void ester2DiarizationCorpus(Parameter parameter) throws DiarizationException, Exception {
+		int nbThread = Math.max(1, parameter.getParameterDiarization().getThread());
+		ExecutorService executor = Executors.newFixedThreadPool(nbThread);
+		try {
+			ester2DiarizationCorpus(parameter, executor, null).get();
+		} finally {
+			executor.shutdown();
 		}
-		return false;
 	}
 
 	/**
-	 * Ester2 diarization corpus.
+	 * Ester2 diarization corpus.  Each show is diarized by its own
+	 * {@link SpkDiarization} on the given executor.  Errors are logged and
+	 * reported to the listener, other shows continue to be processed.
 	 *
 	 * @param parameter the parameter
+	 * @param executor the executor
+	 * @param showListener called with the show name and error (or <code>null</code>) when a show is complete, may be <code>null</code>
+	 * @return future completed once all shows have been processed
 	 * @throws DiarizationException the diarization exception
 	 * @throws Exception the exception
 	 */
-	public void ester2DiarizationCorpus(Parameter parameter) throws DiarizationException, Exception {
-		// Parameter parameter = getParameter(arguments);
-
-		ClusterSet fullClusterSet = initialize(parameter);
-		listOfClusterSet = MainTools.splitHypotesis(fullClusterSet);
-
-		int nbThread = parameter.getParameterDiarization().getThread();
-
-		diarizationList = new ArrayList<SpkDiarization>(nbThread);
-
-		for (int i = 0; i < nbThread; i++) {
-			diarizationList.add(new SpkDiarization());
-			diarizationList.get(i).start();
+	public CompletableFuture<Void> ester2DiarizationCorpus(Parameter parameter, Executor executor, BiConsumer<String, Throwable> showListener) throws DiarizationException, Exception {
+		if (runArguments == null) {
+			throw new DiarizationException("Arguments not available, see readOptions()");
 		}
-
-		while (isThreadAlive() == true) {
-			Thread.sleep(10000);
+		ClusterSet fullClusterSet = initialize(parameter);
+		ArrayList<ClusterSet> listOfClusterSet = MainTools.splitHypotesis(fullClusterSet);
+
+		CompletableFuture<?>[] showFutures = new CompletableFuture<?>[listOfClusterSet.size()];
+		for (int i = 0; i < listOfClusterSet.size(); i++) {
+			final ClusterSet clusterSet = listOfClusterSet.get(i);
+			final String show = clusterSet.getShowNames().first();
+			final SpkDiarization diarization = new SpkDiarization();
+			diarization.parallelSweep = parallelSweep;
+			diarization.writeOutputFile = writeOutputFile;
+			diarization.chunkLength = chunkLength;
+			diarization.featureFileCache = featureFileCache;
+			diarization.recordMergeHistory = recordMergeHistory;
+			diarization.mergeHistoryLimit = mergeHistoryLimit;
+			diarization.stageListeners.addAll(stageListeners);
+			diarization.runArguments = runArguments;
+			showDiarizations.add(diarization);
+
+			showFutures[i] = CompletableFuture.runAsync(() -> {
+				try {
+					diarization.diarizeClusterSet(clusterSet);
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				} finally {
+					showDiarizations.remove(diarization);
+				}
+			}, executor).handle((v, e) -> {
+				Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+				if (cause != null) {
+					logger.log(Level.SEVERE, "Diarization error " + show, cause);
+				}
+				if (showListener != null) {
+					showListener.accept(show, cause);
+				}
+				return null;
+			});
 		}
-
+		return CompletableFuture.allOf(showFutures);
 	}
 
 	/**
@@ -690,12 +1356,11 @@ public class SpkDiarization extends Thread {
 	 *
 	 * @param parameter the parameter
 	 * @param clusterSet the cluster set
+	 * @return the final cluster set
 	 * @throws DiarizationException the diarization exception
 	 * @throws Exception the exception
 	 */
-	public void ester2Diarization(Parameter parameter, ClusterSet clusterSet) throws DiarizationException, Exception {
-
-		TreeMap<String, ClusterSetResultList> result = new TreeMap<String, ClusterSetResultList>();
+	public ClusterSet ester2Diarization(Parameter parameter, ClusterSet clusterSet) throws DiarizationException, Exception {
 
 // double paramThr = parameter.getParameterClustering().getThreshold();
 		lMin = parameter.getParameterDiarization().getThreshold("l");
@@ -708,22 +1373,73 @@ public class SpkDiarization extends Thread {
 		cMax = parameter.getParameterDiarization().getMaxThreshold("c");
 
 		String featureDesc = parameter.getParameterInputFeature().getFeaturesDescriptorAsString();
+		frameRate = parameter.getParameterSegmentationInputFile().getRate();
+		featureCache = new LIUMFeatureCache(featureCacheBudget);
+		mergeHistory = null;
+		SpkDiarization previousRun = currentRun.get();
+		currentRun.set(this);
+		try {
+			ClusterSet result = ester2Diarization(parameter, clusterSet, featureDesc);
+			mergeHistory = (result != null ? mergeHistories.get(result) : null);
+			return result;
+		} finally {
+			mergeHistories.clear();
+			logger.fine("feature cache hits=" + featureCache.getHits() + " misses=" + featureCache.getMisses());
+			featureCache.clear();
+			featureCache = null;
+			currentRun.set(previousRun);
+		}
+	}
+
+	/**
+	 * Ester2 diarization using the given base feature descriptor.
+	 *
+	 * @param parameter the parameter
+	 * @param clusterSet the cluster set
+	 * @param featureDesc the feature descriptor
+	 * @return the final cluster set
+	 * @throws DiarizationException the diarization exception
+	 * @throws Exception the exception
+	 */
+	private ClusterSet ester2Diarization(Parameter parameter, ClusterSet clusterSet, String featureDesc) throws DiarizationException, Exception {
+
+		TreeMap<String, ClusterSetResultList> result = new TreeMap<String, ClusterSetResultList>();
+
+		WavFile chunkedAudio = chunkedAudio(parameter, featureDesc);
+		if (chunkedAudio != null) {
+			ClusterSet clusterSetResult = chunkedDiarization(chunkedAudio, MainTools.readTheSecondClusterSet(parameter), MainTools.readThe3rdClusterSet(parameter), featureDesc, parameter);
+			if (writeOutputFile && (dMin == dMax) && (hMin == hMax) && (lMin == lMax)) {
+				MainTools.writeClusterSet(parameter, clusterSetResult, false);
+			}
+			return clusterSetResult;
+		}
+
+		boolean ceClustering = parameter.getParameterDiarization().isCEClustering();
+		int nbL = thresholds(lMin, lMax, 0.5).size();
+		int nbH = thresholds(hMin, hMax, 0.5).size();
+		int nbD = thresholds(dMin, dMax, 50).size();
+		// sanity check, segmentation, l/h/d grid and final speaker clustering
+		int stageCount = 3 + nbL * (1 + nbH * (1 + nbD * (ceClustering ? 4 : 3)));
+		if (parameter.getParameterDiarization().isLastStepOnly() && ceClustering) {
+			stageCount++;
+		}
+		resetProgress(stageCount);
 
 		AudioFeatureSet featureSet = null;
 		ClusterSet clustersSegInit = null;
 		ClusterSet clusterSetResult = null;
 
 		if (parameter.getParameterDiarization().isLoadInputSegmentation() == false) {
-			featureSet = loadFeature(parameter, clusterSet, featureDesc);
+			featureSet = loadBaseFeature(parameter, clusterSet, featureDesc);
 			featureSet.setCurrentShow(parameter.show);
 			int nbFeatures = featureSet.getNumberOfFeatures();
 			clusterSet.getFirstCluster().firstSegment().setLength(nbFeatures);
 			clustersSegInit = sanityCheck(clusterSet, featureSet, parameter);
 		} else {
-			featureSet = loadFeature(parameter, clusterSet, featureDesc);
+			featureSet = loadBaseFeature(parameter, clusterSet, featureDesc);
 			featureSet.setCurrentShow(parameter.show);
 			clustersSegInit = sanityCheck(clusterSet, featureSet, parameter);
-			featureSet = loadFeature(parameter, clustersSegInit, featureDesc);
+			featureSet = loadBaseFeature(parameter, clustersSegInit, featureDesc);
 			featureSet.setCurrentShow(parameter.show);
 		}
 
@@ -742,7 +1458,7 @@ public class SpkDiarization extends Thread {
 				clusterSetResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", clustersSegInit, featureSet, parameter, showResult);
 			}
 			result.put(key, showResult);
-			if ((dMin == dMax) && (hMin == hMax) && (lMin == lMax)) {
+			if (writeOutputFile && (dMin == dMax) && (hMin == hMax) && (lMin == lMax)) {
 				MainTools.writeClusterSet(parameter, clusterSetResult, false);
 			}
 		}
@@ -751,28 +1467,33 @@ public class SpkDiarization extends Thread {
 		String segmentationMethodString = ParameterSegmentation.SegmentationMethodString[segmentationMethod];
 		logger.info("--> segmentation method=" + segmentationMethodString);
 		ClusterSet clustersSegSave = segmentation(segmentationMethodString, "FULL", clustersSegInit, featureSet, parameter);
-		for (double l = lMin; l <= lMax; l += 0.5) {
-			ClusterSet clustersSeg = clustersSegSave.clone();
-			logger.finest("clustering l=" + l);
-			ClusterSet clustersLClust = clusteringLinear(l, clustersSeg, featureSet, parameter);
-			// ---- Begin NEW v 1.14 ---
-			for (double h = hMin; h <= hMax; h += 0.5) {
-				// for (double h = hMin; h <= hMax; h += 0.2) {
-				// ---- end NEW v 1.14 ---
-				// if (h > l) {
-				ClusterSet clustersHClust = clustering(h, clustersLClust, featureSet, parameter);
-				for (double d = dMin; d <= dMax; d += 50) {
-					ClusterSet clustersDClust = decode(8, d, clustersHClust, featureSet, parameter);
-					// double error = DiarizationError.scoreOfMatchedSpeakers(referenceClusterSet, clustersDClust);
-					ClusterSet clustersSplitClust = speech("10,10,50", clusterSet, clustersSegInit, clustersDClust, featureSet, parameter);
-					ClusterSet clustersGender = gender(clusterSet, clustersSplitClust, featureSet, parameter);
-
-					String key = "l=" + l + " h=" + h + " d=" + d;
-					ClusterSetResultList showResult = new ClusterSetResultList(cMin, cMax, mult);
-					if (parameter.getParameterDiarization().isCEClustering() == true) {
-						clusterSetResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", clustersGender, featureSet, parameter, showResult);
-					} else {
-						clusterSetResult = clustersGender;
+		if (parallelSweep && runArguments != null && ((lMin != lMax) || (hMin != hMax) || (dMin != dMax))) {
+			ClusterSet featureClusterSet = (parameter.getParameterDiarization().isLoadInputSegmentation() ? clustersSegInit : clusterSet);
+			clusterSetResult = parallelThresholdSweep(referenceClusterSet, uemClusterSet, clusterSet, clustersSegInit, clustersSegSave, featureSet, featureClusterSet, featureDesc, parameter);
+		} else {
+			for (double l = lMin; l <= lMax; l += 0.5) {
+				ClusterSet clustersSeg = clustersSegSave.clone();
+				logger.finest("clustering l=" + l);
+				ClusterSet clustersLClust = clusteringLinear(l, clustersSeg, featureSet, parameter);
+				// ---- Begin NEW v 1.14 ---
+				for (double h = hMin; h <= hMax; h += 0.5) {
+					// for (double h = hMin; h <= hMax; h += 0.2) {
+					// ---- end NEW v 1.14 ---
+					// if (h > l) {
+					ClusterSet clustersHClust = clustering(h, clustersLClust, featureSet, parameter);
+					for (double d = dMin; d <= dMax; d += 50) {
+						ClusterSet clustersDClust = decode(8, d, clustersHClust, featureSet, parameter);
+						// double error = DiarizationError.scoreOfMatchedSpeakers(referenceClusterSet, clustersDClust);
+						ClusterSet clustersSplitClust = speech("10,10,50", clusterSet, clustersSegInit, clustersDClust, featureSet, parameter);
+						ClusterSet clustersGender = gender(clusterSet, clustersSplitClust, featureSet, parameter);
+
+						String key = "l=" + l + " h=" + h + " d=" + d;
+						ClusterSetResultList showResult = new ClusterSetResultList(cMin, cMax, mult);
+						if (parameter.getParameterDiarization().isCEClustering() == true) {
+							clusterSetResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", clustersGender, featureSet, parameter, showResult);
+						} else {
+							clusterSetResult = clustersGender;
+						}
 					}
 				}
 			}
@@ -781,12 +1502,545 @@ public class SpkDiarization extends Thread {
 		String key = "l=" + lMax + " h=" + hMax + " d=" + dMax;
 		ClusterSetResultList showResult = new ClusterSetResultList(cMin, cMax, mult);
 		parameter.getParameterClustering().setMinimumOfCluster(2);
-		clusterSetResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", clusterSetResult, featureSet, parameter, showResult);
+		clusterSetResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", clusterSetResult, featureSet, parameter, showResult, true);
 
 		// logger.info("value thr:"+dMin+" == "+dMax+") && ("+hMin+" == "+hMax+") && ("+lMin+" == "+lMax+") ");
-		if ((dMin == dMax) && (hMin == hMax) && (lMin == lMax)) {
+		if (writeOutputFile && (dMin == dMax) && (hMin == hMax) && (lMin == lMax)) {
 			MainTools.writeClusterSet(parameter, clusterSetResult, false);
 		}
+		return clusterSetResult;
+	}
+
+	/**
+	 * Diarize the single show given by <code>parameter.show</code> on the
+	 * calling thread.  The parameter instance is modified during execution
+	 * and should not be shared with other diarizations.
+	 *
+	 * @param parameter the parameter
+	 * @return the final cluster set
+	 * @throws DiarizationException the diarization exception
+	 * @throws Exception the exception
+	 */
+	public ClusterSet diarizeShow(Parameter parameter) throws DiarizationException, Exception {
+		setupSystem(parameter);
+		ClusterSet clusterSet = initialize(parameter);
+		return ester2Diarization(parameter, clusterSet);
+	}
+
+	/**
+	 * Diarize the single show given by the arguments on the calling thread.
+	 *
+	 * @param args the arguments, including options handled by this class
+	 * @return the final cluster set
+	 * @throws DiarizationException the diarization exception
+	 * @throws Exception the exception
+	 */
+	public ClusterSet diarizeShow(String[] args) throws DiarizationException, Exception {
+		SpkDiarization previousRun = currentRun.get();
+		currentRun.set(this);
+		try {
+			Parameter parameter = getParameter(readOptions(args));
+			return diarizeShow(parameter);
+		} finally {
+			currentRun.set(previousRun);
+		}
+	}
+
+	/**
+	 * Apply settings required by the selected diarization system.
+	 *
+	 * @param parameter the parameter
+	 */
+	private static void setupSystem(Parameter parameter) {
+		if (parameter.getParameterDiarization().getSystem() == ParameterBNDiarization.SystemString[1]) {
+			parameter.getParameterSegmentationSplit().setSegmentMaximumLength((10 * parameter.getParameterSegmentationInputFile().getRate()));
+		}
+	}
+
+	/**
+	 * Threshold values from min to max (inclusive) using the given step.
+	 *
+	 * @param min the min
+	 * @param max the max
+	 * @param step the step
+	 * @return the list of thresholds
+	 */
+	private static ArrayList<Double> thresholds(double min, double max, double step) {
+		ArrayList<Double> retVal = new ArrayList<Double>();
+		for (double t = min; t <= max; t += step) {
+			retVal.add(t);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Evaluate the l/h/d threshold grid with fork/join.  Each branch uses its own
+	 * parameter and cluster set copies.  LIUM feature sets keep per-show state and
+	 * are not shared between threads, each worker thread derives its own view of the
+	 * base feature set once (from memory, audio is not read again) and reuses it for
+	 * every branch it runs, so derived features are cached per worker thread.  The
+	 * result is the one of the last grid point in sequential order, as with the
+	 * sequential sweep.
+	 *
+	 * @param referenceClusterSet the reference cluster set
+	 * @param uemClusterSet the uem cluster set
+	 * @param clusterSet the cluster set
+	 * @param clustersSegInit the clusters seg init
+	 * @param clustersSegSave the segmentation
+	 * @param featureSet the base feature set, loaded for the show
+	 * @param featureClusterSet the cluster set used to load base features
+	 * @param featureDesc the base feature descriptor
+	 * @param parameter the parameter
+	 * @return the cluster set
+	 * @throws Exception the exception
+	 */
+	private ClusterSet parallelThresholdSweep(ClusterSet referenceClusterSet, ClusterSet uemClusterSet, ClusterSet clusterSet, ClusterSet clustersSegInit, ClusterSet clustersSegSave, AudioFeatureSet featureSet, ClusterSet featureClusterSet, String featureDesc, Parameter parameter) throws Exception {
+		final boolean ceClustering = parameter.getParameterDiarization().isCEClustering();
+		final Map<Thread, AudioFeatureSet> views = new ConcurrentHashMap<Thread, AudioFeatureSet>();
+		ArrayList<ForkJoinTask<ClusterSet>> lTasks = new ArrayList<ForkJoinTask<ClusterSet>>();
+		for (double l : thresholds(lMin, lMax, 0.5)) {
+			lTasks.add(adapt(() -> {
+				Parameter lParameter = copyParameter(parameter);
+				logger.finest("clustering l=" + l);
+				ClusterSet clustersLClust = clusteringLinear(l, clustersSegSave.clone(), featureView(views, featureSet, lParameter, featureClusterSet, featureDesc), lParameter);
+
+				ArrayList<ForkJoinTask<ClusterSet>> hTasks = new ArrayList<ForkJoinTask<ClusterSet>>();
+				for (double h : thresholds(hMin, hMax, 0.5)) {
+					hTasks.add(adapt(() -> {
+						Parameter hParameter = copyParameter(parameter);
+						ClusterSet clustersHClust = clustering(h, clustersLClust.clone(), featureView(views, featureSet, hParameter, featureClusterSet, featureDesc), hParameter);
+
+						ArrayList<ForkJoinTask<ClusterSet>> dTasks = new ArrayList<ForkJoinTask<ClusterSet>>();
+						for (double d : thresholds(dMin, dMax, 50)) {
+							dTasks.add(adapt(() -> {
+								Parameter dParameter = copyParameter(parameter);
+								AudioFeatureSet dFeatureSet = featureView(views, featureSet, dParameter, featureClusterSet, featureDesc);
+								ClusterSet clustersDClust = decode(8, d, clustersHClust.clone(), dFeatureSet, dParameter);
+								ClusterSet clustersSplitClust = speech("10,10,50", clusterSet.clone(), clustersSegInit.clone(), clustersDClust, dFeatureSet, dParameter);
+								ClusterSet clustersGender = gender(clusterSet, clustersSplitClust, dFeatureSet, dParameter);
+
+								String key = "l=" + l + " h=" + h + " d=" + d;
+								ClusterSetResultList showResult = new ClusterSetResultList(cMin, cMax, mult);
+								if (ceClustering == true) {
+									return speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", clustersGender, dFeatureSet, dParameter, showResult);
+								} else {
+									return clustersGender;
+								}
+							}));
+						}
+						return lastResult(ForkJoinTask.invokeAll(dTasks));
+					}));
+				}
+				return lastResult(ForkJoinTask.invokeAll(hTasks));
+			}));
+		}
+
+		try {
+			return invoke(adapt(() -> lastResult(ForkJoinTask.invokeAll(lTasks))));
+		} finally {
+			LIUMFeatureCache cache = featureCache;
+			if (cache != null) {
+				for (AudioFeatureSet view : views.values()) {
+					cache.remove(view);
+				}
+			}
+		}
+	}
+
+	/**
+	 * View of the base feature set for the current worker thread.  The view is
+	 * derived from the base feature set in memory the first time a thread asks for
+	 * it; tasks run by the same thread execute one at a time and share the view.
+	 *
+	 * @param views the views by worker thread
+	 * @param featureSet the base feature set
+	 * @param parameter the parameter of the branch
+	 * @param clusterSet the cluster set used to load base features
+	 * @param featureDesc the base feature descriptor
+	 * @return the audio feature set
+	 * @throws Exception the exception
+	 */
+	private AudioFeatureSet featureView(Map<Thread, AudioFeatureSet> views, AudioFeatureSet featureSet, Parameter parameter, ClusterSet clusterSet, String featureDesc) throws Exception {
+		AudioFeatureSet retVal = views.get(Thread.currentThread());
+		if (retVal == null) {
+			synchronized (featureSet) {
+				retVal = readFeature(featureSet, parameter, clusterSet.clone(), featureDesc);
+			}
+			retVal.setCurrentShow(parameter.show);
+			views.put(Thread.currentThread(), retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Invoke task in a fork/join pool dedicated to this run, re-throwing exceptions
+	 * thrown by stages.  The pool is bounded by the number of processors and is shut
+	 * down when the task completes or the diarization is cancelled.
+	 *
+	 * @param <T> the result type
+	 * @param task the task
+	 * @return the result
+	 * @throws Exception the exception
+	 */
+	private <T> T invoke(ForkJoinTask<T> task) throws Exception {
+		checkCancelled();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		forkJoinPool = pool;
+		try {
+			if (cancelled) {
+				pool.shutdownNow();
+			}
+			return pool.invoke(task);
+		} catch (CancellationException | RejectedExecutionException e) {
+			checkCancelled();
+			throw e;
+		} catch (RuntimeException e) {
+			// unwrap exceptions thrown by stages
+			Throwable cause = e;
+			while ((cause instanceof RuntimeException) && (cause.getCause() != null)) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		} finally {
+			forkJoinPool = null;
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Audio of the show if it should be diarized in chunks, see {@link #chunkedDiarization}.
+	 * Chunked diarization requires the run arguments, a wav file as feature input with
+	 * <code>audio2sphinx</code> features and is not used with an input segmentation.
+	 *
+	 * @param parameter the parameter
+	 * @param featureDesc the base feature descriptor
+	 * @return the audio or <code>null</code> if the show is not diarized in chunks
+	 */
+	private WavFile chunkedAudio(Parameter parameter, String featureDesc) {
+		if ((chunkLength <= 0.0) || (runArguments == null) || parameter.getParameterDiarization().isLoadInputSegmentation()
+				|| parameter.getParameterDiarization().isLastStepOnly() || !featureDesc.startsWith(AUDIO_FEATURE_TYPE + ",")) {
+			return null;
+		}
+		String audioFile = parameter.getParameterInputFeature().getFeatureMask().replace("%s", parameter.show);
+		try {
+			WavFile audio = WavFile.open(Paths.get(audioFile));
+			return (audio.getLength() > chunkLength * 3 / 2 ? audio : null);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "unable to read audio " + audioFile + ", chunked diarization disabled", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Chunked diarization.  The audio is split into chunks of about <code>chunkLength</code>
+	 * seconds at low energy points.  The audio of each chunk is copied to a temporary file, see
+	 * {@link #writeAudio}, and the chunk is diarized as an independent show (sanity check,
+	 * segmentation, l/h clustering and decoding using the minimum thresholds, speech, gender
+	 * and CE clustering.)  Chunks
+	 * are diarized in parallel, features of the whole show are never loaded; memory use
+	 * depends on chunk length and the number of processors, not on the length of the show.
+	 * Speakers are linked across chunks by CE clustering of up to {@link #LINK_SPEECH_LENGTH}
+	 * seconds of speech of each chunk speaker.
+	 *
+	 * @param audio the audio of the show
+	 * @param referenceClusterSet the reference cluster set
+	 * @param uemClusterSet the uem cluster set
+	 * @param featureDesc the base feature descriptor
+	 * @param parameter the parameter
+	 * @return the cluster set
+	 * @throws Exception the exception
+	 */
+	private ClusterSet chunkedDiarization(WavFile audio, ClusterSet referenceClusterSet, ClusterSet uemClusterSet, String featureDesc, Parameter parameter) throws Exception {
+		final boolean ceClustering = parameter.getParameterDiarization().isCEClustering();
+		final int rate = parameter.getParameterSegmentationInputFile().getRate();
+		int[] boundaries = chunkBoundaries(AudioEnergyExtractor.extractEnergy(audio, rate), (int) (chunkLength * rate));
+		int chunkCount = boundaries.length - 1;
+		logger.info("--> chunked diarization, " + chunkCount + " chunks");
+		// sanity check, segmentation, l/h clustering, decoding, speech, gender and speaker clustering per chunk and speaker linking
+		resetProgress(chunkCount * (ceClustering ? 8 : 7) + 1);
+
+		ArrayList<ForkJoinTask<ClusterSet>> chunkTasks = new ArrayList<ForkJoinTask<ClusterSet>>();
+		for (int i = 0; i < chunkCount; i++) {
+			final int chunk = i;
+			chunkTasks.add(adapt(() -> diarizeChunk(audio, chunk, boundaries[chunk], boundaries[chunk + 1], referenceClusterSet, uemClusterSet, featureDesc, parameter)));
+		}
+		final ArrayList<ClusterSet> chunkResults = new ArrayList<ClusterSet>();
+		invoke(ForkJoinTask.adapt(() -> {
+			for (ForkJoinTask<ClusterSet> task : ForkJoinTask.invokeAll(chunkTasks)) {
+				chunkResults.add(task.join());
+			}
+		}));
+		return linkSpeakers(audio, chunkResults, referenceClusterSet, uemClusterSet, featureDesc, parameter);
+	}
+
+	/**
+	 * Diarize a chunk of the show.  Clusters of the result are prefixed with the chunk index
+	 * and segments are offset to the start of the chunk.
+	 *
+	 * @param audio the audio of the show
+	 * @param chunk the chunk index
+	 * @param start the first feature of the chunk
+	 * @param end the end feature (exclusive) of the chunk
+	 * @param referenceClusterSet the reference cluster set
+	 * @param uemClusterSet the uem cluster set
+	 * @param featureDesc the base feature descriptor
+	 * @param parameter the parameter of the show
+	 * @return the cluster set
+	 * @throws Exception the exception
+	 */
+	private ClusterSet diarizeChunk(WavFile audio, int chunk, int start, int end, ClusterSet referenceClusterSet, ClusterSet uemClusterSet, String featureDesc, Parameter parameter) throws Exception {
+		final int rate = parameter.getParameterSegmentationInputFile().getRate();
+		Path chunkFile = Files.createTempFile("diarization_chunk", ".wav");
+		AudioFeatureSet featureSet = null;
+		try {
+			writeAudio(audio, Collections.singletonList(new int[] { start, end }), rate, chunkFile);
+			Parameter chunkParameter = copyParameter(parameter);
+			chunkParameter.getParameterInputFeature().setFeatureMask(chunkFile.toString());
+
+			ClusterSet clusterSet = initialize(chunkParameter);
+			featureSet = loadFeature(chunkParameter, clusterSet, featureDesc);
+			featureSet.setCurrentShow(chunkParameter.show);
+			clusterSet.getFirstCluster().firstSegment().setLength(Math.min(end - start, featureSet.getNumberOfFeatures()));
+			ClusterSet clustersSegInit = sanityCheck(clusterSet, featureSet, chunkParameter);
+
+			int segmentationMethod = chunkParameter.getParameterSegmentation().getMethod().ordinal();
+			String segmentationMethodString = ParameterSegmentation.SegmentationMethodString[segmentationMethod];
+			ClusterSet clustersSeg = segmentation(segmentationMethodString, "FULL", clustersSegInit, featureSet, chunkParameter);
+			ClusterSet clustersLClust = clusteringLinear(lMin, clustersSeg, featureSet, chunkParameter);
+			ClusterSet clustersHClust = clustering(hMin, clustersLClust, featureSet, chunkParameter);
+			ClusterSet clustersDClust = decode(8, dMin, clustersHClust, featureSet, chunkParameter);
+			ClusterSet clustersSplitClust = speech("10,10,50", clusterSet, clustersSegInit, clustersDClust, featureSet, chunkParameter);
+			ClusterSet chunkResult = gender(clusterSet, clustersSplitClust, featureSet, chunkParameter);
+			if (chunkParameter.getParameterDiarization().isCEClustering()) {
+				String key = "chunk " + chunk + " l=" + lMin + " h=" + hMin + " d=" + dMin;
+				ClusterSetResultList showResult = new ClusterSetResultList(cMin, cMax, mult);
+				chunkResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", chunkResult, featureSet, chunkParameter, showResult);
+			}
+
+			ClusterSet retVal = new ClusterSet();
+			String prefix = "C" + chunk + "_";
+			for (Cluster cluster : chunkResult.getClusterMap().values()) {
+				retVal.createANewCluster(prefix + cluster.getName()).setGender(cluster.getGender());
+			}
+			for (Segment segment : chunkResult.getSegments()) {
+				int segmentStart = start + segment.getStart();
+				int segmentEnd = Math.min(end, segmentStart + segment.getLength());
+				if (segmentEnd > segmentStart) {
+					Cluster cluster = retVal.getCluster(prefix + segment.getClusterName());
+					cluster.addSegment(new Segment(parameter.show, segmentStart, segmentEnd - segmentStart, cluster, rate));
+				}
+			}
+			return retVal;
+		} finally {
+			if (featureSet != null && featureCache != null) {
+				featureCache.remove(featureSet);
+			}
+			Files.deleteIfExists(chunkFile);
+		}
+	}
+
+	/**
+	 * Link speakers of chunks.  Features of up to {@link #LINK_SPEECH_LENGTH} seconds of the
+	 * longest segments of each chunk speaker are copied from the audio and clustered
+	 * using CE clustering, starting with one cluster per chunk speaker.  When the merge
+	 * history is recorded, leaves of the history are the segments of the chunk speakers
+	 * in the show.
+	 *
+	 * @param audio the audio of the show
+	 * @param chunkResults the chunk results
+	 * @param referenceClusterSet the reference cluster set
+	 * @param uemClusterSet the uem cluster set
+	 * @param featureDesc the base feature descriptor
+	 * @param parameter the parameter of the show
+	 * @return the cluster set of the show
+	 * @throws Exception the exception
+	 */
+	private ClusterSet linkSpeakers(WavFile audio, List<ClusterSet> chunkResults, ClusterSet referenceClusterSet, ClusterSet uemClusterSet, String featureDesc, Parameter parameter) throws Exception {
+		final int rate = parameter.getParameterSegmentationInputFile().getRate();
+		final int linkFeatures = (int) (LINK_SPEECH_LENGTH * rate);
+
+		// segments of the linking features, keyed by start, to the chunk speaker
+		TreeMap<Integer, String> linkSegments = new TreeMap<Integer, String>();
+		ArrayList<int[]> featureRanges = new ArrayList<int[]>();
+		ClusterSet linkClusterSet = new ClusterSet();
+		int linkFeatureCount = 0;
+		for (ClusterSet chunkResult : chunkResults) {
+			HashMap<String, ArrayList<Segment>> clusterSegments = new HashMap<String, ArrayList<Segment>>();
+			for (Segment segment : chunkResult.getSegments()) {
+				clusterSegments.computeIfAbsent(segment.getClusterName(), (name) -> new ArrayList<Segment>()).add(segment);
+			}
+			for (Cluster cluster : chunkResult.getClusterMap().values()) {
+				Cluster linkCluster = linkClusterSet.createANewCluster(cluster.getName());
+				linkCluster.setGender(cluster.getGender());
+				for (Segment segment : representativeSegments(clusterSegments.get(cluster.getName()), linkFeatures)) {
+					featureRanges.add(new int[] { segment.getStart(), segment.getStart() + segment.getLength() });
+					linkCluster.addSegment(new Segment(parameter.show, linkFeatureCount, segment.getLength(), linkCluster, rate));
+					linkSegments.put(linkFeatureCount, cluster.getName());
+					linkFeatureCount += segment.getLength();
+				}
+			}
+		}
+
+		ClusterSet linkResult = null;
+		SpeakerMergeHistory linkHistory = null;
+		Path linkFile = Files.createTempFile("diarization_link", ".wav");
+		AudioFeatureSet featureSet = null;
+		try {
+			writeAudio(audio, featureRanges, rate, linkFile);
+			Parameter linkParameter = copyParameter(parameter);
+			linkParameter.getParameterInputFeature().setFeatureMask(linkFile.toString());
+			featureSet = loadFeature(linkParameter, linkClusterSet, featureDesc);
+			featureSet.setCurrentShow(linkParameter.show);
+
+			String key = "chunked l=" + lMin + " h=" + hMin + " d=" + dMin;
+			ClusterSetResultList showResult = new ClusterSetResultList(cMin, cMax, mult);
+			linkParameter.getParameterClustering().setMinimumOfCluster(2);
+			linkResult = speakerClustering(referenceClusterSet, uemClusterSet, key, "ce", linkClusterSet, featureSet, linkParameter, showResult, true);
+			linkHistory = mergeHistories.remove(linkResult);
+		} finally {
+			if (featureSet != null && featureCache != null) {
+				featureCache.remove(featureSet);
+			}
+			Files.deleteIfExists(linkFile);
+		}
+
+		// chunk speaker to linked speaker
+		HashMap<String, String> speakers = new HashMap<String, String>();
+		for (Segment segment : linkResult.getSegments()) {
+			Map.Entry<Integer, String> entry = linkSegments.floorEntry(segment.getStart());
+			if (entry != null) {
+				speakers.put(entry.getValue(), segment.getClusterName());
+			}
+		}
+
+		ClusterSet retVal = new ClusterSet();
+		SpeakerMergeHistory history = null;
+		if (linkHistory != null) {
+			history = new SpeakerMergeHistory();
+			history.setThreshold(linkHistory.getThreshold());
+		}
+		for (ClusterSet chunkResult : chunkResults) {
+			for (Segment segment : chunkResult.getSegments()) {
+				String chunkSpeaker = segment.getClusterName();
+				String speaker = speakers.getOrDefault(chunkSpeaker, chunkSpeaker);
+				Cluster cluster = retVal.getCluster(speaker);
+				if (cluster == null) {
+					Cluster linkCluster = linkResult.getCluster(speaker);
+					cluster = retVal.createANewCluster(speaker);
+					cluster.setGender(linkCluster != null ? linkCluster.getGender() : chunkResult.getCluster(chunkSpeaker).getGender());
+				}
+				cluster.addSegment(new Segment(parameter.show, segment.getStart(), segment.getLength(), cluster, rate));
+				if (history != null) {
+					history.addLeaf(chunkSpeaker, chunkResult.getCluster(chunkSpeaker).getGender(),
+							segment.getStart() * 1000.0f / rate, (segment.getStart() + segment.getLength()) * 1000.0f / rate);
+				}
+			}
+		}
+		if (history != null) {
+			for (SpeakerMergeHistory.Merge merge : linkHistory.getMerges()) {
+				history.addMerge(merge.getMerged(), merge.getInto(), merge.getScore());
+			}
+			mergeHistories.put(retVal, history);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Copy the audio of the given feature ranges, concatenated, to a wav file.  Features
+	 * of the file are computed by LIUM using the <code>audio2sphinx</code> descriptor of
+	 * the show, as for the whole show, so chunks are scored with the features the
+	 * models were trained on.  Silence is appended so the features of the last range are
+	 * complete; only the audio of the ranges is read.
+	 *
+	 * @param audio the audio of the show
+	 * @param featureRanges the [start, end) feature ranges
+	 * @param rate the feature rate
+	 * @param file the wav file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeAudio(WavFile audio, List<int[]> featureRanges, int rate, Path file) throws IOException {
+		final double samplesPerFeature = (double) audio.getSampleRate() / rate;
+		ArrayList<long[]> sampleRanges = new ArrayList<long[]>();
+		for (int[] range : featureRanges) {
+			sampleRanges.add(new long[] { Math.round(range[0] * samplesPerFeature), Math.round(range[1] * samplesPerFeature) });
+		}
+		audio.writeRanges(sampleRanges, (int) Math.ceil(CHUNK_AUDIO_PADDING * audio.getSampleRate()), file);
+	}
+
+	/**
+	 * Longest segments covering at least <code>features</code> features (or all segments), in time order.
+	 *
+	 * @param segments the segments
+	 * @param features the number of features
+	 * @return the segments
+	 */
+	private static List<Segment> representativeSegments(List<Segment> segments, int features) {
+		ArrayList<Segment> retVal = new ArrayList<Segment>();
+		if (segments == null) {
+			return retVal;
+		}
+		ArrayList<Segment> sorted = new ArrayList<Segment>(segments);
+		sorted.sort((a, b) -> Integer.compare(b.getLength(), a.getLength()));
+		int total = 0;
+		for (Segment segment : sorted) {
+			if (total >= features) {
+				break;
+			}
+			retVal.add(segment);
+			total += segment.getLength();
+		}
+		retVal.sort((a, b) -> Integer.compare(a.getStart(), b.getStart()));
+		return retVal;
+	}
+
+	/**
+	 * Chunk boundaries for chunks of about <code>chunkFeatures</code> features.  Each chunk ends
+	 * at the feature with the lowest mean energy around it within a quarter chunk of the target
+	 * length.  The last chunk is at most 1.5 times the chunk length.
+	 *
+	 * @param energy the per feature log-energy
+	 * @param chunkFeatures the chunk length in features
+	 * @return the chunk boundaries, starting with 0 and ending with the number of features
+	 */
+	private static int[] chunkBoundaries(FrameBuffer energy, int chunkFeatures) {
+		int total = energy.size();
+		int tolerance = chunkFeatures / 4;
+		ArrayList<Integer> boundaries = new ArrayList<Integer>();
+		boundaries.add(0);
+		int start = 0;
+		while (total - start > chunkFeatures * 3 / 2) {
+			int target = start + chunkFeatures;
+			int boundary = target;
+			float minEnergy = Float.POSITIVE_INFINITY;
+			for (int f = target - tolerance; f <= target + tolerance; f++) {
+				float e = energy.mean(f - BOUNDARY_ENERGY_WINDOW, f + BOUNDARY_ENERGY_WINDOW, 0);
+				if (e < minEnergy) {
+					minEnergy = e;
+					boundary = f;
+				}
+			}
+			boundaries.add(boundary);
+			start = boundary;
+		}
+		boundaries.add(total);
+		return boundaries.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Result of the last task of the given list.
+	 *
+	 * @param tasks the tasks
+	 * @return the cluster set
+	 */
+	private static ClusterSet lastResult(Collection<ForkJoinTask<ClusterSet>> tasks) {
+		ClusterSet retVal = null;
+		for (ForkJoinTask<ClusterSet> task : tasks) {
+			retVal = task.join();
+		}
+		return retVal;
 	}
 
 	/**
@@ -808,9 +2062,11 @@ public class SpkDiarization extends Thread {
 	 * @param args the arguments
 	 */
 	public static void main(String[] args) {
+		int exitValue = 0;
 		try {
 			SpkDiarizationLogger.setup();
-			arguments = args;
+			SpkDiarization diarization = new SpkDiarization();
+			args = diarization.readOptions(args);
 			Parameter parameter = getParameter(args);
 			if (args.length <= 1) {
 				parameter.help = true;
@@ -819,24 +2075,34 @@ public class SpkDiarization extends Thread {
 			info(parameter, "Diarization");
 
 			if (parameter.show.isEmpty() == false) {
-				SpkDiarization diarization = new SpkDiarization();
-				if (parameter.getParameterDiarization().getSystem() == ParameterBNDiarization.SystemString[1]) {
-					parameter.getParameterSegmentationSplit().setSegmentMaximumLength((10 * parameter.getParameterSegmentationInputFile().getRate()));
+				if (diarization.printResults) {
+					diarization.addStageListener((evt) -> System.out.println(LIUMResultsConverter.stageLine(evt)));
+					ClusterSet clusterSet = diarization.diarizeShow(parameter);
+					LIUMResultsConverter.writeLines(clusterSet, diarization.getMergeHistory(), diarization.getFrameRate(), System.out::println);
+					System.out.println(LIUMResultsConverter.DONE);
+					System.out.flush();
+				} else {
+					setupSystem(parameter);
+					logger.info("Diarization tuning");
+					diarization.ester2DiarizationCorpus(parameter);
 				}
-				logger.info("Diarization tuning");
-				diarization.ester2DiarizationCorpus(parameter);
 			}
 		} catch (DiarizationException e) {
 			logger.log(Level.SEVERE, "Diarization error", e);
 			e.printStackTrace();
+			exitValue = 1;
 		} catch (IOException e) {
 			logger.log(Level.SEVERE, "IOExecption error", e);
 			e.printStackTrace();
+			exitValue = 1;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Execption error", e);
 			e.printStackTrace();
+			exitValue = 1;
+		}
+		if (exitValue != 0) {
+			System.exit(exitValue);
 		}
-
 	}
 
 	/**
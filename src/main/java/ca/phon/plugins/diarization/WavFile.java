@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Header of a PCM or IEEE float wav file.
+ */
+public final class WavFile {
+
+	private final static int WAVE_FORMAT_PCM = 1;
+
+	private final static int WAVE_FORMAT_IEEE_FLOAT = 3;
+
+	private final static int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	private final Path path;
+
+	private final int channels;
+
+	private final int sampleRate;
+
+	private final int bitsPerSample;
+
+	private final boolean floatingPoint;
+
+	private final long dataOffset;
+
+	private final long dataLength;
+
+	/**
+	 * Read header of wav file
+	 *
+	 * @param path
+	 * @return wav file
+	 * @throws IOException if the file is not a supported wav file
+	 */
+	public static WavFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+			final ByteBuffer riff = read(channel, buffer, 12);
+			final int riffId = riff.getInt();
+			riff.getInt(); // file size
+			if(riffId != 0x46464952 /* RIFF */ || riff.getInt() != 0x45564157 /* WAVE */)
+				throw new IOException("Not a wav file");
+
+			byte[] fmtChunk = null;
+			while(true) {
+				final ByteBuffer chunkHeader = read(channel, buffer, 8);
+				final int chunkId = chunkHeader.getInt();
+				final long chunkSize = chunkHeader.getInt() & 0xffffffffL;
+				if(chunkId == 0x20746d66 /* fmt */) {
+					if(chunkSize < 16 || chunkSize > buffer.capacity())
+						throw new IOException("Invalid fmt chunk");
+					final ByteBuffer fmt = read(channel, buffer, (int)chunkSize);
+					fmtChunk = new byte[(int)chunkSize];
+					fmt.get(fmtChunk);
+					if(chunkSize % 2 == 1) channel.position(channel.position() + 1);
+				} else if(chunkId == 0x61746164 /* data */) {
+					if(fmtChunk == null) throw new IOException("Missing fmt chunk");
+					final long dataOffset = channel.position();
+					return new WavFile(path, fmtChunk, dataOffset, Math.min(chunkSize, channel.size() - dataOffset));
+				} else {
+					channel.position(channel.position() + chunkSize + (chunkSize & 1));
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, ByteBuffer buffer, int len) throws IOException {
+		buffer.clear();
+		buffer.limit(len);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) < 0) throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private WavFile(Path path, byte[] fmtChunk, long dataOffset, long dataLength) throws IOException {
+		this.path = path;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
+
+		final ByteBuffer fmt = ByteBuffer.wrap(fmtChunk).order(ByteOrder.LITTLE_ENDIAN);
+		int audioFormat = fmt.getShort() & 0xffff;
+		this.channels = fmt.getShort() & 0xffff;
+		this.sampleRate = fmt.getInt();
+		fmt.getInt(); // byte rate
+		fmt.getShort(); // block align
+		this.bitsPerSample = fmt.getShort() & 0xffff;
+		if(audioFormat == WAVE_FORMAT_EXTENSIBLE && fmtChunk.length >= 26) {
+			fmt.position(24);
+			audioFormat = fmt.getShort() & 0xffff;
+		}
+		if(audioFormat != WAVE_FORMAT_PCM && audioFormat != WAVE_FORMAT_IEEE_FLOAT)
+			throw new IOException("Unsupported wav encoding " + audioFormat);
+		if(channels <= 0 || sampleRate <= 0 || bitsPerSample <= 0 || bitsPerSample % 8 != 0)
+			throw new IOException("Invalid wav format");
+		this.floatingPoint = (audioFormat == WAVE_FORMAT_IEEE_FLOAT);
+	}
+
+	public Path getPath() {
+		return this.path;
+	}
+
+	public int getChannels() {
+		return this.channels;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public int getBitsPerSample() {
+		return this.bitsPerSample;
+	}
+
+	public boolean isFloatingPoint() {
+		return this.floatingPoint;
+	}
+
+	/**
+	 * Offset of the first sample in the file
+	 *
+	 * @return data offset in bytes
+	 */
+	public long getDataOffset() {
+		return this.dataOffset;
+	}
+
+	/**
+	 * Length of sample data
+	 *
+	 * @return data length in bytes
+	 */
+	public long getDataLength() {
+		return this.dataLength;
+	}
+
+	/**
+	 * Bytes per sample for all channels
+	 *
+	 * @return block align
+	 */
+	public int getBlockAlign() {
+		return channels * (bitsPerSample / 8);
+	}
+
+	/**
+	 * Number of samples (per channel)
+	 *
+	 * @return sample count
+	 */
+	public long getSampleCount() {
+		return dataLength / getBlockAlign();
+	}
+
+	/**
+	 * Length of audio
+	 *
+	 * @return length in seconds
+	 */
+	public double getLength() {
+		return (double)getSampleCount() / sampleRate;
+	}
+
+	/**
+	 * Write the given sample ranges, concatenated and followed by <code>silence</code>
+	 * samples of silence, as a wav file with the format of this file.  Only the
+	 * audio of the ranges is read.
+	 *
+	 * @param sampleRanges [start, end) sample ranges, clipped to the audio
+	 * @param silence number of trailing silent samples
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeRanges(List<long[]> sampleRanges, int silence, Path file) throws IOException {
+		final int blockAlign = getBlockAlign();
+		final long sampleCount = getSampleCount();
+		long dataLength = (long)silence * blockAlign;
+		for(long[] range:sampleRanges) {
+			dataLength += Math.max(0L, Math.min(range[1], sampleCount) - range[0]) * blockAlign;
+		}
+		if(dataLength > 0xffffffffL - 36)
+			throw new IOException("Audio too long for wav file");
+
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0x46464952); // RIFF
+			header.putInt((int)(36 + dataLength));
+			header.putInt(0x45564157); // WAVE
+			header.putInt(0x20746d66); // fmt
+			header.putInt(16);
+			header.putShort((short)(floatingPoint ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM));
+			header.putShort((short)channels);
+			header.putInt(sampleRate);
+			header.putInt(sampleRate * blockAlign);
+			header.putShort((short)blockAlign);
+			header.putShort((short)bitsPerSample);
+			header.putInt(0x61746164); // data
+			header.putInt((int)dataLength);
+			header.flip();
+			while(header.hasRemaining()) out.write(header);
+
+			for(long[] range:sampleRanges) {
+				long position = dataOffset + range[0] * blockAlign;
+				long count = Math.max(0L, Math.min(range[1], sampleCount) - range[0]) * blockAlign;
+				while(count > 0) {
+					final long transferred = in.transferTo(position, count, out);
+					if(transferred <= 0) throw new EOFException();
+					position += transferred;
+					count -= transferred;
+				}
+			}
+
+			// 8 bit pcm is unsigned
+			final byte zero = (!floatingPoint && bitsPerSample == 8 ? (byte)0x80 : 0);
+			final ByteBuffer silenceBuffer = ByteBuffer.allocate(Math.max(1, Math.min(silence * blockAlign, 64 * 1024)));
+			long remaining = (long)silence * blockAlign;
+			while(remaining > 0) {
+				silenceBuffer.clear();
+				while(silenceBuffer.hasRemaining()) silenceBuffer.put(zero);
+				silenceBuffer.flip();
+				silenceBuffer.limit((int)Math.min(silenceBuffer.limit(), remaining));
+				remaining -= out.write(silenceBuffer);
+			}
+		}
+	}
+
+}
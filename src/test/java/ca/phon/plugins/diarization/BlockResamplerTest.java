@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Block resampling of a pure tone.
+ */
+public class BlockResamplerTest {
+
+	private final static float SOURCE_RATE = 44100.0f;
+
+	private final static float TARGET_RATE = 16000.0f;
+
+	private final static double FREQUENCY = 440.0;
+
+	private final static int SOURCE_SAMPLES = (int)(2 * SOURCE_RATE);
+
+	private static BlockResampler resampler(float sourceRate, float targetRate) {
+		return new BlockResampler(SOURCE_SAMPLES, sourceRate, targetRate,
+				(i) -> 0.5 * Math.sin(2.0 * Math.PI * FREQUENCY * i / sourceRate));
+	}
+
+	@Test
+	public void testNumberOfSamples() {
+		assertEquals((int)(2 * TARGET_RATE), resampler(SOURCE_RATE, TARGET_RATE).getNumberOfSamples());
+	}
+
+	@Test
+	public void testDownsampleTone() {
+		final BlockResampler resampler = resampler(SOURCE_RATE, TARGET_RATE);
+		final double[] samples = resampler.resample(0, resampler.getNumberOfSamples());
+		// away from the edges the tone is preserved
+		for(int i = 1000; i < samples.length - 1000; i++) {
+			assertEquals(0.5 * Math.sin(2.0 * Math.PI * FREQUENCY * i / TARGET_RATE), samples[i], 1e-3);
+		}
+	}
+
+	@Test
+	public void testUpsampleTone() {
+		final BlockResampler resampler = resampler(TARGET_RATE, SOURCE_RATE);
+		final double[] samples = resampler.resample(0, resampler.getNumberOfSamples());
+		for(int i = 1000; i < samples.length - 1000; i++) {
+			assertEquals(0.5 * Math.sin(2.0 * Math.PI * FREQUENCY * i / SOURCE_RATE), samples[i], 1e-3);
+		}
+	}
+
+	@Test
+	public void testBlocksMatchWholeSignal() {
+		final BlockResampler resampler = resampler(SOURCE_RATE, TARGET_RATE);
+		final double[] whole = resampler.resample(0, resampler.getNumberOfSamples());
+		final int blockSamples = 1000;
+		for(int start = 0; start < whole.length; start += blockSamples) {
+			final double[] block = resampler.resample(start, Math.min(blockSamples, whole.length - start));
+			for(int i = 0; i < block.length; i++) {
+				assertEquals(whole[start + i], block[i], 1e-12);
+			}
+		}
+	}
+
+}
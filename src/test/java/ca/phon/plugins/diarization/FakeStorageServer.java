@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal local Cloud Storage JSON API server supporting resumable uploads.
+ * Chunk requests can be made to fail to exercise upload resume.
+ */
+final class FakeStorageServer implements AutoCloseable {
+
+	private final static String UPLOAD_PATH = "/upload/storage/v1/b/";
+
+	private final static Pattern NAME_PATTERN = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]*)\"");
+
+	private final static Pattern RANGE_PATTERN = Pattern.compile("bytes (\\*|(\\d+)-(\\d+))/(\\*|\\d+)");
+
+	private final HttpServer server;
+
+	private final Map<String, Upload> uploads = new HashMap<>();
+
+	private final Map<String, byte[]> objects = new HashMap<>();
+
+	/** Indices of chunk requests which fail with 503 */
+	private final Set<Integer> failedChunks = new HashSet<>();
+
+	private int chunkRequestCount = 0;
+
+	private int failedRequestCount = 0;
+
+	private int uploadCount = 0;
+
+	private static class Upload {
+
+		private final String bucket;
+
+		private final String name;
+
+		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		private Upload(String bucket, String name) {
+			this.bucket = bucket;
+			this.name = name;
+		}
+
+	}
+
+	FakeStorageServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/**
+	 * Host to use for storage options
+	 *
+	 * @return host url
+	 */
+	String getHost() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Fail the given chunk request (0-based, counting all chunk requests) once
+	 *
+	 * @param chunkRequest
+	 */
+	synchronized void failChunkRequest(int chunkRequest) {
+		failedChunks.add(chunkRequest);
+	}
+
+	synchronized int getFailedRequestCount() {
+		return this.failedRequestCount;
+	}
+
+	/**
+	 * Number of resumable upload sessions started
+	 *
+	 * @return upload count
+	 */
+	synchronized int getUploadCount() {
+		return this.uploadCount;
+	}
+
+	/**
+	 * Finalized object data
+	 *
+	 * @param bucket
+	 * @param name
+	 * @return object data or <code>null</code> if object does not exist
+	 */
+	synchronized byte[] getObject(String bucket, String name) {
+		return objects.get(bucket + "/" + name);
+	}
+
+	private synchronized void handle(HttpExchange exchange) throws IOException {
+		try {
+			final URI uri = exchange.getRequestURI();
+			final byte[] body = readBody(exchange.getRequestBody());
+			final String uploadId = queryParam(uri, "upload_id");
+			if("POST".equals(exchange.getRequestMethod()) && uri.getPath().startsWith(UPLOAD_PATH)) {
+				startUpload(exchange, uri, body);
+			} else if("PUT".equals(exchange.getRequestMethod()) && uploadId != null && uploads.containsKey(uploadId)) {
+				writeChunk(exchange, uploadId, body);
+			} else {
+				exchange.sendResponseHeaders(404, -1);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void startUpload(HttpExchange exchange, URI uri, byte[] body) throws IOException {
+		final String path = uri.getPath().substring(UPLOAD_PATH.length());
+		final String bucket = path.substring(0, path.indexOf('/'));
+		String name = queryParam(uri, "name");
+		final Matcher matcher = NAME_PATTERN.matcher(new String(body, StandardCharsets.UTF_8));
+		if(name == null && matcher.find()) {
+			name = matcher.group(1);
+		}
+		final String uploadId = "upload-" + (++uploadCount);
+		uploads.put(uploadId, new Upload(bucket, name));
+
+		exchange.getResponseHeaders().add("Location",
+				getHost() + UPLOAD_PATH + bucket + "/o?uploadType=resumable&upload_id=" + uploadId);
+		exchange.sendResponseHeaders(200, -1);
+	}
+
+	private void writeChunk(HttpExchange exchange, String uploadId, byte[] body) throws IOException {
+		final Upload upload = uploads.get(uploadId);
+		final String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+		final Matcher matcher = RANGE_PATTERN.matcher(contentRange != null ? contentRange : "");
+		if(!matcher.matches()) {
+			exchange.sendResponseHeaders(400, -1);
+			return;
+		}
+
+		if(matcher.group(2) != null) {
+			if(failedChunks.remove(chunkRequestCount++)) {
+				++failedRequestCount;
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			final long start = Long.parseLong(matcher.group(2));
+			if(start != upload.data.size()) {
+				exchange.sendResponseHeaders(400, -1);
+				return;
+			}
+			upload.data.write(body);
+		}
+
+		if("*".equals(matcher.group(4))) {
+			// upload incomplete, report persisted range
+			if(upload.data.size() > 0) {
+				exchange.getResponseHeaders().add("Range", "bytes=0-" + (upload.data.size() - 1));
+			}
+			exchange.sendResponseHeaders(308, -1);
+		} else {
+			final byte[] data = upload.data.toByteArray();
+			objects.put(upload.bucket + "/" + upload.name, data);
+			uploads.remove(uploadId);
+
+			final byte[] json = String.format("{\"kind\":\"storage#object\",\"bucket\":\"%s\",\"name\":\"%s\",\"size\":\"%d\"}",
+					upload.bucket, upload.name, data.length).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+			exchange.sendResponseHeaders(200, json.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(json);
+			}
+		}
+	}
+
+	private static byte[] readBody(InputStream in) throws IOException {
+		try(in) {
+			return in.readAllBytes();
+		}
+	}
+
+	private static String queryParam(URI uri, String param) {
+		final String query = uri.getQuery();
+		if(query == null) return null;
+		for(String part:query.split("&")) {
+			final int eq = part.indexOf('=');
+			if(eq > 0 && part.substring(0, eq).equals(param)) {
+				return part.substring(eq + 1);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.WordInfo;
+import com.google.protobuf.Duration;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chunk planning and speaker reconciliation of chunked recognition using
+ * fabricated audio and recognition results.
+ */
+public class GCSTChunkedRecognitionTest {
+
+	private final static float SAMPLE_RATE = 100.0f;
+
+	private final static float MAX_LENGTH = GCSTChunkedRecognition.MAX_CHUNK_LENGTH;
+
+	private final static float OVERLAP = GCSTChunkedRecognition.CHUNK_OVERLAP;
+
+	/**
+	 * Plan chunks for loud audio of the given length with short silences
+	 * at the given times.
+	 */
+	private static List<GCSTChunkedRecognition.Chunk> planChunks(float length, float... silences) {
+		final double[] samples = new double[(int)(length * SAMPLE_RATE)];
+		Arrays.fill(samples, 0.5);
+		for(float silence:silences) {
+			final int start = (int)(silence * SAMPLE_RATE);
+			Arrays.fill(samples, start, start + (int)(0.1f * SAMPLE_RATE), 0.0);
+		}
+		return GCSTChunkedRecognition.planChunks(samples.length, SAMPLE_RATE, (i) -> samples[i], MAX_LENGTH, OVERLAP);
+	}
+
+	private static Duration duration(double seconds) {
+		final long ms = Math.round(seconds * 1000.0);
+		return Duration.newBuilder().setSeconds(ms / 1000L).setNanos((int)(ms % 1000L) * 1000000).build();
+	}
+
+	private static double seconds(Duration duration) {
+		return duration.getSeconds() + duration.getNanos() * 1e-9;
+	}
+
+	private static WordInfo word(String word, double start, double end, int speakerTag) {
+		return WordInfo.newBuilder()
+				.setWord(word)
+				.setStartTime(duration(start))
+				.setEndTime(duration(end))
+				.setSpeakerTag(speakerTag)
+				.build();
+	}
+
+	/**
+	 * Recognition result for chunk, word times are given in audio time
+	 */
+	private static SpeechRecognitionAlternative result(GCSTChunkedRecognition.Chunk chunk, WordInfo... words) {
+		final double offset = chunk.getStartSample() / SAMPLE_RATE;
+		final SpeechRecognitionAlternative.Builder builder = SpeechRecognitionAlternative.newBuilder();
+		for(WordInfo word:words) {
+			builder.addWords(word.toBuilder()
+					.setStartTime(duration(seconds(word.getStartTime()) - offset))
+					.setEndTime(duration(seconds(word.getEndTime()) - offset)));
+		}
+		return builder.build();
+	}
+
+	private static List<Integer> speakerTags(SpeechRecognitionAlternative alternative) {
+		final List<Integer> retVal = new ArrayList<>();
+		for(WordInfo word:alternative.getWordsList()) {
+			retVal.add(word.getSpeakerTag());
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testPlanChunks() {
+		final List<GCSTChunkedRecognition.Chunk> chunks = planChunks(100.0f, 50.0f);
+		assertEquals(2, chunks.size());
+
+		final GCSTChunkedRecognition.Chunk first = chunks.get(0);
+		final GCSTChunkedRecognition.Chunk last = chunks.get(1);
+		assertEquals(0, first.getStartSample());
+		// cut inside the silence
+		assertTrue(first.getEndSample() >= 50.0f * SAMPLE_RATE && first.getEndSample() <= 50.1f * SAMPLE_RATE);
+		assertEquals(first.getEndSample() - (int)(OVERLAP * SAMPLE_RATE), last.getStartSample());
+		assertEquals((int)(100.0f * SAMPLE_RATE), last.getEndSample());
+	}
+
+	@Test
+	public void testPlanChunksWithoutSilence() {
+		final int numSamples = (int)(200.0f * SAMPLE_RATE);
+		final List<GCSTChunkedRecognition.Chunk> chunks = planChunks(200.0f);
+		assertTrue(chunks.size() > 1);
+		for(int i = 0; i < chunks.size(); i++) {
+			final GCSTChunkedRecognition.Chunk chunk = chunks.get(i);
+			assertEquals(i, chunk.getIndex());
+			assertTrue(chunk.getLength() <= MAX_LENGTH * SAMPLE_RATE);
+			if(i > 0) {
+				assertEquals(chunks.get(i - 1).getEndSample() - (int)(OVERLAP * SAMPLE_RATE), chunk.getStartSample());
+			}
+		}
+		assertEquals(numSamples, chunks.get(chunks.size() - 1).getEndSample());
+	}
+
+	@Test
+	public void testShortAudioIsSingleChunk() {
+		final List<GCSTChunkedRecognition.Chunk> chunks = planChunks(30.0f);
+		assertEquals(1, chunks.size());
+		assertEquals(0, chunks.get(0).getStartSample());
+		assertEquals((int)(30.0f * SAMPLE_RATE), chunks.get(0).getEndSample());
+	}
+
+	@Test
+	public void testMapSpeakers() {
+		final List<WordInfo> prevWords = List.of(
+				word("one", 46.0, 47.0, 1),
+				word("two", 48.0, 49.0, 2));
+		final List<WordInfo> words = List.of(
+				word("one", 46.0, 47.0, 2),
+				word("two", 48.0, 49.5, 1),
+				word("three", 52.0, 53.0, 3));
+
+		final Map<Integer, Integer> speakerMap = GCSTChunkedRecognition.mapSpeakers(prevWords, words, 45.0, 50.0);
+		assertEquals(Map.of(2, 1, 1, 2), speakerMap);
+	}
+
+	@Test
+	public void testMapSpeakersIgnoresWordsOutsideOverlap() {
+		final List<WordInfo> prevWords = List.of(word("before", 40.0, 41.0, 1));
+		final List<WordInfo> words = List.of(word("after", 51.0, 52.0, 1));
+
+		assertTrue(GCSTChunkedRecognition.mapSpeakers(prevWords, words, 45.0, 50.0).isEmpty());
+	}
+
+	@Test
+	public void testMerge() {
+		final List<GCSTChunkedRecognition.Chunk> chunks = planChunks(100.0f, 50.0f);
+		final List<SpeechRecognitionAlternative> results = List.of(
+				result(chunks.get(0),
+						word("a", 10.0, 11.0, 1),
+						word("b", 46.0, 47.0, 2),
+						word("c", 48.0, 49.0, 1)),
+				// speaker tags of the second chunk are swapped
+				result(chunks.get(1),
+						word("b", 46.0, 47.0, 1),
+						word("c", 48.0, 49.0, 2),
+						word("d", 60.0, 61.0, 1),
+						word("e", 70.0, 71.0, 2)));
+
+		final SpeechRecognitionAlternative merged = GCSTChunkedRecognition.merge(chunks, results, SAMPLE_RATE, 0);
+		assertEquals("a b c d e", merged.getTranscript());
+		assertEquals(List.of(1, 2, 1, 2, 1), speakerTags(merged));
+		assertEquals(60.0, seconds(merged.getWords(3).getStartTime()), 1e-6);
+	}
+
+	@Test
+	public void testMergeNewSpeaker() {
+		final List<GCSTChunkedRecognition.Chunk> chunks = planChunks(100.0f, 50.0f);
+		final List<SpeechRecognitionAlternative> results = List.of(
+				result(chunks.get(0), word("a", 46.0, 47.0, 1)),
+				result(chunks.get(1), word("a", 46.0, 47.0, 1), word("b", 60.0, 61.0, 2)));
+
+		final SpeechRecognitionAlternative merged = GCSTChunkedRecognition.merge(chunks, results, SAMPLE_RATE, 0);
+		assertEquals(List.of(1, 2), speakerTags(merged));
+	}
+
+	@Test
+	public void testMergeSpeakerLimitAfterChunkWithoutWords() {
+		final List<GCSTChunkedRecognition.Chunk> chunks = planChunks(150.0f, 50.0f, 100.0f);
+		assertEquals(3, chunks.size());
+		final List<SpeechRecognitionAlternative> results = List.of(
+				result(chunks.get(0), word("a", 10.0, 11.0, 1), word("b", 20.0, 21.0, 2)),
+				SpeechRecognitionAlternative.getDefaultInstance(),
+				result(chunks.get(2), word("c", 120.0, 121.0, 1), word("d", 130.0, 131.0, 2)));
+
+		// most recent speaker is used once the limit is reached
+		final SpeechRecognitionAlternative limited = GCSTChunkedRecognition.merge(chunks, results, SAMPLE_RATE, 2);
+		assertEquals(List.of(1, 2, 2, 2), speakerTags(limited));
+
+		final SpeechRecognitionAlternative unlimited = GCSTChunkedRecognition.merge(chunks, results, SAMPLE_RATE, 0);
+		assertEquals(List.of(1, 2, 3, 4), speakerTags(unlimited));
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Resumable audio uploads against a local fake storage server.
+ */
+public class GCSTUploadTest {
+
+	private final static String BUCKET = "phon-test";
+
+	private final static String OBJECT = "audio.wav";
+
+	/** Two full chunks and a partial last chunk */
+	private final static int DATA_SIZE = 2 * GCSTDiarizationTool.UPLOAD_CHUNK_SIZE + GCSTDiarizationTool.UPLOAD_CHUNK_SIZE / 2;
+
+	private FakeStorageServer server;
+
+	private Storage storage;
+
+	private GCSTDiarizationTool tool;
+
+	private final List<DiarizationEvent> events = new ArrayList<>();
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = new FakeStorageServer();
+		// client retries are disabled so interruptions reach the upload resume logic
+		storage = StorageOptions.newBuilder()
+				.setProjectId("test")
+				.setHost(server.getHost())
+				.setCredentials(NoCredentials.getInstance())
+				.setRetrySettings(ServiceOptions.getNoRetrySettings())
+				.build().getService();
+		tool = new GCSTDiarizationTool();
+		tool.addListener(events::add);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.close();
+	}
+
+	private static byte[] testData() {
+		final byte[] retVal = new byte[DATA_SIZE];
+		(new Random(20211001L)).nextBytes(retVal);
+		return retVal;
+	}
+
+	private static GCSTDiarizationTool.UploadSource source(byte[] data) {
+		final ByteBuffer in = ByteBuffer.wrap(data);
+		return (buffer) -> {
+			if(!in.hasRemaining()) return -1;
+			final int len = Math.min(buffer.remaining(), in.remaining());
+			final ByteBuffer slice = in.slice();
+			slice.limit(len);
+			buffer.put(slice);
+			in.position(in.position() + len);
+			return len;
+		};
+	}
+
+	@Test
+	public void testUpload() throws IOException {
+		final byte[] data = testData();
+		tool.uploadAudio(storage, BUCKET, OBJECT, data.length, source(data));
+
+		assertArrayEquals(data, server.getObject(BUCKET, OBJECT));
+		assertEquals(1, server.getUploadCount());
+	}
+
+	@Test
+	public void testResumeUpload() throws IOException {
+		final byte[] data = testData();
+		server.failChunkRequest(1);
+		tool.uploadAudio(storage, BUCKET, OBJECT, data.length, source(data));
+
+		assertEquals(1, server.getFailedRequestCount());
+		assertTrue(events.stream().anyMatch( (evt) -> evt.getMessage() != null && evt.getMessage().startsWith("Upload interrupted") ));
+		// resumed in the same upload session
+		assertEquals(1, server.getUploadCount());
+		assertArrayEquals(data, server.getObject(BUCKET, OBJECT));
+	}
+
+	@Test
+	public void testCancelledUploadIsNotFinalized() {
+		final byte[] data = testData();
+		final GCSTDiarizationTool.UploadSource source = source(data);
+		assertThrows(IOException.class, () -> tool.uploadAudio(storage, BUCKET, OBJECT, data.length, (buffer) -> {
+			final int read = source.read(buffer);
+			tool.setCancelIfRunning(true);
+			return read;
+		}));
+
+		assertNull(server.getObject(BUCKET, OBJECT));
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021-present Gregory Hedlund
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.plugins.diarization;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Copying sample ranges of wav files.
+ */
+public class WavFileTest {
+
+	private final static int SAMPLE_RATE = 8000;
+
+	private final static int SAMPLE_COUNT = 1000;
+
+	private Path source;
+
+	private Path target;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(44 + 2 * SAMPLE_COUNT).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0x46464952); // RIFF
+		buffer.putInt(36 + 2 * SAMPLE_COUNT);
+		buffer.putInt(0x45564157); // WAVE
+		buffer.putInt(0x20746d66); // fmt
+		buffer.putInt(16);
+		buffer.putShort((short)1);
+		buffer.putShort((short)1);
+		buffer.putInt(SAMPLE_RATE);
+		buffer.putInt(SAMPLE_RATE * 2);
+		buffer.putShort((short)2);
+		buffer.putShort((short)16);
+		buffer.putInt(0x61746164); // data
+		buffer.putInt(2 * SAMPLE_COUNT);
+		for(int i = 0; i < SAMPLE_COUNT; i++) {
+			buffer.putShort((short)i);
+		}
+		source = Files.createTempFile("wavfile", ".wav");
+		Files.write(source, buffer.array());
+		target = Files.createTempFile("wavfile", ".wav");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(source);
+		Files.deleteIfExists(target);
+	}
+
+	private static short[] samples(Path file) throws IOException {
+		final WavFile wavFile = WavFile.open(file);
+		final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		data.position((int)wavFile.getDataOffset());
+		final short[] retVal = new short[(int)wavFile.getSampleCount()];
+		for(int i = 0; i < retVal.length; i++) {
+			retVal[i] = data.getShort();
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testWriteRanges() throws IOException {
+		WavFile.open(source).writeRanges(List.of(new long[] { 10, 13 }, new long[] { 500, 502 }), 2, target);
+
+		final WavFile wavFile = WavFile.open(target);
+		assertEquals(SAMPLE_RATE, wavFile.getSampleRate());
+		assertEquals(1, wavFile.getChannels());
+		assertEquals(16, wavFile.getBitsPerSample());
+		assertArrayEquals(new short[] { 10, 11, 12, 500, 501, 0, 0 }, samples(target));
+	}
+
+	@Test
+	public void testWriteRangesClipsToAudio() throws IOException {
+		WavFile.open(source).writeRanges(List.of(new long[] { SAMPLE_COUNT - 2, SAMPLE_COUNT + 100 }), 0, target);
+
+		assertArrayEquals(new short[] { SAMPLE_COUNT - 2, SAMPLE_COUNT - 1 }, samples(target));
+	}
+
+}